@@ -0,0 +1,217 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM - Initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+import java.io.*;
+import java.util.*;
+import org.eclipse.core.runtime.jobs.*;
+
+/**
+ * Records the time that jobs and threads wait for scheduling rules and locks
+ * while contention profiling is enabled. Waits for a rule are aggregated by the
+ * class of the waiting job, the class of the blocking job and the class of the
+ * blocking rule. Waits for a lock are aggregated by lock.
+ */
+public class ContentionProfiler {
+	/**
+	 * The waits recorded for one kind of conflict or for one lock.
+	 */
+	static final class Contention implements IContention {
+		/**
+		 * @GuardedBy("this")
+		 */
+		private long count, max, total;
+		private final String name;
+
+		Contention(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Returns a copy of this contention that does not change.
+		 */
+		synchronized Contention copy() {
+			Contention copy = new Contention(name);
+			copy.count = count;
+			copy.max = max;
+			copy.total = total;
+			return copy;
+		}
+
+		/* (non-Javadoc)
+		 * @see org.eclipse.core.runtime.jobs.IContention#getCount()
+		 */
+		public synchronized long getCount() {
+			return count;
+		}
+
+		/* (non-Javadoc)
+		 * @see org.eclipse.core.runtime.jobs.IContention#getMaximumTime()
+		 */
+		public synchronized long getMaximumTime() {
+			return max;
+		}
+
+		/* (non-Javadoc)
+		 * @see org.eclipse.core.runtime.jobs.IContention#getName()
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/* (non-Javadoc)
+		 * @see org.eclipse.core.runtime.jobs.IContention#getTotalTime()
+		 */
+		public synchronized long getTotalTime() {
+			return total;
+		}
+
+		/**
+		 * Records a wait of the given time in milliseconds.
+		 */
+		synchronized void record(long time) {
+			count++;
+			total += time;
+			max = Math.max(max, time);
+		}
+
+		public String toString() {
+			return name;
+		}
+	}
+
+	/**
+	 * Sorts copies of contentions by decreasing total time.
+	 */
+	private static final Comparator TOTAL_ORDER = new Comparator() {
+		public int compare(Object o1, Object o2) {
+			long total1 = ((Contention) o1).total;
+			long total2 = ((Contention) o2).total;
+			return total1 > total2 ? -1 : (total1 < total2 ? 1 : 0);
+		}
+	};
+
+	/**
+	 * Map of contention name to Contention.
+	 * @GuardedBy("itself")
+	 */
+	private final HashMap contentions = new HashMap();
+
+	private volatile boolean enabled = false;
+
+	/**
+	 * Returns the name of the class that represents the given job: the class of
+	 * the job, or for a thread that begins a rule, the class of the job that
+	 * the thread is running, or else the class of the thread.
+	 */
+	private static String classOf(InternalJob job) {
+		if (job instanceof ThreadJob) {
+			Job realJob = ((ThreadJob) job).realJob;
+			if (realJob != null)
+				return realJob.getClass().getName();
+			Thread thread = job.getThread();
+			if (thread != null)
+				return thread.getClass().getName();
+		}
+		return job.getClass().getName();
+	}
+
+	/**
+	 * Writes all contentions to the given file, the longest total time first.
+	 */
+	void dump(File file) throws IOException {
+		IContention[] all = getContentions(0);
+		PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+		try {
+			out.println("Total (ms)\tCount\tMaximum (ms)\tContention"); //$NON-NLS-1$
+			for (int i = 0; i < all.length; i++) {
+				out.print(all[i].getTotalTime());
+				out.print('\t');
+				out.print(all[i].getCount());
+				out.print('\t');
+				out.print(all[i].getMaximumTime());
+				out.print('\t');
+				out.println(all[i].getName());
+			}
+		} finally {
+			out.close();
+		}
+		if (out.checkError())
+			throw new IOException("Failed to write contentions to: " + file); //$NON-NLS-1$
+	}
+
+	/**
+	 * Returns the contention with the given name, creating it if needed.
+	 */
+	private Contention get(String name) {
+		synchronized (contentions) {
+			Contention contention = (Contention) contentions.get(name);
+			if (contention == null) {
+				contention = new Contention(name);
+				contentions.put(name, contention);
+			}
+			return contention;
+		}
+	}
+
+	/**
+	 * Returns copies of the given number of contentions with the longest total
+	 * time, the longest first, or of all contentions if the count is zero.
+	 */
+	IContention[] getContentions(int count) {
+		Contention[] all;
+		synchronized (contentions) {
+			all = (Contention[]) contentions.values().toArray(new Contention[contentions.size()]);
+		}
+		for (int i = 0; i < all.length; i++)
+			all[i] = all[i].copy();
+		Arrays.sort(all, TOTAL_ORDER);
+		if (count <= 0 || count >= all.length)
+			return all;
+		IContention[] top = new IContention[count];
+		System.arraycopy(all, 0, top, 0, count);
+		return top;
+	}
+
+	/**
+	 * Returns the contention of a lock, to record the time a thread waited for it.
+	 */
+	Contention getLockContention(OrderedLock lock) {
+		return get(lock.toString());
+	}
+
+	/**
+	 * Returns the contention of a job or thread that waits because the rule of
+	 * the blocking job conflicts with its rule.
+	 */
+	Contention getRuleContention(InternalJob blocked, InternalJob blocking) {
+		ISchedulingRule rule = blocking.getRule();
+		String ruleClass = rule == null ? String.valueOf(rule) : rule.getClass().getName();
+		return get(classOf(blocked) + " blocked by " + classOf(blocking) + " on " + ruleClass); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Enables or disables profiling. Enabling discards the contentions recorded
+	 * before.
+	 */
+	void setEnabled(boolean value) {
+		if (value && !enabled) {
+			synchronized (contentions) {
+				contentions.clear();
+			}
+		}
+		enabled = value;
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2010 IBM Corporation and others.
+ * Copyright (c) 2003, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -12,7 +12,7 @@ package org.eclipse.core.internal.jobs;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.util.ArrayList;
+import java.util.*;
 import org.eclipse.core.internal.runtime.RuntimeLog;
 import org.eclipse.core.runtime.*;
 import org.eclipse.core.runtime.jobs.ILock;
@@ -20,15 +20,18 @@ import org.eclipse.core.runtime.jobs.ISchedulingRule;
 
 /**
  * Stores all the relationships between locks (rules are also considered locks), 
- * and the threads that own them. All the relationships are stored in a 2D integer array.
- * The rows in the array are threads, while the columns are locks.
- * Two corresponding arrayLists store the actual threads and locks.
- * The index of a thread in the first arrayList is the index of the row in the graph.
- * The index of a lock in the second arrayList is the index of the column in the graph. 
+ * and the threads that own them. The relationships form a graph whose rows are
+ * threads, while the columns are locks. The graph is sparse: each row only stores
+ * the entries for the locks the thread has a relationship with, in a map keyed by lock.
+ * Two linked maps store the rows and the columns in the order they were added.
  * An entry greater than 0 in the graph is the number of times a thread in the entry's row
  * acquired the lock in the entry's column.
  * An entry of -1 means that the thread is waiting to acquire the lock.
- * An entry of 0 means that the thread and the lock have no relationship.
+ * An entry of 0 means that the thread and the lock have no relationship, and is not stored.
+ * 
+ * The graph never contains a cycle of waiting threads, so when a thread starts to wait
+ * for a lock, only the threads reachable from the owners of that lock are searched for
+ * a cycle.
  * 
  * The difference between rules and locks is that locks can be suspended, while
  * rules are implicit locks and as such cannot be suspended.
@@ -69,16 +72,53 @@ class DeadlockDetector {
 	private static int NO_STATE = 0;
 	//state variables in the graph
 	private static int WAITING_FOR_LOCK = -1;
-	//empty matrix
-	private static final int[][] EMPTY_MATRIX = new int[0][0];
-	//matrix of relationships between threads and locks
-	private int[][] graph = EMPTY_MATRIX;
-	//index is column in adjacency matrix for the lock
-	private final ArrayList locks = new ArrayList();
-	//index is row in adjacency matrix for the thread
-	private final ArrayList lockThreads = new ArrayList();
-	//whether the graph needs to be resized
-	private boolean resize = false;
+
+	/**
+	 * A column of the graph.
+	 */
+	private static final class Column {
+		final ISchedulingRule lock;
+		//the number of threads that have an entry for the lock
+		int size = 0;
+
+		Column(ISchedulingRule lock) {
+			this.lock = lock;
+		}
+	}
+
+	/**
+	 * A non-empty entry of the graph.
+	 */
+	private static final class Entry {
+		final Column column;
+		int state;
+
+		Entry(Column column, int state) {
+			this.column = column;
+			this.state = state;
+		}
+	}
+
+	/**
+	 * A row of the graph.
+	 */
+	private static final class Row {
+		final Thread thread;
+		//map of lock to the entry of the thread for the lock (most threads own few locks)
+		final HashMap entries = new HashMap(4);
+
+		Row(Thread thread) {
+			this.thread = thread;
+		}
+	}
+
+	//columns that have no entries, and can be removed when the graph is reduced
+	//(except those of ordered locks, which are removed when reduced for the lock itself)
+	private final HashSet emptyColumns = new HashSet();
+	//map of lock to the column of the lock, in the order the locks were added
+	private final LinkedHashMap locks = new LinkedHashMap();
+	//map of thread to the row of the thread, in the order the threads were added
+	private final LinkedHashMap lockThreads = new LinkedHashMap();
 
 	/**
 	 * Recursively check if any of the threads that prevent the current thread from running
@@ -119,64 +159,84 @@ class DeadlockDetector {
 	}
 
 	/**
-	 * Check that the addition of a waiting thread did not produce deadlock. 
+	 * Check that the addition of a waiting thread did not produce deadlock.
 	 * If deadlock is detected return true, else return false.
 	 */
-	private boolean checkWaitCycles(int[] waitingThreads, int lockIndex) {
+	private boolean checkWaitCycles(HashSet waitingThreads, Column column) {
 		/**
-		 * find the lock that this thread is waiting for
+		 * find the threads that own the lock, and the locks those threads are waiting for
 		 * recursively check if this is a cycle (i.e. a thread waiting on itself)
 		 */
-		for (int i = 0; i < graph.length; i++) {
-			if (graph[i][lockIndex] > NO_STATE) {
-				if (waitingThreads[i] > NO_STATE) {
-					return true;
-				}
+		for (Iterator it = lockThreads.values().iterator(); it.hasNext();) {
+			Row row = (Row) it.next();
+			if (getState(row, column) > NO_STATE) {
 				//keep track that we already visited this thread
-				waitingThreads[i]++;
-				for (int j = 0; j < graph[i].length; j++) {
-					if (graph[i][j] == WAITING_FOR_LOCK) {
-						if (checkWaitCycles(waitingThreads, j))
+				if (!waitingThreads.add(row.thread))
+					return true;
+				for (Iterator entries = row.entries.values().iterator(); entries.hasNext();) {
+					Entry entry = (Entry) entries.next();
+					if (entry.state == WAITING_FOR_LOCK) {
+						if (checkWaitCycles(waitingThreads, entry.column))
 							return true;
 					}
 				}
 				//this thread is not involved in a cycle yet, so remove the visited flag
-				waitingThreads[i]--;
+				waitingThreads.remove(row.thread);
 			}
 		}
 		return false;
 	}
 
 	/**
-	 * Returns true IFF the matrix contains a row for the given thread.
+	 * Returns the column of the given lock. If the lock is not present
+	 * in the graph and add is true, a column is added at the end.
+	 * The caller must add an entry to a new column.
+	 */
+	private Column columnOf(ISchedulingRule lock, boolean add) {
+		Column column = (Column) locks.get(lock);
+		if ((column == null) && add) {
+			column = new Column(lock);
+			locks.put(lock, column);
+		}
+		return column;
+	}
+
+	/**
+	 * Returns true IFF the graph contains a row for the given thread.
 	 * (meaning the given thread either owns locks or is waiting for locks)
 	 */
 	boolean contains(Thread t) {
-		return lockThreads.contains(t);
+		return lockThreads.containsKey(t);
 	}
 
 	/**
 	 * A new rule was just added to the graph.
-	 * Find a rule it conflicts with and update the new rule with the number of times 
+	 * Find a rule it conflicts with and update the new rule with the number of times
 	 * it was acquired implicitly when threads acquired conflicting rule.
 	 */
-	private void fillPresentEntries(ISchedulingRule newLock, int lockIndex) {
+	private void fillPresentEntries(Column newColumn) {
+		ArrayList conflicting = new ArrayList();
 		//fill in the entries for the new rule from rules it conflicts with
-		for (int j = 0; j < locks.size(); j++) {
-			if ((j != lockIndex) && (newLock.isConflicting((ISchedulingRule) locks.get(j)))) {
-				for (int i = 0; i < graph.length; i++) {
-					if ((graph[i][j] > NO_STATE) && (graph[i][lockIndex] == NO_STATE))
-						graph[i][lockIndex] = graph[i][j];
+		for (Iterator it = locks.values().iterator(); it.hasNext();) {
+			Column column = (Column) it.next();
+			if ((column != newColumn) && (newColumn.lock.isConflicting(column.lock))) {
+				conflicting.add(column);
+				for (Iterator rows = lockThreads.values().iterator(); rows.hasNext();) {
+					Row row = (Row) rows.next();
+					int state = getState(row, column);
+					if ((state > NO_STATE) && (getState(row, newColumn) == NO_STATE))
+						setState(row, newColumn, state);
 				}
 			}
 		}
 		//now back fill the entries for rules the current rule conflicts with
-		for (int j = 0; j < locks.size(); j++) {
-			if ((j != lockIndex) && (newLock.isConflicting((ISchedulingRule) locks.get(j)))) {
-				for (int i = 0; i < graph.length; i++) {
-					if ((graph[i][lockIndex] > NO_STATE) && (graph[i][j] == NO_STATE))
-						graph[i][j] = graph[i][lockIndex];
-				}
+		for (int j = 0; j < conflicting.size(); j++) {
+			Column column = (Column) conflicting.get(j);
+			for (Iterator rows = lockThreads.values().iterator(); rows.hasNext();) {
+				Row row = (Row) rows.next();
+				int state = getState(row, newColumn);
+				if ((state > NO_STATE) && (getState(row, column) == NO_STATE))
+					setState(row, column, state);
 			}
 		}
 	}
@@ -186,17 +246,26 @@ class DeadlockDetector {
 	 */
 	private Object[] getOwnedLocks(Thread current) {
 		ArrayList ownedLocks = new ArrayList(1);
-		int index = indexOf(current, false);
+		Row row = rowOf(current, false);
 
-		for (int j = 0; j < graph[index].length; j++) {
-			if (graph[index][j] > NO_STATE)
-				ownedLocks.add(locks.get(j));
+		for (Iterator it = locks.values().iterator(); it.hasNext();) {
+			Column column = (Column) it.next();
+			if (getState(row, column) > NO_STATE)
+				ownedLocks.add(column.lock);
 		}
 		if (ownedLocks.size() == 0)
 			Assert.isLegal(false, "A thread with no locks is part of a deadlock."); //$NON-NLS-1$
 		return ownedLocks.toArray();
 	}
 
+	/**
+	 * Returns the entry of the given thread for the given lock.
+	 */
+	private int getState(Row row, Column column) {
+		Entry entry = (Entry) row.entries.get(column.lock);
+		return entry == null ? NO_STATE : entry.state;
+	}
+
 	/**
 	 * Returns an array of threads that form the deadlock (usually 2).
 	 */
@@ -218,11 +287,12 @@ class DeadlockDetector {
 	private Thread[] getThreadsOwningLock(ISchedulingRule rule) {
 		if (rule == null)
 			return new Thread[0];
-		int lockIndex = indexOf(rule, false);
+		Column column = columnOf(rule, false);
 		ArrayList blocking = new ArrayList(1);
-		for (int i = 0; i < graph.length; i++) {
-			if (graph[i][lockIndex] > NO_STATE)
-				blocking.add(lockThreads.get(i));
+		for (Iterator it = lockThreads.values().iterator(); it.hasNext();) {
+			Row row = (Row) it.next();
+			if (getState(row, column) > NO_STATE)
+				blocking.add(row.thread);
 		}
 		if ((blocking.size() == 0) && (JobManager.DEBUG_LOCKS))
 			System.out.println("Lock " + rule + " is involved in deadlock but is not owned by any thread."); //$NON-NLS-1$ //$NON-NLS-2$
@@ -235,61 +305,36 @@ class DeadlockDetector {
 	 * Returns the lock the given thread is waiting for.
 	 */
 	private Object getWaitingLock(Thread current) {
-		int index = indexOf(current, false);
+		Row row = rowOf(current, false);
 		//find the lock that this thread is waiting for
-		for (int j = 0; j < graph[index].length; j++) {
-			if (graph[index][j] == WAITING_FOR_LOCK)
-				return locks.get(j);
+		for (Iterator it = locks.values().iterator(); it.hasNext();) {
+			Column column = (Column) it.next();
+			if (getState(row, column) == WAITING_FOR_LOCK)
+				return column.lock;
 		}
 		//it can happen that a thread is not waiting for any lock (it is not really part of the deadlock)
 		return null;
 	}
 
 	/**
-	 * Returns the index of the given lock in the lock array. If the lock is
-	 * not present in the array, it is added to the end.
-	 */
-	private int indexOf(ISchedulingRule lock, boolean add) {
-		int index = locks.indexOf(lock);
-		if ((index < 0) && add) {
-			locks.add(lock);
-			resize = true;
-			index = locks.size() - 1;
-		}
-		return index;
-	}
-
-	/**
-	 * Returns the index of the given thread in the thread array. If the thread
-	 * is not present in the array, it is added to the end.
-	 */
-	private int indexOf(Thread owner, boolean add) {
-		int index = lockThreads.indexOf(owner);
-		if ((index < 0) && add) {
-			lockThreads.add(owner);
-			resize = true;
-			index = lockThreads.size() - 1;
-		}
-		return index;
-	}
-
-	/**
-	 * Returns true IFF the adjacency matrix is empty.
+	 * Returns true IFF the graph is empty.
 	 */
 	boolean isEmpty() {
-		return (locks.size() == 0) && (lockThreads.size() == 0) && (graph.length == 0);
+		return (locks.size() == 0) && (lockThreads.size() == 0);
 	}
 
 	/**
 	 * The given lock was acquired by the given thread.
 	 */
 	void lockAcquired(Thread owner, ISchedulingRule lock) {
-		int lockIndex = indexOf(lock, true);
-		int threadIndex = indexOf(owner, true);
-		if (resize)
-			resizeGraph();
-		if (graph[threadIndex][lockIndex] == WAITING_FOR_LOCK)
-			graph[threadIndex][lockIndex] = NO_STATE;
+		Column column = columnOf(lock, true);
+		Row row = rowOf(owner, true);
+		if (getState(row, column) == WAITING_FOR_LOCK)
+			setState(row, column, NO_STATE);
+		setState(row, column, getState(row, column) + 1);
+		//an ordered lock only conflicts with itself
+		if (lock instanceof OrderedLock)
+			return;
 		/**
 		 * acquire all locks that conflict with the given lock
 		 * or conflict with a lock the given lock will acquire implicitly
@@ -298,16 +343,15 @@ class DeadlockDetector {
 		ArrayList conflicting = new ArrayList(1);
 		//only need two passes through all the locks to pick up all conflicting rules
 		int NUM_PASSES = 2;
-		conflicting.add(lock);
-		graph[threadIndex][lockIndex]++;
+		conflicting.add(column.lock);
 		for (int i = 0; i < NUM_PASSES; i++) {
 			for (int k = 0; k < conflicting.size(); k++) {
 				ISchedulingRule current = (ISchedulingRule) conflicting.get(k);
-				for (int j = 0; j < locks.size(); j++) {
-					ISchedulingRule possible = (ISchedulingRule) locks.get(j);
-					if (current.isConflicting(possible) && !conflicting.contains(possible)) {
-						conflicting.add(possible);
-						graph[threadIndex][j]++;
+				for (Iterator it = locks.values().iterator(); it.hasNext();) {
+					Column possible = (Column) it.next();
+					if (current.isConflicting(possible.lock) && !conflicting.contains(possible.lock)) {
+						conflicting.add(possible.lock);
+						setState(row, possible, getState(row, possible) + 1);
 					}
 				}
 			}
@@ -318,39 +362,47 @@ class DeadlockDetector {
 	 * The given lock was released by the given thread. Update the graph.
 	 */
 	void lockReleased(Thread owner, ISchedulingRule lock) {
-		int lockIndex = indexOf(lock, false);
-		int threadIndex = indexOf(owner, false);
+		Column column = columnOf(lock, false);
+		Row row = rowOf(owner, false);
 		//make sure the lock and thread exist in the graph
-		if (threadIndex < 0) {
+		if (row == null) {
 			if (JobManager.DEBUG_LOCKS)
 				System.out.println("[lockReleased] Lock " + lock + " was already released by thread " + owner.getName()); //$NON-NLS-1$ //$NON-NLS-2$
 			return;
 		}
-		if (lockIndex < 0) {
+		if (column == null) {
 			if (JobManager.DEBUG_LOCKS)
 				System.out.println("[lockReleased] Thread " + owner.getName() + " already released lock " + lock); //$NON-NLS-1$ //$NON-NLS-2$
 			return;
 		}
 		//if this lock was suspended, set it to NO_STATE
-		if ((lock instanceof ILock) && (graph[threadIndex][lockIndex] == WAITING_FOR_LOCK)) {
-			graph[threadIndex][lockIndex] = NO_STATE;
+		if ((lock instanceof ILock) && (getState(row, column) == WAITING_FOR_LOCK)) {
+			setState(row, column, NO_STATE);
+			return;
+		}
+		if ((getState(row, column) == NO_STATE) && JobManager.DEBUG_LOCKS)
+			System.out.println("[lockReleased] More releases than acquires for thread " + owner.getName() + " and lock " + lock); //$NON-NLS-1$ //$NON-NLS-2$
+		//an ordered lock only conflicts with itself
+		if (lock instanceof OrderedLock) {
+			int state = getState(row, column);
+			if (state != NO_STATE)
+				setState(row, column, state - 1);
+			if (getState(row, column) == NO_STATE)
+				reduceGraph(row, column);
 			return;
 		}
 		//release all locks that conflict with the given lock
 		//or release all rules that are owned by the given thread, if we are releasing a rule
-		for (int j = 0; j < graph[threadIndex].length; j++) {
-			if ((lock.isConflicting((ISchedulingRule) locks.get(j))) || (!(lock instanceof ILock) && !(locks.get(j) instanceof ILock) && (graph[threadIndex][j] > NO_STATE))) {
-				if (graph[threadIndex][j] == NO_STATE) {
-					if (JobManager.DEBUG_LOCKS)
-						System.out.println("[lockReleased] More releases than acquires for thread " + owner.getName() + " and lock " + lock); //$NON-NLS-1$ //$NON-NLS-2$
-				} else {
-					graph[threadIndex][j]--;
-				}
-			}
+		//(only entries of the thread need to be considered, others are already NO_STATE)
+		Entry[] entries = (Entry[]) row.entries.values().toArray(new Entry[row.entries.size()]);
+		for (int j = 0; j < entries.length; j++) {
+			ISchedulingRule current = entries[j].column.lock;
+			if ((lock.isConflicting(current)) || (!(lock instanceof ILock) && !(current instanceof ILock) && (entries[j].state > NO_STATE)))
+				setState(row, entries[j].column, entries[j].state - 1);
 		}
 		//if this thread just released the given lock, try to simplify the graph
-		if (graph[threadIndex][lockIndex] == NO_STATE)
-			reduceGraph(threadIndex, lock);
+		if (getState(row, column) == NO_STATE)
+			reduceGraph(row, column);
 	}
 
 	/**
@@ -358,29 +410,30 @@ class DeadlockDetector {
 	 * Release this rule regardless of how many times it was acquired.
 	 */
 	void lockReleasedCompletely(Thread owner, ISchedulingRule rule) {
-		int ruleIndex = indexOf(rule, false);
-		int threadIndex = indexOf(owner, false);
+		Column column = columnOf(rule, false);
+		Row row = rowOf(owner, false);
 		//need to make sure that the given thread and rule were not already removed from the graph
-		if (threadIndex < 0) {
+		if (row == null) {
 			if (JobManager.DEBUG_LOCKS)
 				System.out.println("[lockReleasedCompletely] Lock " + rule + " was already released by thread " + owner.getName()); //$NON-NLS-1$ //$NON-NLS-2$
 			return;
 		}
-		if (ruleIndex < 0) {
+		if (column == null) {
 			if (JobManager.DEBUG_LOCKS)
 				System.out.println("[lockReleasedCompletely] Thread " + owner.getName() + " already released lock " + rule); //$NON-NLS-1$ //$NON-NLS-2$
 			return;
 		}
 		/**
-		 * set all rules that are owned by the given thread to NO_STATE 
+		 * set all rules that are owned by the given thread to NO_STATE
 		 * (not just rules that conflict with the rule we are releasing)
 		 * if we are releasing a lock, then only update the one entry for the lock
 		 */
-		for (int j = 0; j < graph[threadIndex].length; j++) {
-			if (!(locks.get(j) instanceof ILock) && (graph[threadIndex][j] > NO_STATE))
-				graph[threadIndex][j] = NO_STATE;
+		Entry[] entries = (Entry[]) row.entries.values().toArray(new Entry[row.entries.size()]);
+		for (int j = 0; j < entries.length; j++) {
+			if (!(entries[j].column.lock instanceof ILock) && (entries[j].state > NO_STATE))
+				setState(row, entries[j].column, NO_STATE);
 		}
-		reduceGraph(threadIndex, rule);
+		reduceGraph(row, column);
 	}
 
 	/**
@@ -389,10 +442,8 @@ class DeadlockDetector {
 	 */
 	Deadlock lockWaitStart(Thread client, ISchedulingRule lock) {
 		setToWait(client, lock, false);
-		int lockIndex = indexOf(lock, false);
-		int[] temp = new int[lockThreads.size()];
-		//check if the addition of the waiting thread caused deadlock
-		if (!checkWaitCycles(temp, lockIndex))
+		//the graph had no cycle before, so a cycle must go through the new wait
+		if (!checkWaitCycles(new HashSet(), columnOf(lock, false)))
 			return null;
 		//there is a deadlock in the graph
 		Thread[] threads = getThreadsInDeadlock(client);
@@ -412,41 +463,41 @@ class DeadlockDetector {
 	}
 
 	/**
-	 * The given thread has stopped waiting for the given lock. 
+	 * The given thread has stopped waiting for the given lock.
 	 * Update the graph.
 	 * If the lock has already been granted, then it isn't removed.
 	 */
 	void lockWaitStop(Thread owner, ISchedulingRule lock) {
-		int lockIndex = indexOf(lock, false);
-		int threadIndex = indexOf(owner, false);
+		Column column = columnOf(lock, false);
+		Row row = rowOf(owner, false);
 		//make sure the thread and lock exist in the graph
-		if (threadIndex < 0) {
+		if (row == null) {
 			if (JobManager.DEBUG_LOCKS)
 				System.out.println("Thread " + owner.getName() + " was already removed."); //$NON-NLS-1$ //$NON-NLS-2$
 			return;
 		}
-		if (lockIndex < 0) {
+		if (column == null) {
 			if (JobManager.DEBUG_LOCKS)
 				System.out.println("Lock " + lock + " was already removed."); //$NON-NLS-1$ //$NON-NLS-2$
 			return;
 		}
-		if (graph[threadIndex][lockIndex] != WAITING_FOR_LOCK) {
+		if (getState(row, column) != WAITING_FOR_LOCK) {
 			// Lock has already been granted, nothing to do...
 			if (JobManager.DEBUG_LOCKS)
-				System.out.println("Lock " + lock + " already granted to depth: " + graph[threadIndex][lockIndex]); //$NON-NLS-1$ //$NON-NLS-2$
+				System.out.println("Lock " + lock + " already granted to depth: " + getState(row, column)); //$NON-NLS-1$ //$NON-NLS-2$
 			return;
 		}
-		graph[threadIndex][lockIndex] = NO_STATE;
-		reduceGraph(threadIndex, lock);
+		setState(row, column, NO_STATE);
+		reduceGraph(row, column);
 	}
 
 	/**
 	 * Returns true IFF the given thread owns a single lock
 	 */
 	private boolean ownsLocks(Thread cause) {
-		int threadIndex = indexOf(cause, false);
-		for (int j = 0; j < graph[threadIndex].length; j++) {
-			if (graph[threadIndex][j] > NO_STATE)
+		Row row = rowOf(cause, false);
+		for (Iterator it = row.entries.values().iterator(); it.hasNext();) {
+			if (((Entry) it.next()).state > NO_STATE)
 				return true;
 		}
 		return false;
@@ -457,13 +508,11 @@ class DeadlockDetector {
 	 * A real lock is a lock that can be suspended.
 	 */
 	private boolean ownsRealLocks(Thread owner) {
-		int threadIndex = indexOf(owner, false);
-		for (int j = 0; j < graph[threadIndex].length; j++) {
-			if (graph[threadIndex][j] > NO_STATE) {
-				Object lock = locks.get(j);
-				if (lock instanceof ILock)
-					return true;
-			}
+		Row row = rowOf(owner, false);
+		for (Iterator it = row.entries.values().iterator(); it.hasNext();) {
+			Entry entry = (Entry) it.next();
+			if ((entry.state > NO_STATE) && (entry.column.lock instanceof ILock))
+				return true;
 		}
 		return false;
 	}
@@ -473,13 +522,11 @@ class DeadlockDetector {
 	 * cannot be suspended)
 	 */
 	private boolean ownsRuleLocks(Thread owner) {
-		int threadIndex = indexOf(owner, false);
-		for (int j = 0; j < graph[threadIndex].length; j++) {
-			if (graph[threadIndex][j] > NO_STATE) {
-				Object lock = locks.get(j);
-				if (!(lock instanceof ILock))
-					return true;
-			}
+		Row row = rowOf(owner, false);
+		for (Iterator it = row.entries.values().iterator(); it.hasNext();) {
+			Entry entry = (Entry) it.next();
+			if ((entry.state > NO_STATE) && !(entry.column.lock instanceof ILock))
+				return true;
 		}
 		return false;
 	}
@@ -489,11 +536,12 @@ class DeadlockDetector {
 	 * Real locks are locks that implement the ILock interface and can be suspended.
 	 */
 	private ISchedulingRule[] realLocksForThread(Thread owner) {
-		int threadIndex = indexOf(owner, false);
+		Row row = rowOf(owner, false);
 		ArrayList ownedLocks = new ArrayList(1);
-		for (int j = 0; j < graph[threadIndex].length; j++) {
-			if ((graph[threadIndex][j] > NO_STATE) && (locks.get(j) instanceof ILock))
-				ownedLocks.add(locks.get(j));
+		for (Iterator it = locks.values().iterator(); it.hasNext();) {
+			Column column = (Column) it.next();
+			if ((getState(row, column) > NO_STATE) && (column.lock instanceof ILock))
+				ownedLocks.add(column.lock);
 		}
 		if (ownedLocks.size() == 0)
 			Assert.isLegal(false, "A thread with no real locks was chosen to resolve deadlock."); //$NON-NLS-1$
@@ -501,94 +549,29 @@ class DeadlockDetector {
 	}
 
 	/**
-	 * The matrix has been simplified. Check if any unnecessary rows or columns
+	 * The graph has been simplified. Check if any unnecessary rows or columns
 	 * can be removed.
 	 */
-	private void reduceGraph(int row, ISchedulingRule lock) {
-		int numLocks = locks.size();
-		boolean[] emptyColumns = new boolean[numLocks];
-
-		/**
-		 * find all columns that could possibly be empty
-		 * (consist of locks which conflict with the given lock, or of locks which are rules)
-		 */
-		for (int j = 0; j < numLocks; j++) {
-			if ((lock.isConflicting((ISchedulingRule) locks.get(j))) || !(locks.get(j) instanceof ILock))
-				emptyColumns[j] = true;
-		}
-
-		boolean rowEmpty = true;
-		int numEmpty = 0;
-		//check if the given row is empty
-		for (int j = 0; j < graph[row].length; j++) {
-			if (graph[row][j] != NO_STATE) {
-				rowEmpty = false;
-				break;
-			}
-		}
+	private void reduceGraph(Row row, Column column) {
+		//an ordered lock only conflicts with itself
+		if ((column.size == 0) && (column.lock instanceof OrderedLock))
+			locks.remove(column.lock);
 		/**
-		 * Check if the possibly empty columns are actually empty.
-		 * If a column is actually empty, remove the corresponding lock from the list of locks
-		 * Start at the last column so that when locks are removed from the list, 
-		 * the index of the remaining locks is unchanged. Store the number of empty columns.
+		 * remove the empty columns of locks which conflict with the given lock,
+		 * or of locks which are rules
 		 */
-		for (int j = emptyColumns.length - 1; j >= 0; j--) {
-			for (int i = 0; i < graph.length; i++) {
-				if (emptyColumns[j] && (graph[i][j] != NO_STATE)) {
-					emptyColumns[j] = false;
-					break;
+		if (!emptyColumns.isEmpty()) {
+			for (Iterator it = emptyColumns.iterator(); it.hasNext();) {
+				Column empty = (Column) it.next();
+				if (!(empty.lock instanceof ILock) || (column.lock.isConflicting(empty.lock))) {
+					it.remove();
+					locks.remove(empty.lock);
 				}
 			}
-			if (emptyColumns[j]) {
-				locks.remove(j);
-				numEmpty++;
-			}
 		}
-		//if no columns or rows are empty, return right away
-		if ((numEmpty == 0) && (!rowEmpty))
-			return;
-
-		if (rowEmpty)
-			lockThreads.remove(row);
-
-		//new graph (the list of locks and the list of threads are already updated)
-		final int numThreads = lockThreads.size();
-		numLocks = locks.size();
-		//optimize empty graph case
-		if (numThreads == 0 && numLocks == 0) {
-			graph = EMPTY_MATRIX;
-			return;
-		}
-		int[][] tempGraph = new int[numThreads][numLocks];
-
-		//the number of rows we need to skip to get the correct entry from the old graph
-		int numRowsSkipped = 0;
-		for (int i = 0; i < graph.length - numRowsSkipped; i++) {
-			if ((i == row) && rowEmpty) {
-				numRowsSkipped++;
-				//check if we need to skip the last row
-				if (i >= graph.length - numRowsSkipped)
-					break;
-			}
-			//the number of columns we need to skip to get the correct entry from the old graph
-			//needs to be reset for every new row
-			int numColsSkipped = 0;
-			for (int j = 0; j < graph[i].length - numColsSkipped; j++) {
-				while (emptyColumns[j + numColsSkipped]) {
-					numColsSkipped++;
-					//check if we need to skip the last column
-					if (j >= graph[i].length - numColsSkipped)
-						break;
-				}
-				//need to break out of the outer loop
-				if (j >= graph[i].length - numColsSkipped)
-					break;
-				tempGraph[i][j] = graph[i + numRowsSkipped][j + numColsSkipped];
-			}
-		}
-		graph = tempGraph;
-		Assert.isTrue(numThreads == graph.length, "Rows and threads don't match."); //$NON-NLS-1$
-		Assert.isTrue(numLocks == ((graph.length > 0) ? graph[0].length : 0), "Columns and locks don't match."); //$NON-NLS-1$
+		//remove the given row if it is empty
+		if (row.entries.isEmpty())
+			lockThreads.remove(row.thread);
 	}
 
 	/**
@@ -616,28 +599,6 @@ class DeadlockDetector {
 		RuntimeLog.log(main);
 	}
 
-	/**
-	 * The number of threads/locks in the graph has changed. Update the
-	 * underlying matrix.
-	 */
-	private void resizeGraph() {
-		// a new row and/or a new column was added to the graph.
-		// since new rows/columns are always added to the end, just transfer
-		// old entries to the new graph, with the same indices.
-		final int newRows = lockThreads.size();
-		final int newCols = locks.size();
-		//optimize 0x0 and 1x1 matrices
-		if (newRows == 0 && newCols == 0) {
-			graph = EMPTY_MATRIX;
-			return;
-		}
-		int[][] tempGraph = new int[newRows][newCols];
-		for (int i = 0; i < graph.length; i++)
-			System.arraycopy(graph[i], 0, tempGraph[i], 0, graph[i].length);
-		graph = tempGraph;
-		resize = false;
-	}
-
 	/**
 	 * Get the thread whose locks can be suspended. (i.e. all locks it owns are
 	 * actual locks and not rules). Return the first thread in the array by default.
@@ -657,6 +618,41 @@ class DeadlockDetector {
 		return candidates[0];
 	}
 
+	/**
+	 * Returns the row of the given thread. If the thread is not present
+	 * in the graph and add is true, a row is added at the end.
+	 */
+	private Row rowOf(Thread owner, boolean add) {
+		Row row = (Row) lockThreads.get(owner);
+		if ((row == null) && add) {
+			row = new Row(owner);
+			lockThreads.put(owner, row);
+		}
+		return row;
+	}
+
+	/**
+	 * Sets the entry of the given thread for the given lock. Entries of
+	 * NO_STATE are removed from the row.
+	 */
+	private void setState(Row row, Column column, int state) {
+		Entry entry = (Entry) row.entries.get(column.lock);
+		if (entry != null) {
+			if (state != NO_STATE) {
+				entry.state = state;
+			} else {
+				row.entries.remove(column.lock);
+				if ((--column.size == 0) && !(column.lock instanceof OrderedLock))
+					emptyColumns.add(column);
+			}
+		} else if (state != NO_STATE) {
+			row.entries.put(column.lock, new Entry(column, state));
+			//new columns are not in the set of empty columns
+			if ((column.size++ == 0) && !emptyColumns.isEmpty())
+				emptyColumns.remove(column);
+		}
+	}
+
 	/**
 	 * The given thread is waiting for the given lock. Update the graph.
 	 */
@@ -669,32 +665,31 @@ class DeadlockDetector {
 		 */
 		if (!suspend && !(lock instanceof ILock))
 			needTransfer = true;
-		int lockIndex = indexOf(lock, !suspend);
-		int threadIndex = indexOf(owner, !suspend);
-		if (resize)
-			resizeGraph();
+		Column column = columnOf(lock, !suspend);
+		Row row = rowOf(owner, !suspend);
 
-		graph[threadIndex][lockIndex] = WAITING_FOR_LOCK;
+		setState(row, column, WAITING_FOR_LOCK);
 		if (needTransfer)
-			fillPresentEntries(lock, lockIndex);
+			fillPresentEntries(column);
 	}
 
 	/**
-	 * Prints out the current matrix to standard output. 
+	 * Prints out the current graph to standard output.
 	 * Only used for debugging.
 	 */
 	public String toDebugString() {
 		StringWriter sWriter = new StringWriter();
 		PrintWriter out = new PrintWriter(sWriter, true);
 		out.println(" :: "); //$NON-NLS-1$
-		for (int j = 0; j < locks.size(); j++) {
-			out.print(" " + locks.get(j) + ','); //$NON-NLS-1$
+		for (Iterator it = locks.keySet().iterator(); it.hasNext();) {
+			out.print(" " + it.next() + ','); //$NON-NLS-1$
 		}
 		out.println();
-		for (int i = 0; i < graph.length; i++) {
-			out.print(" " + ((Thread) lockThreads.get(i)).getName() + " : "); //$NON-NLS-1$ //$NON-NLS-2$
-			for (int j = 0; j < graph[i].length; j++) {
-				out.print(" " + graph[i][j] + ','); //$NON-NLS-1$
+		for (Iterator rows = lockThreads.values().iterator(); rows.hasNext();) {
+			Row row = (Row) rows.next();
+			out.print(" " + row.thread.getName() + " : "); //$NON-NLS-1$ //$NON-NLS-2$
+			for (Iterator it = locks.values().iterator(); it.hasNext();) {
+				out.print(" " + getState(row, (Column) it.next()) + ','); //$NON-NLS-1$
 			}
 			out.println();
 		}
@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM - Initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+import java.util.Collection;
+import java.util.HashSet;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.*;
+
+/**
+ * The future of a job family. It listens to the jobs of the family, and is
+ * done when the last of them is done. Jobs of the family that are scheduled
+ * before then are added to the jobs it waits for.
+ */
+class FamilyFuture extends JobFuture {
+	/**
+	 * The jobs that are not done yet.
+	 * @GuardedBy("jobs")
+	 */
+	private final HashSet jobs;
+	private final IJobChangeListener listener = new JobChangeAdapter() {
+		public void done(IJobChangeEvent event) {
+			//don't remove from list if job is being rescheduled
+			if (((JobChangeEvent) event).reschedule)
+				return;
+			synchronized (jobs) {
+				if (!jobs.remove(event.getJob()) || !jobs.isEmpty())
+					return;
+			}
+			manager.removeJobChangeListener(this);
+			complete(Status.OK_STATUS);
+		}
+
+		//update the list of jobs if new ones are added before the family is done
+		public void scheduled(IJobChangeEvent event) {
+			//don't add to list if job is being rescheduled
+			if (((JobChangeEvent) event).reschedule)
+				return;
+			synchronized (jobs) {
+				if (!jobs.isEmpty())
+					jobs.add(event.getJob());
+			}
+		}
+	};
+	private final JobManager manager;
+
+	/**
+	 * Creates the future of the given jobs of a family. Must be called while
+	 * holding the job manager lock, so that no job can finish before the
+	 * listener is registered, and a job scheduled concurrently is either one
+	 * of the given jobs or reported to the listener. The given jobs must
+	 * include the jobs that are about to be scheduled, because their
+	 * listeners may be notified without this listener.
+	 * @GuardedBy("manager.lock")
+	 */
+	FamilyFuture(JobManager manager, Object family, Collection jobs) {
+		super(manager.getLockManager());
+		this.manager = manager;
+		this.jobs = new HashSet(jobs);
+		if (jobs.isEmpty())
+			complete(Status.OK_STATUS);
+		else
+			manager.addJobChangeListener(listener, family, IJobChangeEvent.DONE | IJobChangeEvent.SCHEDULED);
+	}
+
+	/**
+	 * Stops listening to the jobs of the family. The future is not done
+	 * afterwards unless it was done already.
+	 */
+	void dispose() {
+		manager.removeJobChangeListener(listener);
+	}
+
+	/**
+	 * Returns the number of jobs that are not done yet.
+	 */
+	int getJobsLeft() {
+		synchronized (jobs) {
+			return jobs.size();
+		}
+	}
+}
@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM - Initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+/**
+ * The limits on the jobs of one family: the number of jobs that may run at
+ * the same time, and the rate at which jobs may start. The rate is enforced
+ * with a token bucket that holds up to <code>rateCount</code> tokens, and
+ * gains <code>rateCount</code> tokens every <code>rateInterval</code>
+ * milliseconds. Each job that starts takes one token.
+ * @GuardedBy("JobManager.lock")
+ */
+final class FamilyLimit {
+	final Object family;
+	/**
+	 * The maximum number of running jobs, or 0 if there is no limit.
+	 */
+	int maxRunning;
+	/**
+	 * The number of running jobs of this family.
+	 */
+	int running;
+	/**
+	 * The limits of the jobs that only belong to this family.
+	 */
+	final FamilyLimit[] only = {this};
+	/**
+	 * The size of the token bucket, or 0 if there is no rate limit.
+	 */
+	int rateCount;
+	long rateInterval;
+	/**
+	 * The time when tokens were last added to the bucket.
+	 */
+	private long refillTime;
+	private double tokens;
+	/**
+	 * The time when the bucket will hold a token again, or -1 if it has not
+	 * been computed since a token was taken. It is only computed once, so
+	 * that all jobs waiting for the token wake up at the same time, and the
+	 * wait queue decides which of them takes it.
+	 */
+	private long tokenTime = -1;
+
+	FamilyLimit(Object family) {
+		this.family = family;
+	}
+
+	/**
+	 * Returns whether this family is neither limited in concurrency nor rate.
+	 */
+	boolean isEmpty() {
+		return maxRunning == 0 && rateCount == 0;
+	}
+
+	/**
+	 * Sets the rate limit, and fills the token bucket.
+	 */
+	void setRate(int count, long interval) {
+		rateCount = count;
+		rateInterval = interval;
+		tokens = count;
+		refillTime = System.currentTimeMillis();
+		tokenTime = -1;
+	}
+
+	/**
+	 * Takes a token from the bucket. Must only be called when
+	 * {@link #tokenDelay(long)} returned 0.
+	 */
+	void takeToken() {
+		if (rateCount > 0) {
+			tokens -= 1;
+			tokenTime = -1;
+		}
+	}
+
+	/**
+	 * Returns the time in milliseconds until the bucket holds a token, or 0
+	 * if it holds one now.
+	 */
+	long tokenDelay(long now) {
+		if (rateCount == 0)
+			return 0;
+		if (now > refillTime) {
+			tokens = Math.min(rateCount, tokens + (double) (now - refillTime) * rateCount / rateInterval);
+			refillTime = now;
+		}
+		if (tokens >= 1)
+			return 0;
+		if (tokenTime < 0)
+			tokenTime = now + Math.max(1, (long) Math.ceil((1 - tokens) * rateInterval / rateCount));
+		return Math.max(1, tokenTime - now);
+	}
+}
@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM - Initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+/**
+ * Counts times in buckets of exponentially increasing size. Bucket 0 counts
+ * times of 0, and bucket i counts times of at least 2^(i-1) and less than 2^i.
+ * The last bucket also counts all longer times.
+ *
+ * This class is not thread safe.
+ */
+public final class Histogram {
+	/**
+	 * The number of buckets. The last bucket starts at 2^31 milliseconds,
+	 * which is more than three weeks.
+	 */
+	public static final int BUCKET_COUNT = 33;
+
+	private final long[] counts = new long[BUCKET_COUNT];
+	private long count = 0;
+	private long max = 0;
+	private long total = 0;
+
+	/**
+	 * Returns the bucket that counts the given time.
+	 */
+	public static int bucketOf(long time) {
+		int bucket = 0;
+		while (time > 0 && bucket < BUCKET_COUNT - 1) {
+			time >>>= 1;
+			bucket++;
+		}
+		return bucket;
+	}
+
+	public void clear() {
+		for (int i = 0; i < BUCKET_COUNT; i++)
+			counts[i] = 0;
+		count = max = total = 0;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns a copy of the bucket counts.
+	 */
+	public long[] getCounts() {
+		return (long[]) counts.clone();
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * Returns the upper end of the bucket that contains the given percentile,
+	 * or the longest recorded time if that is smaller.
+	 */
+	public long getPercentile(double fraction) {
+		if (count == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(fraction * count));
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT - 1; i++) {
+			seen += counts[i];
+			if (seen >= rank)
+				return Math.min((1L << i) - 1, max);
+		}
+		return max;
+	}
+
+	public long getTotal() {
+		return total;
+	}
+
+	/**
+	 * Counts the given time. Negative times, which can be caused by changes
+	 * of the system clock, are counted as 0.
+	 */
+	public void record(long time) {
+		if (time < 0)
+			time = 0;
+		counts[bucketOf(time)]++;
+		count++;
+		total += time;
+		if (time > max)
+			max = time;
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2003, 2010 IBM Corporation and others.
+ *  Copyright (c) 2003, 2011 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -206,7 +206,7 @@ class ImplicitJobs {
 	 */
 	void notifyWaitingThreadJobs(InternalJob job) {
 		synchronized (job.jobStateLock) {
-			job.jobStateLock.notifyAll();
+			job.notifyStateChanged();
 		}
 	}
 
@@ -11,7 +11,6 @@
  *******************************************************************************/
 package org.eclipse.core.internal.jobs;
 
-import java.util.Map;
 import org.eclipse.core.runtime.*;
 import org.eclipse.core.runtime.jobs.*;
 
@@ -43,6 +42,12 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 	 * From an API point of view, this is the same as WAITING.
 	 */
 	static final int YIELDING = 0x40;
+	/** 
+	 * Job state code (value 128) indicating that a job waits in the sleep
+	 * queue until the rate limit of its family allows it to start.
+	 * From an API point of view, this is the same as WAITING.
+	 */
+	static final int RATE_LIMITED = 0x80;
 
 	//flag mask bits
 	private static final int M_STATE = 0xFF;
@@ -74,9 +79,56 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 	 */
 	static final long T_NONE = -1;
 
+	/**
+	 * The key of the jobs whose worker this job prefers to run in, or null.
+	 */
+	private volatile Object affinity;
+	/**
+	 * The contention to record the time this job is blocked in while
+	 * contention profiling is enabled, or null.
+	 * @GuardedBy("manager.lock")
+	 */
+	private ContentionProfiler.Contention blockedContention;
+	/**
+	 * The time this job was blocked by a conflicting rule, if it has a
+	 * blocked contention.
+	 * @GuardedBy("manager.lock")
+	 */
+	private long blockedTime;
+	/**
+	 * The family declared when this job was created, or null.
+	 */
+	private final Object declaredFamily;
+	/**
+	 * The neighbours of this job in the list of scheduled jobs of the same
+	 * declared family, or of the scheduled jobs without a declared family.
+	 * @GuardedBy("manager.lock")
+	 */
+	InternalJob familyNext, familyPrevious;
+	/**
+	 * The limits of the families this job belongs to, found when it is
+	 * scheduled, or null if none of its families is limited.
+	 * @GuardedBy("manager.lock")
+	 */
+	FamilyLimit[] limits;
 	private volatile int flags = Job.NONE;
 	private final int jobNumber = getNextJobNumber();
+	/**
+	 * The future of the current run of this job, or null.
+	 * @GuardedBy("manager.lock")
+	 */
+	private JobFuture future;
+	/**
+	 * The graph this job belongs to, or null. Set before the job is first
+	 * scheduled by the graph, and never changed afterwards.
+	 */
+	private InternalJobGraph graph;
 	private ListenerList listeners = null;
+	/**
+	 * The times measured for this job while metrics are enabled, or null.
+	 * @GuardedBy("manager.lock")
+	 */
+	private JobMetrics.Times metricsTimes;
 	private volatile IProgressMonitor monitor;
 	private String name;
 	/**
@@ -90,11 +142,23 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 	 */
 	private InternalJob previous;
 	private int priority = Job.LONG;
+	/**
+	 * The time in milliseconds within which the job should start once it is
+	 * waiting to run, or Job.NO_DEADLINE.
+	 */
+	private volatile long deadline = Job.NO_DEADLINE;
 	/**
 	 * Arbitrary properties (key,value) pairs, attached
-	 * to a job instance by a third party.
+	 * to a job instance by a third party. Stored as an array that alternates
+	 * keys and values, and is replaced rather than modified.
+	 */
+	private Object[] properties;
+	/**
+	 * The node representing this job in the tree of a job queue, or null
+	 * if this job has never been in a job queue.
+	 * @GuardedBy("manager.lock")
 	 */
-	private ObjectMap properties;
+	private JobQueue.Node queueNode;
 
 	/**
 	 * Volatile because it is usually set via a Worker thread and is read via a 
@@ -105,6 +169,18 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 	 * @GuardedBy("manager.lock")
 	 */
 	private ISchedulingRule schedulingRule;
+	/**
+	 * The position of this job in the heap of sleeping jobs, or -1 if
+	 * the job is not in that heap.
+	 * @GuardedBy("manager.lock")
+	 */
+	private int sleepIndex = -1;
+	/**
+	 * Stamp added when a job is added to the sleep queue. Used to wake
+	 * jobs with the same start time in insertion order.
+	 * @GuardedBy("manager.lock")
+	 */
+	private long sleepStamp;
 	/**
 	 * If the job is waiting, this represents the time the job should start by.  
 	 * If this job is sleeping, this represents the time the job should wake up.
@@ -140,13 +216,27 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 	 */
 	final Object jobStateLock = new Object();
 
+	/**
+	 * The number of times waiters on the job state lock have been notified.
+	 * Waiting thread jobs compare it with the value they saw when they found
+	 * this job blocking them, so that they never wait for a notification
+	 * that has already happened.
+	 * @GuardedBy("jobStateLock")
+	 */
+	private int stateChanges;
+
 	private static synchronized int getNextJobNumber() {
 		return nextJobNumber++;
 	}
 
 	protected InternalJob(String name) {
+		this(name, null);
+	}
+
+	protected InternalJob(String name, Object family) {
 		Assert.isNotNull(name);
 		this.name = name;
+		this.declaredFamily = family;
 	}
 
 	/* (non-Javadoc)
@@ -177,7 +267,7 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 	 * @see Job#belongsTo(Object)
 	 */
 	protected boolean belongsTo(Object family) {
-		return false;
+		return declaredFamily != null && declaredFamily.equals(family);
 	}
 
 	/* (non-Javadoc)
@@ -216,6 +306,41 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 		return listeners;
 	}
 
+	/* (non-Javadoc)
+	 * @see Job#getAffinity()
+	 */
+	protected Object getAffinity() {
+		return affinity;
+	}
+
+	/* (non-Javadoc)
+	 * @see Job#getDeadline()
+	 */
+	protected long getDeadline() {
+		return deadline;
+	}
+
+	/**
+	 * Returns the family declared when this job was created, or null.
+	 */
+	final Object getDeclaredFamily() {
+		return declaredFamily;
+	}
+
+	/* (non-Javadoc)
+	 * @see Job#getFuture()
+	 */
+	protected IJobFuture getFuture() {
+		return manager.getFuture(this);
+	}
+
+	/**
+	 * Returns the graph this job belongs to, or null.
+	 */
+	final InternalJobGraph getGraph() {
+		return graph;
+	}
+
 	/* (non-Javadoc)
 	 * @see Job#getName()
 	 */
@@ -230,6 +355,39 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 		return priority;
 	}
 
+	/**
+	 * Returns the times measured for this job while metrics are enabled, or null.
+	 * @GuardedBy("manager.lock")
+	 */
+	final JobMetrics.Times getMetricsTimes() {
+		return metricsTimes;
+	}
+
+	/**
+	 * Returns the contention to record the time this job is blocked in, or null.
+	 * @GuardedBy("manager.lock")
+	 */
+	final ContentionProfiler.Contention getBlockedContention() {
+		return blockedContention;
+	}
+
+	/**
+	 * Returns the time this job was blocked by a conflicting rule.
+	 * @GuardedBy("manager.lock")
+	 */
+	final long getBlockedTime() {
+		return blockedTime;
+	}
+
+	/**
+	 * Returns the future of the current run of this job, or null if no future
+	 * has been requested since the job was scheduled.
+	 * @GuardedBy("manager.lock")
+	 */
+	final JobFuture getPendingFuture() {
+		return future;
+	}
+
 	/**
 	 * Returns the job's progress monitor, or null if it is not running.
 	 */
@@ -237,15 +395,27 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 		return monitor;
 	}
 
+	/**
+	 * Returns the index of the given key in the given property array, or -1
+	 * if the key is not found or the array is null.
+	 */
+	private static int indexOfProperty(Object[] temp, QualifiedName key) {
+		if (temp == null)
+			return -1;
+		for (int i = 0; i < temp.length; i += 2)
+			if (temp[i].equals(key))
+				return i;
+		return -1;
+	}
+
 	/* (non-Javadoc)
 	 * @see Job#getProperty
 	 */
 	protected Object getProperty(QualifiedName key) {
 		// thread safety: (Concurrency001 - copy on write)
-		Map temp = properties;
-		if (temp == null)
-			return null;
-		return temp.get(key);
+		Object[] temp = properties;
+		int index = indexOfProperty(temp, key);
+		return index < 0 ? null : temp[index + 1];
 	}
 
 	/* (non-Javadoc)
@@ -271,15 +441,42 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 		return startTime;
 	}
 
+	/**
+	 * Returns the node representing this job in the tree of a job queue,
+	 * or null if this job has never been in a job queue.
+	 * @GuardedBy("manager.lock")
+	 */
+	final JobQueue.Node getQueueNode() {
+		return queueNode;
+	}
+
+	/**
+	 * Returns the position of this job in the sleep queue, or -1 if the job
+	 * is not in the sleep queue.
+	 * @GuardedBy("manager.lock")
+	 */
+	final int getSleepIndex() {
+		return sleepIndex;
+	}
+
+	/**
+	 * Returns the stamp recording when this job was added to the sleep queue.
+	 * @GuardedBy("manager.lock")
+	 */
+	final long getSleepStamp() {
+		return sleepStamp;
+	}
+
 	/* (non-Javadoc)
 	 * @see Job#getState()
 	 */
 	protected int getState() {
 		int state = flags & M_STATE;
 		switch (state) {
-		//blocked and yielding state is equivalent to waiting state for clients
+		//blocked, yielding and rate limited state is equivalent to waiting state for clients
 			case YIELDING :
 			case BLOCKED :
+			case RATE_LIMITED :
 				return Job.WAITING;
 			case ABOUT_TO_RUN :
 				return Job.RUNNING;
@@ -304,6 +501,13 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 		return flags & M_STATE;
 	}
 
+	/**
+	 * Must be called from JobManager#setDeadline
+	 */
+	final void internalSetDeadline(long newDeadline) {
+		this.deadline = newDeadline;
+	}
+
 	/**
 	 * Must be called from JobManager#setPriority
 	 */
@@ -318,6 +522,24 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 		this.schedulingRule = rule;
 	}
 
+	/**
+	 * Returns the number of times waiters on the job state lock have been
+	 * notified.
+	 * @GuardedBy("jobStateLock")
+	 */
+	final int getStateChanges() {
+		return stateChanges;
+	}
+
+	/**
+	 * Wakes the threads waiting on the job state lock.
+	 * @GuardedBy("jobStateLock")
+	 */
+	final void notifyStateChanged() {
+		stateChanges++;
+		jobStateLock.notifyAll();
+	}
+
 	/**
 	 * Must be called from JobManager#changeState
 	 */
@@ -445,6 +667,22 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 		flags = value ? flags | M_RUN_CANCELED : flags & ~M_RUN_CANCELED;
 	}
 
+	/* (non-Javadoc)
+	 * @see Job#setAffinity(Object)
+	 */
+	protected void setAffinity(Object affinity) {
+		this.affinity = affinity;
+	}
+
+	/* (non-Javadoc)
+	 * @see Job#setDeadline(long)
+	 */
+	protected void setDeadline(long newDeadline) {
+		if (newDeadline < 0 && newDeadline != Job.NO_DEADLINE)
+			throw new IllegalArgumentException(String.valueOf(newDeadline));
+		manager.setDeadline(this, newDeadline);
+	}
+
 	/* (non-Javadoc)
 	 * @see Job#setName(String)
 	 */
@@ -496,6 +734,39 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 			setProgressMonitor(pm);
 	}
 
+	/**
+	 * Sets the graph this job belongs to.
+	 */
+	final void setGraph(InternalJobGraph graph) {
+		this.graph = graph;
+	}
+
+	/**
+	 * Sets the times measured for this job while metrics are enabled.
+	 * @GuardedBy("manager.lock")
+	 */
+	final void setMetricsTimes(JobMetrics.Times times) {
+		metricsTimes = times;
+	}
+
+	/**
+	 * Sets the contention to record the time this job is blocked in, and the
+	 * time it was blocked.
+	 * @GuardedBy("manager.lock")
+	 */
+	final void setBlockedContention(ContentionProfiler.Contention contention, long time) {
+		blockedContention = contention;
+		blockedTime = time;
+	}
+
+	/**
+	 * Sets the future of the current run of this job.
+	 * @GuardedBy("manager.lock")
+	 */
+	final void setPendingFuture(JobFuture future) {
+		this.future = future;
+	}
+
 	/**
 	 * Sets the progress monitor to use for the next execution of this job,
 	 * or for clearing the monitor when a job completes.
@@ -510,23 +781,33 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 	 */
 	protected void setProperty(QualifiedName key, Object value) {
 		// thread safety: (Concurrency001 - copy on write)
+		Object[] temp = properties;
+		int index = indexOfProperty(temp, key);
 		if (value == null) {
-			if (properties == null)
+			if (index < 0)
 				return;
-			ObjectMap temp = (ObjectMap) properties.clone();
-			temp.remove(key);
-			if (temp.isEmpty())
+			if (temp.length == 2) {
 				properties = null;
-			else
-				properties = temp;
+				return;
+			}
+			Object[] result = new Object[temp.length - 2];
+			System.arraycopy(temp, 0, result, 0, index);
+			System.arraycopy(temp, index + 2, result, index, temp.length - index - 2);
+			properties = result;
+		} else if (index >= 0) {
+			if (temp[index + 1] == value)
+				return;
+			Object[] result = (Object[]) temp.clone();
+			result[index + 1] = value;
+			properties = result;
 		} else {
-			ObjectMap temp = properties;
-			if (temp == null)
-				temp = new ObjectMap(5);
-			else
-				temp = (ObjectMap) properties.clone();
-			temp.put(key, value);
-			properties = temp;
+			int length = temp == null ? 0 : temp.length;
+			Object[] result = new Object[length + 2];
+			if (temp != null)
+				System.arraycopy(temp, 0, result, 0, length);
+			result[length] = key;
+			result[length + 1] = value;
+			properties = result;
 		}
 	}
 
@@ -557,6 +838,30 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 		startTime = time;
 	}
 
+	/**
+	 * Sets the node representing this job in the tree of a job queue.
+	 * @GuardedBy("manager.lock")
+	 */
+	final void setQueueNode(JobQueue.Node node) {
+		queueNode = node;
+	}
+
+	/**
+	 * Sets the position of this job in the sleep queue.
+	 * @GuardedBy("manager.lock")
+	 */
+	final void setSleepIndex(int index) {
+		sleepIndex = index;
+	}
+
+	/**
+	 * Sets the stamp recording when this job was added to the sleep queue.
+	 * @GuardedBy("manager.lock")
+	 */
+	final void setSleepStamp(long stamp) {
+		sleepStamp = stamp;
+	}
+
 	/* (non-javadoc)
 	 * @see Job.setSystem
 	 */
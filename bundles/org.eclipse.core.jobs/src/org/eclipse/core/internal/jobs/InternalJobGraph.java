@@ -0,0 +1,316 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM - Initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+import java.util.*;
+import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.IJobFuture;
+import org.eclipse.core.runtime.jobs.Job;
+
+/**
+ * Internal implementation class for job graphs. Clients must not use this class
+ * directly. All job graphs must be instances of the API
+ * <code>org.eclipse.core.runtime.jobs.JobGraph</code> class.
+ */
+public abstract class InternalJobGraph {
+	/**
+	 * A job of the graph, with its successors.
+	 */
+	private static final class Node {
+		/**
+		 * The length of the longest path of jobs from this job to the end of the graph.
+		 */
+		int height;
+		final InternalJob job;
+		int state = PENDING;
+		final ArrayList successors = new ArrayList(2);
+		/**
+		 * The number of predecessors that are not done yet.
+		 */
+		int waitingFor;
+
+		Node(InternalJob job) {
+			this.job = job;
+		}
+	}
+
+	//node states
+	private static final int PENDING = 0;
+	private static final int RELEASED = 1;
+	private static final int DONE = 2;
+	private static final int CANCELED = 3;
+	//height marker of a node whose height is being computed
+	private static final int VISITING = -1;
+
+	/**
+	 * Orders nodes by decreasing height, so that jobs on the critical path
+	 * are released first.
+	 */
+	private static final Comparator CRITICAL_PATH_ORDER = new Comparator() {
+		public int compare(Object o1, Object o2) {
+			return ((Node) o2).height - ((Node) o1).height;
+		}
+	};
+
+	private static final JobManager manager = JobManager.getInstance();
+
+	/**
+	 * Whether this graph has been canceled.
+	 * @GuardedBy("this")
+	 */
+	private boolean canceled;
+	/**
+	 * The result of the first job that failed or was canceled, or null.
+	 * @GuardedBy("this")
+	 */
+	private IStatus failure;
+	private final JobFuture future = new JobFuture(manager.getLockManager());
+	/**
+	 * The nodes of the jobs of this graph, in the order they were added.
+	 * @GuardedBy("this")
+	 */
+	private final LinkedHashMap nodes = new LinkedHashMap();
+	/**
+	 * The number of jobs that are neither done nor canceled.
+	 * @GuardedBy("this")
+	 */
+	private int remaining;
+	/**
+	 * @GuardedBy("this")
+	 */
+	private boolean scheduled;
+
+	/* (non-Javadoc)
+	 * @see JobGraph#add(Job, Job[])
+	 */
+	protected synchronized void add(Job job, Job[] predecessors) {
+		Assert.isNotNull(job, "Job is null"); //$NON-NLS-1$
+		Assert.isNotNull(predecessors, "Predecessors are null"); //$NON-NLS-1$
+		if (scheduled)
+			throw new IllegalStateException("Job graph has already been scheduled"); //$NON-NLS-1$
+		Node node = nodeFor(job);
+		for (int i = 0; i < predecessors.length; i++) {
+			Assert.isNotNull(predecessors[i], "Predecessor is null"); //$NON-NLS-1$
+			Node predecessor = nodeFor(predecessors[i]);
+			if (predecessor.successors.contains(node))
+				continue;
+			predecessor.successors.add(node);
+			node.waitingFor++;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see JobGraph#cancel()
+	 */
+	protected void cancel() {
+		ArrayList released = new ArrayList();
+		synchronized (this) {
+			canceled = true;
+			if (failure == null)
+				failure = Status.CANCEL_STATUS;
+			for (Iterator it = nodes.values().iterator(); it.hasNext();) {
+				Node node = (Node) it.next();
+				if (node.state == PENDING)
+					finish(node, CANCELED);
+				else if (node.state == RELEASED)
+					released.add(node.job);
+			}
+		}
+		//cancel the released jobs outside sync block because cancel calls listeners
+		if (!released.isEmpty())
+			manager.cancelAll((Job[]) released.toArray(new Job[released.size()]));
+		completeIfDone();
+	}
+
+	/**
+	 * Completes the future of this graph if all jobs are done or canceled.
+	 */
+	private void completeIfDone() {
+		IStatus result;
+		synchronized (this) {
+			if (!scheduled || remaining > 0)
+				return;
+			result = failure == null ? Status.OK_STATUS : failure;
+		}
+		future.complete(result);
+	}
+
+	/**
+	 * Computes the height of the given node, and the heights of all nodes
+	 * reachable from it. Fails if a cycle is found.
+	 */
+	private int computeHeight(Node node) {
+		if (node.height > 0)
+			return node.height;
+		Assert.isLegal(node.height != VISITING, "Job graph has a cycle"); //$NON-NLS-1$
+		node.height = VISITING;
+		int height = 0;
+		for (int i = 0, max = node.successors.size(); i < max; i++)
+			height = Math.max(height, computeHeight((Node) node.successors.get(i)));
+		node.height = height + 1;
+		return node.height;
+	}
+
+	/**
+	 * Marks the given node and all its pending successors as canceled.
+	 * @GuardedBy("this")
+	 */
+	private void cancelSuccessors(Node node) {
+		for (int i = 0, max = node.successors.size(); i < max; i++) {
+			Node successor = (Node) node.successors.get(i);
+			if (successor.state == PENDING) {
+				finish(successor, CANCELED);
+				cancelSuccessors(successor);
+			}
+		}
+	}
+
+	/**
+	 * @GuardedBy("this")
+	 */
+	private void finish(Node node, int state) {
+		node.state = state;
+		remaining--;
+	}
+
+	/* (non-Javadoc)
+	 * @see JobGraph#getFuture()
+	 */
+	protected IJobFuture getFuture() {
+		return future;
+	}
+
+	/* (non-Javadoc)
+	 * @see JobGraph#getJobs()
+	 */
+	protected synchronized Job[] getJobs() {
+		Job[] jobs = new Job[nodes.size()];
+		int i = 0;
+		for (Iterator it = nodes.keySet().iterator(); it.hasNext();)
+			jobs[i++] = (Job) it.next();
+		return jobs;
+	}
+
+	/**
+	 * Called by the job manager when a job of this graph is done or has been
+	 * canceled before it could run, before the job change listeners are notified.
+	 * Releases the successors that are no longer waiting for other jobs, or
+	 * cancels all successors if the job did not complete successfully.
+	 */
+	void jobDone(InternalJob job, IStatus result) {
+		ArrayList ready = null;
+		synchronized (this) {
+			Node node = (Node) nodes.get(job);
+			//ignore jobs that were not released by this graph
+			if (node == null || node.state != RELEASED)
+				return;
+			finish(node, DONE);
+			int severity = result.getSeverity();
+			if (failure != null || severity == IStatus.CANCEL || severity == IStatus.ERROR) {
+				if (failure == null)
+					failure = result;
+				cancelSuccessors(node);
+			} else {
+				for (int i = 0, max = node.successors.size(); i < max; i++) {
+					Node successor = (Node) node.successors.get(i);
+					if (--successor.waitingFor == 0 && successor.state == PENDING) {
+						if (ready == null)
+							ready = new ArrayList(max);
+						ready.add(successor);
+					}
+				}
+			}
+		}
+		if (ready != null)
+			release(ready);
+		completeIfDone();
+	}
+
+	/**
+	 * Returns the node of the given job, adding it to this graph if needed.
+	 * @GuardedBy("this")
+	 */
+	private Node nodeFor(Job job) {
+		Node node = (Node) nodes.get(job);
+		if (node != null)
+			return node;
+		InternalJob internal = job;
+		Assert.isLegal(internal.getGraph() == null, "Job belongs to another graph"); //$NON-NLS-1$
+		internal.setGraph(this);
+		node = new Node(internal);
+		nodes.put(job, node);
+		remaining++;
+		return node;
+	}
+
+	/**
+	 * Schedules the jobs of the given nodes, starting with the jobs on the
+	 * longest path to the end of the graph. Jobs that should not be scheduled
+	 * are treated as if they had been canceled.
+	 */
+	private void release(List ready) {
+		if (ready.size() > 1)
+			Collections.sort(ready, CRITICAL_PATH_ORDER);
+		for (int i = 0, max = ready.size(); i < max; i++) {
+			Node node = (Node) ready.get(i);
+			synchronized (this) {
+				if (node.state != PENDING)
+					continue;
+				node.state = RELEASED;
+			}
+			//ask the job outside sync block because it is third party code
+			boolean schedule = node.job.shouldSchedule();
+			//a cancel of this graph while the job was asked could not cancel it
+			synchronized (this) {
+				schedule &= !canceled;
+			}
+			if (!schedule) {
+				jobDone(node.job, Status.CANCEL_STATUS);
+				continue;
+			}
+			manager.schedule(node.job, 0, false);
+			//nor could a cancel of this graph before the job was scheduled
+			boolean cancel;
+			synchronized (this) {
+				cancel = canceled;
+			}
+			if (cancel)
+				manager.cancel(node.job);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see JobGraph#schedule()
+	 */
+	protected void schedule() {
+		ArrayList roots = new ArrayList();
+		synchronized (this) {
+			if (scheduled)
+				throw new IllegalStateException("Job graph has already been scheduled"); //$NON-NLS-1$
+			for (Iterator it = nodes.values().iterator(); it.hasNext();) {
+				Node node = (Node) it.next();
+				computeHeight(node);
+				if (node.waitingFor == 0)
+					roots.add(node);
+			}
+			scheduled = true;
+		}
+		release(roots);
+		completeIfDone();
+	}
+
+	/*
+	 * For debugging purposes only.
+	 */
+	public synchronized String toString() {
+		return "JobGraph(jobs=" + nodes.size() + ", remaining=" + remaining + ')'; //$NON-NLS-1$ //$NON-NLS-2$
+	}
+}
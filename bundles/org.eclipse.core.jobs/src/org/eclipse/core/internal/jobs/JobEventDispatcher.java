@@ -0,0 +1,274 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM - Initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import org.eclipse.core.internal.jobs.JobListeners.IListenerDoit;
+import org.eclipse.core.runtime.jobs.IJobChangeEvent;
+import org.eclipse.core.runtime.jobs.IJobChangeListener;
+
+/**
+ * Delivers job change events to asynchronous listeners. The thread that
+ * changes the state of a job only adds the event to a queue for each listener,
+ * and the dispatcher thread notifies the listeners. Each listener has a bounded
+ * queue. A thread that adds an event to a full queue waits until the dispatcher
+ * has taken the events from that queue. The dispatcher itself, a thread that
+ * runs a job, and a thread that owns or waits for a lock or scheduling rule
+ * never wait, because the listener could be waiting for them. Their events are
+ * added to the queue beyond its bound instead.
+ * <p>
+ * For a coalescing listener, an event replaces the event of the same job that
+ * is still in the queue, so the listener is only told about the last state of
+ * each job. Such an event never waits for room in the queue. When the queue is
+ * full of events of other jobs, the oldest event is discarded instead.
+ * <p>
+ * The dispatcher thread is started when the first listener is added.
+ */
+class JobEventDispatcher extends Thread {
+	/**
+	 * The maximum number of events in the queue of a listener.
+	 */
+	static final int MAX_PENDING = 1024;
+
+	private static final Registration[] EMPTY = new Registration[0];
+
+	/**
+	 * An event in the queue of a listener.
+	 */
+	private static final class Event {
+		IListenerDoit doit;
+		IJobChangeEvent event;
+
+		Event(IListenerDoit doit, IJobChangeEvent event) {
+			this.doit = doit;
+			this.event = event;
+		}
+	}
+
+	/**
+	 * An asynchronous listener and its queue of events.
+	 */
+	private static final class Registration {
+		final IJobChangeListener listener;
+		/**
+		 * The events that have not been taken by the dispatcher, or null for
+		 * a listener that is not coalescing.
+		 * @GuardedBy("JobEventDispatcher.this")
+		 */
+		final HashMap pendingByJob;
+		/**
+		 * The events that have not been taken by the dispatcher.
+		 * @GuardedBy("JobEventDispatcher.this")
+		 */
+		ArrayList pending = new ArrayList();
+		/**
+		 * Set when the listener is removed, so that events already taken by
+		 * the dispatcher are not delivered.
+		 */
+		volatile boolean removed = false;
+
+		Registration(IJobChangeListener listener, boolean coalesce) {
+			this.listener = listener;
+			this.pendingByJob = coalesce ? new HashMap() : null;
+		}
+	}
+
+	/**
+	 * @GuardedBy("this")
+	 */
+	private boolean canceled = false;
+	private final JobListeners listeners;
+	/**
+	 * The number of events in all queues.
+	 * @GuardedBy("this")
+	 */
+	private int pendingCount = 0;
+	/**
+	 * The registered listeners. The array is replaced rather than modified, so
+	 * that it can be read without holding the monitor of the dispatcher.
+	 * @GuardedBy("this") for writing
+	 */
+	private volatile Registration[] registrations = EMPTY;
+
+	JobEventDispatcher(JobListeners listeners) {
+		super("Worker-Events"); //$NON-NLS-1$
+		this.listeners = listeners;
+		setDaemon(JobOSGiUtils.getDefault().useDaemonThreads());
+	}
+
+	/**
+	 * Adds an asynchronous listener. Has no effect if the listener is already
+	 * registered as an asynchronous listener.
+	 */
+	synchronized void add(IJobChangeListener listener, boolean coalesce) {
+		if (canceled)
+			return;
+		Registration[] old = registrations;
+		for (int i = 0; i < old.length; i++)
+			if (old[i].listener == listener)
+				return;
+		Registration[] result = new Registration[old.length + 1];
+		System.arraycopy(old, 0, result, 0, old.length);
+		result[old.length] = new Registration(listener, coalesce);
+		registrations = result;
+		if (!isAlive())
+			start();
+	}
+
+	/**
+	 * Terminates this thread and discards all events that have not been
+	 * delivered. Once terminated, it cannot be restarted.
+	 */
+	synchronized void cancel() {
+		canceled = true;
+		notifyAll();
+	}
+
+	/**
+	 * Delivers the given events to the listener of the given registration.
+	 */
+	private void deliver(Registration registration, ArrayList events) {
+		IJobChangeListener listener = registration.listener;
+		for (int i = 0, size = events.size(); i < size; i++) {
+			if (registration.removed)
+				return;
+			Event next = (Event) events.get(i);
+			try {
+				next.doit.notify(listener, next.event);
+			} catch (Exception e) {
+				listeners.handleException(listener, e);
+			} catch (LinkageError e) {
+				listeners.handleException(listener, e);
+			}
+		}
+	}
+
+	/**
+	 * Returns whether there are no asynchronous listeners.
+	 */
+	boolean isEmpty() {
+		return registrations.length == 0;
+	}
+
+	/**
+	 * Adds the given event to the queue of every asynchronous listener.
+	 */
+	synchronized void post(IListenerDoit doit, IJobChangeEvent event) {
+		Registration[] current = registrations;
+		for (int i = 0; i < current.length; i++) {
+			Registration registration = current[i];
+			if (registration.pendingByJob != null) {
+				Event pending = (Event) registration.pendingByJob.get(event.getJob());
+				if (pending != null) {
+					pending.doit = doit;
+					pending.event = event;
+					continue;
+				}
+				//make room in the queue rather than wait for it
+				if (registration.pending.size() >= MAX_PENDING) {
+					Event oldest = (Event) registration.pending.remove(0);
+					registration.pendingByJob.remove(oldest.event.getJob());
+					pendingCount--;
+				}
+			}
+			//wait for room in the queue, unless the listener could be waiting for this thread
+			while (registration.pending.size() >= MAX_PENDING && !registration.removed && !canceled && mayWait()) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					//don't lose the event, but let the caller see the interrupt
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+			if (registration.removed || canceled)
+				continue;
+			Event pending = new Event(doit, event);
+			registration.pending.add(pending);
+			if (registration.pendingByJob != null)
+				registration.pendingByJob.put(event.getJob(), pending);
+			if (pendingCount++ == 0)
+				notifyAll();
+		}
+	}
+
+	/**
+	 * Returns whether the calling thread may wait for room in a queue. The
+	 * dispatcher and threads that run jobs or own locks or rules must not wait,
+	 * since a listener may be waiting for them.
+	 */
+	private boolean mayWait() {
+		return Thread.currentThread() != this && !JobManager.getInstance().getLockManager().isLockOwner();
+	}
+
+	/**
+	 * Removes an asynchronous listener, and discards the events that have not
+	 * been delivered to it. Has no effect if the listener is not registered as
+	 * an asynchronous listener.
+	 */
+	synchronized void remove(IJobChangeListener listener) {
+		Registration[] old = registrations;
+		for (int i = 0; i < old.length; i++) {
+			if (old[i].listener != listener)
+				continue;
+			Registration removed = old[i];
+			removed.removed = true;
+			pendingCount -= removed.pending.size();
+			removed.pending = new ArrayList();
+			Registration[] result = new Registration[old.length - 1];
+			System.arraycopy(old, 0, result, 0, i);
+			System.arraycopy(old, i + 1, result, i, old.length - i - 1);
+			registrations = result;
+			//release threads waiting for room in the queue of this listener
+			notifyAll();
+			return;
+		}
+	}
+
+	/**
+	 * Takes all events from the queues and delivers them, until canceled.
+	 */
+	public void run() {
+		while (true) {
+			Registration[] current;
+			ArrayList[] batches;
+			synchronized (this) {
+				while (pendingCount == 0 && !canceled) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						//loop
+					}
+				}
+				if (canceled)
+					return;
+				current = registrations;
+				batches = new ArrayList[current.length];
+				for (int i = 0; i < current.length; i++) {
+					Registration registration = current[i];
+					if (registration.pending.isEmpty())
+						continue;
+					batches[i] = registration.pending;
+					registration.pending = new ArrayList();
+					if (registration.pendingByJob != null)
+						registration.pendingByJob.clear();
+				}
+				pendingCount = 0;
+				//release threads waiting for room in a queue
+				notifyAll();
+			}
+			for (int i = 0; i < current.length; i++)
+				if (batches[i] != null)
+					deliver(current[i], batches[i]);
+		}
+	}
+}
@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM - Initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+import java.util.ArrayList;
+import org.eclipse.core.internal.runtime.RuntimeLog;
+import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.IJobFuture;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * The future of one run of a job. The job manager completes the future after
+ * it has notified the listeners that the job is done.
+ */
+public class JobFuture implements IJobFuture {
+	/**
+	 * The longest time to wait before checking the progress monitor again.
+	 */
+	private static final long CANCEL_CHECK_INTERVAL = 100;
+
+	private final LockManager lockManager;
+	/**
+	 * The result, or null if this future is not done.
+	 * @GuardedBy("this")
+	 */
+	private IStatus result;
+	/**
+	 * The runnables to run when this future is done, or null if there are none.
+	 * @GuardedBy("this")
+	 */
+	private ArrayList runnables;
+
+	JobFuture(LockManager lockManager) {
+		this.lockManager = lockManager;
+	}
+
+	/**
+	 * Creates a future that is already done.
+	 */
+	JobFuture(LockManager lockManager, IStatus result) {
+		this.lockManager = lockManager;
+		this.result = result;
+	}
+
+	/**
+	 * Waits until this future is done, or until the given time has elapsed.
+	 * Returns whether this future is done.
+	 */
+	synchronized boolean await(long timeout) throws InterruptedException {
+		long start = System.currentTimeMillis();
+		long timeLeft = timeout;
+		while (result == null && timeLeft > 0) {
+			wait(timeLeft);
+			timeLeft = timeout - (System.currentTimeMillis() - start);
+		}
+		return result != null;
+	}
+
+	/**
+	 * Marks this future as done with the given result, and runs the registered
+	 * runnables. Has no effect if this future is already done.
+	 */
+	void complete(IStatus status) {
+		ArrayList toRun;
+		synchronized (this) {
+			if (result != null)
+				return;
+			result = status;
+			toRun = runnables;
+			runnables = null;
+			notifyAll();
+		}
+		//run the runnables outside sync block
+		if (toRun != null)
+			for (int i = 0, max = toRun.size(); i < max; i++)
+				run((Runnable) toRun.get(i));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.jobs.IJobFuture#getResult()
+	 */
+	public synchronized IStatus getResult() {
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.jobs.IJobFuture#isDone()
+	 */
+	public synchronized boolean isDone() {
+		return result != null;
+	}
+
+	private void run(Runnable runnable) {
+		try {
+			runnable.run();
+		} catch (Exception e) {
+			handleException(runnable, e);
+		} catch (LinkageError e) {
+			handleException(runnable, e);
+		}
+	}
+
+	private void handleException(Object runnable, Throwable e) {
+		if (e instanceof OperationCanceledException)
+			return;
+		String pluginId = JobOSGiUtils.getDefault().getBundleId(runnable);
+		if (pluginId == null)
+			pluginId = JobManager.PI_JOBS;
+		String message = NLS.bind(JobMessages.meta_pluginProblems, pluginId);
+		RuntimeLog.log(new Status(IStatus.ERROR, pluginId, JobManager.PLUGIN_ERROR, message, e));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.jobs.IJobFuture#waitFor(long, org.eclipse.core.runtime.IProgressMonitor)
+	 */
+	public IStatus waitFor(long timeout, IProgressMonitor monitor) throws InterruptedException, OperationCanceledException {
+		long start = System.currentTimeMillis();
+		boolean waited = false;
+		try {
+			while (true) {
+				synchronized (this) {
+					if (result != null)
+						return result;
+				}
+				if (Thread.interrupted())
+					throw new InterruptedException();
+				if (monitor != null && monitor.isCanceled())
+					throw new OperationCanceledException();
+				long timeLeft = timeout - (System.currentTimeMillis() - start);
+				if (timeLeft <= 0)
+					return null;
+				//notify hook to service pending syncExecs before falling asleep
+				lockManager.aboutToWait(null);
+				waited = true;
+				await(Math.min(timeLeft, CANCEL_CHECK_INTERVAL));
+			}
+		} finally {
+			if (waited)
+				lockManager.aboutToRelease();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.jobs.IJobFuture#whenDone(java.lang.Runnable)
+	 */
+	public void whenDone(Runnable runnable) {
+		Assert.isNotNull(runnable);
+		synchronized (this) {
+			if (result == null) {
+				if (runnables == null)
+					runnables = new ArrayList(2);
+				runnables.add(runnable);
+				return;
+			}
+		}
+		run(runnable);
+	}
+
+	/*
+	 * For debugging purposes only.
+	 */
+	public String toString() {
+		IStatus status = getResult();
+		return "JobFuture(" + (status == null ? "pending" : status.toString()) + ')'; //$NON-NLS-1$ //$NON-NLS-2$
+	}
+}
@@ -54,71 +54,165 @@ class JobListeners {
 			listener.sleeping(event);
 		}
 	};
+
+	/**
+	 * A listener that is only interested in some events of the jobs in a family.
+	 */
+	private static final class Subscription {
+		/**
+		 * The family of the jobs, or null for all jobs.
+		 */
+		final Object family;
+		final IJobChangeListener listener;
+
+		Subscription(IJobChangeListener listener, Object family) {
+			this.listener = listener;
+			this.family = family;
+		}
+	}
+
+	private static final Subscription[] EMPTY = new Subscription[0];
+
+	/**
+	 * The number of event types.
+	 */
+	private static final int TYPE_COUNT = 6;
+
 	/**
 	 * The global job listeners.
 	 */
 	protected final ListenerList global = new ListenerList(ListenerList.IDENTITY);
-
 	/**
-	 * TODO Could use an instance pool to re-use old event objects
+	 * The global job listeners that are notified on a separate thread.
 	 */
-	static JobChangeEvent newEvent(Job job) {
-		JobChangeEvent instance = new JobChangeEvent();
-		instance.job = job;
-		return instance;
+	private final JobEventDispatcher dispatcher = new JobEventDispatcher(this);
+	/**
+	 * The filtered listeners of each event type. Listeners with the same family
+	 * are adjacent, so that each family only needs to be checked once per event.
+	 * The arrays are replaced rather than modified, so that they can be read
+	 * without synchronization.
+	 * @GuardedBy("this") for writing
+	 */
+	private volatile Subscription[][] filtered;
+	/**
+	 * Whether there are any filtered listeners.
+	 */
+	private volatile boolean hasFiltered = false;
+
+	JobListeners() {
+		Subscription[][] none = new Subscription[TYPE_COUNT][];
+		for (int i = 0; i < TYPE_COUNT; i++)
+			none[i] = EMPTY;
+		filtered = none;
 	}
 
-	static JobChangeEvent newEvent(Job job, IStatus result) {
+	static JobChangeEvent newEvent(Job job, IStatus result, long delay, boolean reschedule) {
 		JobChangeEvent instance = new JobChangeEvent();
 		instance.job = job;
 		instance.result = result;
+		instance.delay = delay;
+		instance.reschedule = reschedule;
 		return instance;
 	}
 
-	static JobChangeEvent newEvent(Job job, long delay) {
-		JobChangeEvent instance = new JobChangeEvent();
-		instance.job = job;
-		instance.delay = delay;
-		return instance;
+	/**
+	 * Returns the index in the filtered listeners of the given event type.
+	 */
+	private static int typeIndex(int type) {
+		switch (type) {
+			case IJobChangeEvent.ABOUT_TO_RUN :
+				return 0;
+			case IJobChangeEvent.AWAKE :
+				return 1;
+			case IJobChangeEvent.DONE :
+				return 2;
+			case IJobChangeEvent.RUNNING :
+				return 3;
+			case IJobChangeEvent.SCHEDULED :
+				return 4;
+			default :
+				return 5;
+		}
 	}
 
 	/**
 	 * Process the given doit for all global listeners and all local listeners
 	 * on the given job.
 	 */
-	private void doNotify(final IListenerDoit doit, final IJobChangeEvent event) {
+	private void doNotify(final IListenerDoit doit, int type, Job job, IStatus result, long delay, boolean reschedule) {
+		doNotify(doit, type, job, result, delay, reschedule, global.getListeners());
+	}
+
+	/**
+	 * Process the given doit for the given global listeners, the filtered listeners
+	 * and all local listeners on the given job. The event is only created if some 
+	 * listener is interested in it.
+	 */
+	private void doNotify(final IListenerDoit doit, int type, Job job, IStatus result, long delay, boolean reschedule, Object[] globalListeners) {
+		JobChangeEvent event = null;
 		//notify all global listeners
-		Object[] listeners = global.getListeners();
+		Object[] listeners = globalListeners;
 		int size = listeners.length;
 		for (int i = 0; i < size; i++) {
-			try {
-				if (listeners[i] != null)
-					doit.notify((IJobChangeListener) listeners[i], event);
-			} catch (Exception e) {
-				handleException(listeners[i], e);
-			} catch (LinkageError e) {
-				handleException(listeners[i], e);
+			if (listeners[i] == null)
+				continue;
+			if (event == null)
+				event = newEvent(job, result, delay, reschedule);
+			safeNotify(doit, listeners[i], event);
+		}
+		//notify the filtered listeners whose family the job belongs to
+		if (hasFiltered) {
+			Subscription[] subscriptions = filtered[typeIndex(type)];
+			Object family = null;
+			boolean belongs = false;
+			for (int i = 0; i < subscriptions.length; i++) {
+				Subscription subscription = subscriptions[i];
+				if (i == 0 || subscription.family != family) {
+					family = subscription.family;
+					belongs = family == null || job.belongsTo(family);
+				}
+				if (!belongs)
+					continue;
+				if (event == null)
+					event = newEvent(job, result, delay, reschedule);
+				safeNotify(doit, subscription.listener, event);
 			}
 		}
+		//queue the event for the asynchronous listeners
+		if (!dispatcher.isEmpty()) {
+			if (event == null)
+				event = newEvent(job, result, delay, reschedule);
+			dispatcher.post(doit, event);
+		}
 		//notify all local listeners
-		ListenerList list = ((InternalJob) event.getJob()).getListeners();
+		ListenerList list = ((InternalJob) job).getListeners();
 		listeners = list == null ? null : list.getListeners();
 		if (listeners == null)
 			return;
 		size = listeners.length;
 		for (int i = 0; i < size; i++) {
-			try {
-				if (listeners[i] != null)
-					doit.notify((IJobChangeListener) listeners[i], event);
-			} catch (Exception e) {
-				handleException(listeners[i], e);
-			} catch (LinkageError e) {
-				handleException(listeners[i], e);
-			}
+			if (listeners[i] == null)
+				continue;
+			if (event == null)
+				event = newEvent(job, result, delay, reschedule);
+			safeNotify(doit, listeners[i], event);
 		}
 	}
 
-	private void handleException(Object listener, Throwable e) {
+	/**
+	 * Process the given doit for one listener, and log any exception it throws.
+	 */
+	private void safeNotify(IListenerDoit doit, Object listener, IJobChangeEvent event) {
+		try {
+			doit.notify((IJobChangeListener) listener, event);
+		} catch (Exception e) {
+			handleException(listener, e);
+		} catch (LinkageError e) {
+			handleException(listener, e);
+		}
+	}
+
+	void handleException(Object listener, Throwable e) {
 		//this code is roughly copied from InternalPlatform.run(ISafeRunnable), 
 		//but in-lined here for performance reasons
 		if (e instanceof OperationCanceledException)
@@ -130,39 +224,155 @@ class JobListeners {
 		RuntimeLog.log(new Status(IStatus.ERROR, pluginId, JobManager.PLUGIN_ERROR, message, e));
 	}
 
+	/**
+	 * Returns whether there are any global listeners, or any listeners
+	 * registered on the given job.
+	 */
+	boolean hasListeners(InternalJob job) {
+		if (!global.isEmpty() || hasFiltered || !dispatcher.isEmpty())
+			return true;
+		ListenerList list = job.getListeners();
+		return list != null && !list.isEmpty();
+	}
+
 	public void add(IJobChangeListener listener) {
 		global.add(listener);
 	}
 
+	/**
+	 * Adds a global listener for the given event types of the jobs in the given family.
+	 */
+	public synchronized void add(IJobChangeListener listener, Object family, int eventMask) {
+		Subscription subscription = new Subscription(listener, family);
+		Subscription[][] result = new Subscription[TYPE_COUNT][];
+		for (int i = 0; i < TYPE_COUNT; i++) {
+			Subscription[] old = filtered[i];
+			if ((eventMask & (1 << i)) == 0) {
+				result[i] = old;
+				continue;
+			}
+			//add the listener after the last listener with the same family
+			int index = old.length;
+			for (int j = old.length - 1; j >= 0; j--) {
+				if (old[j].family == family) {
+					index = j + 1;
+					break;
+				}
+			}
+			result[i] = new Subscription[old.length + 1];
+			System.arraycopy(old, 0, result[i], 0, index);
+			result[i][index] = subscription;
+			System.arraycopy(old, index, result[i], index + 1, old.length - index);
+			hasFiltered = true;
+		}
+		filtered = result;
+	}
+
+	/**
+	 * Adds a global listener that is notified on the dispatcher thread.
+	 */
+	public void addAsync(IJobChangeListener listener, boolean coalesce) {
+		dispatcher.add(listener, coalesce);
+	}
+
 	public void remove(IJobChangeListener listener) {
 		global.remove(listener);
+		dispatcher.remove(listener);
+		removeFiltered(listener);
+	}
+
+	/**
+	 * Removes all filtered registrations of the given listener.
+	 */
+	private synchronized void removeFiltered(IJobChangeListener listener) {
+		if (!hasFiltered)
+			return;
+		Subscription[][] result = new Subscription[TYPE_COUNT][];
+		boolean remaining = false;
+		for (int i = 0; i < TYPE_COUNT; i++) {
+			Subscription[] old = filtered[i];
+			int count = 0;
+			for (int j = 0; j < old.length; j++)
+				if (old[j].listener != listener)
+					count++;
+			if (count == old.length) {
+				result[i] = old;
+			} else {
+				result[i] = count == 0 ? EMPTY : new Subscription[count];
+				for (int j = 0, k = 0; j < old.length; j++)
+					if (old[j].listener != listener)
+						result[i][k++] = old[j];
+			}
+			remaining |= count > 0;
+		}
+		filtered = result;
+		hasFiltered = remaining;
+	}
+
+	/**
+	 * Stops notifying the asynchronous listeners.
+	 */
+	public void shutdown() {
+		dispatcher.cancel();
 	}
 
 	public void aboutToRun(Job job) {
-		doNotify(aboutToRun, newEvent(job));
+		doNotify(aboutToRun, IJobChangeEvent.ABOUT_TO_RUN, job, null, -1, false);
 	}
 
 	public void awake(Job job) {
-		doNotify(awake, newEvent(job));
+		doNotify(awake, IJobChangeEvent.AWAKE, job, null, -1, false);
+	}
+
+	/**
+	 * Notifies listeners that the first count of the given jobs are awake.
+	 */
+	public void awake(Job[] jobs, int count) {
+		Object[] listeners = global.getListeners();
+		for (int i = 0; i < count; i++)
+			doNotify(awake, IJobChangeEvent.AWAKE, jobs[i], null, -1, false, listeners);
 	}
 
 	public void done(Job job, IStatus result, boolean reschedule) {
-		JobChangeEvent event = newEvent(job, result);
-		event.reschedule = reschedule;
-		doNotify(done, event);
+		doNotify(done, IJobChangeEvent.DONE, job, result, -1, reschedule);
+	}
+
+	/**
+	 * Notifies listeners that the first count of the given jobs are done.
+	 */
+	public void done(Job[] jobs, int count, IStatus result, boolean reschedule) {
+		Object[] listeners = global.getListeners();
+		for (int i = 0; i < count; i++)
+			doNotify(done, IJobChangeEvent.DONE, jobs[i], result, -1, reschedule, listeners);
 	}
 
 	public void running(Job job) {
-		doNotify(running, newEvent(job));
+		doNotify(running, IJobChangeEvent.RUNNING, job, null, -1, false);
 	}
 
 	public void scheduled(Job job, long delay, boolean reschedule) {
-		JobChangeEvent event = newEvent(job, delay);
-		event.reschedule = reschedule;
-		doNotify(scheduled, event);
+		doNotify(scheduled, IJobChangeEvent.SCHEDULED, job, null, delay, reschedule);
+	}
+
+	/**
+	 * Notifies listeners that the first count of the given jobs are scheduled.
+	 */
+	public void scheduled(Job[] jobs, int count, long delay, boolean reschedule) {
+		Object[] listeners = global.getListeners();
+		for (int i = 0; i < count; i++)
+			doNotify(scheduled, IJobChangeEvent.SCHEDULED, jobs[i], null, delay, reschedule, listeners);
 	}
 
 	public void sleeping(Job job) {
-		doNotify(sleeping, newEvent(job));
+		doNotify(sleeping, IJobChangeEvent.SLEEPING, job, null, -1, false);
+	}
+
+	/**
+	 * Notifies listeners that the first count of the given jobs are sleeping.
+	 */
+	public void sleeping(Job[] jobs, int count) {
+		Object[] listeners = global.getListeners();
+		for (int i = 0; i < count; i++)
+			doNotify(sleeping, IJobChangeEvent.SLEEPING, jobs[i], null, -1, false, listeners);
 	}
 }
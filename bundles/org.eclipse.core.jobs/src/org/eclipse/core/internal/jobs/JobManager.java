@@ -15,6 +15,8 @@
 package org.eclipse.core.internal.jobs;
 
 //don't use ICU because this is used for debugging only (see bug 135785)
+import java.io.File;
+import java.io.IOException;
 import java.text.*;
 import java.util.*;
 import org.eclipse.core.internal.runtime.RuntimeLog;
@@ -38,6 +40,16 @@ import org.eclipse.osgi.util.NLS;
  * WorkerPool -> JobManager.implicitJobs -> JobManager.lock -> 
  * InternalJob.jobStateLock
  * 
+ * Frequently called queries that only need a consistent view of a single value
+ * (isIdle, isSuspended, and currentJob for threads that are not workers) do not
+ * acquire the lock. They read volatile fields that are only written while the
+ * lock is held.
+ * 
+ * When work stealing is enabled, a worker that schedules a job without a rule
+ * remembers it, and runs it next unless another worker has taken it already.
+ * Idle workers take jobs from the head of the shared wait queue, which holds
+ * the jobs that were scheduled first.
+ * 
  * @ThreadSafe
  */
 public class JobManager implements IJobManager {
@@ -53,6 +65,29 @@ public class JobManager implements IJobManager {
 	 */
 	public static final int PLUGIN_ERROR = 2;
 
+	/**
+	 * The time in milliseconds that shutdown waits for canceled jobs to finish.
+	 */
+	private static final long SHUTDOWN_WAIT = 300;
+
+	/**
+	 * The time in milliseconds after a job with an affinity starts waiting,
+	 * during which it is left for the idle worker that last ran a job with
+	 * the same affinity.
+	 */
+	private static final long AFFINITY_WINDOW = 20;
+
+	/**
+	 * The maximum number of affinities whose worker is remembered.
+	 */
+	private static final int MAX_AFFINITIES = 256;
+
+	/**
+	 * The maximum number of waiting jobs that a worker passes over because
+	 * they are left for other workers.
+	 */
+	private static final int MAX_AFFINITY_SKIPS = 16;
+
 	private static final String OPTION_DEADLOCK_ERROR = PI_JOBS + "/jobs/errorondeadlock"; //$NON-NLS-1$
 	private static final String OPTION_DEBUG_BEGIN_END = PI_JOBS + "/jobs/beginend"; //$NON-NLS-1$
 	private static final String OPTION_DEBUG_YIELDING = PI_JOBS + "/jobs/yielding"; //$NON-NLS-1$
@@ -109,7 +144,24 @@ public class JobManager implements IJobManager {
 	 */
 	private final Object lock = new Object();
 
+	/**
+	 * Maps the affinities of jobs to the worker that last started a job with
+	 * that affinity. An affinity is moved to the end when a job with that
+	 * affinity starts, so the map iterates from the affinity that was least
+	 * recently run, which is forgotten when there are too many. Lookups do
+	 * not change the order.
+	 * @GuardedBy("lock")
+	 */
+	private final Map affinityWorkers = new LinkedHashMap() {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry eldest) {
+			return size() > MAX_AFFINITIES;
+		}
+	};
+
 	private final LockManager lockManager = new LockManager();
+	private final ContentionProfiler contentionProfiler = lockManager.getContentionProfiler();
 
 	/**
 	 * The pool of worker threads.
@@ -124,29 +176,85 @@ public class JobManager implements IJobManager {
 	 * Jobs that are currently running. Should only be modified from changeState
 	 * @GuardedBy("lock")
 	 */
-	private final HashSet running;
+	private final JobSet running;
+
+	/**
+	 * The scheduling rules of the running jobs. Should only be modified from changeState
+	 * @GuardedBy("lock")
+	 */
+	private final RuleIndex runningRules = new RuleIndex();
+
+	/**
+	 * The scheduling rules of the jobs that are blocked by running jobs.
+	 * Should only be modified from changeState
+	 * @GuardedBy("lock")
+	 */
+	private final RuleIndex blockedRules = new RuleIndex();
+
+	/**
+	 * The scheduled jobs with a declared family, keyed by family. The values
+	 * are the first jobs of lists linked through InternalJob.familyNext, so
+	 * that adding and removing a job does not allocate. Should only be
+	 * modified from changeState
+	 * @GuardedBy("lock")
+	 */
+	private final HashMap familyIndex = new HashMap();
+
+	/**
+	 * The first of the scheduled jobs without a declared family, except for
+	 * thread jobs, which never belong to a family. Should only be modified
+	 * from changeState
+	 * @GuardedBy("lock")
+	 */
+	private InternalJob undeclaredJobs;
+
+	/**
+	 * The concurrency and rate limits of job families, keyed by family.
+	 * @GuardedBy("lock")
+	 */
+	private final HashMap familyLimits = new HashMap();
+
+	/**
+	 * The values of familyLimits, for iterating without allocation.
+	 * @GuardedBy("lock")
+	 */
+	private FamilyLimit[] familyLimitArray = new FamilyLimit[0];
+
+	/**
+	 * A snapshot of the running set used by currentJob(), or null if the set
+	 * has changed since the last snapshot was taken. Written while holding
+	 * the lock, read without it.
+	 */
+	private volatile Job[] runningSnapshot;
+
+	/**
+	 * The number of jobs that are either running or waiting to run. Written
+	 * while holding the lock, read without it by isIdle().
+	 */
+	private volatile int activeJobCount = 0;
 
 	/**
 	 * Jobs that are currently yielding. Should only be modified from changeState
 	 * @GuardedBy("lock")
 	 */
-	private final HashSet yielding;
+	private final JobSet yielding;
 
 	/**
 	 * Jobs that are sleeping.  Some sleeping jobs are scheduled to wake
 	 * up at a given start time, while others will sleep indefinitely until woken.
+	 * The timer moves jobs to the wait queue when their start time is reached.
 	 * Should only be modified from changeState
 	 * @GuardedBy("lock")
 	 */
-	private final JobQueue sleeping;
+	private final SleepQueue sleeping;
 	/**
 	 * True if this manager has been suspended, and false otherwise.  A job manager
 	 * starts out not suspended, and becomes suspended when <code>suspend</code>
 	 * is invoked. Once suspended, no jobs will start running until <code>resume</code>
-	 * is called.
+	 * is called. Written while holding the lock, read without it by isSuspended().
 	 * @GuardedBy("lock")
 	 */
-	private boolean suspended = false;
+	private volatile boolean suspended = false;
 
 	/**
 	 * jobs that are waiting to be run. Should only be modified from changeState
@@ -174,6 +282,33 @@ public class JobManager implements IJobManager {
 
 	private final InternalWorker internalWorker;
 
+	/**
+	 * The thread that wakes sleeping jobs.
+	 */
+	private final JobTimer timer;
+
+	/**
+	 * True if workers should prefer to run the jobs they have scheduled themselves.
+	 * @see IJobManager#PROP_WORK_STEALING
+	 */
+	private final boolean workStealing;
+
+	/**
+	 * Records the times of finished jobs while metrics are enabled.
+	 */
+	private final JobMetricsRecorder metrics = new JobMetricsRecorder();
+
+	/**
+	 * True if the times of jobs are recorded.
+	 * @see IJobManager#setMetricsEnabled(boolean)
+	 */
+	private volatile boolean metricsEnabled = false;
+
+	/**
+	 * The time when metrics were last enabled. Times measured before are discarded.
+	 */
+	private volatile long metricsEnabledTime = 0;
+
 	public static void debug(String msg) {
 		StringBuffer msgBuf = new StringBuffer(msg.length() + 40);
 		if (DEBUG_TIMING) {
@@ -233,6 +368,8 @@ public class JobManager implements IJobManager {
 				return "BLOCKED"; //$NON-NLS-1$
 			case InternalJob.YIELDING :
 				return "YIELDING"; //$NON-NLS-1$
+			case InternalJob.RATE_LIMITED :
+				return "RATE_LIMITED"; //$NON-NLS-1$
 			case InternalJob.ABOUT_TO_RUN :
 				return "ABOUT_TO_RUN"; //$NON-NLS-1$
 			case InternalJob.ABOUT_TO_SCHEDULE :
@@ -260,15 +397,25 @@ public class JobManager implements IJobManager {
 		synchronized (lock) {
 			waiting = new JobQueue(false);
 			waitingThreadJobs = new JobQueue(false, false);
-			sleeping = new JobQueue(true);
-			running = new HashSet(10);
-			yielding = new HashSet(10);
+			sleeping = new SleepQueue();
+			running = new JobSet(10);
+			yielding = new JobSet(10);
 			pool = new WorkerPool(this);
 		}
 		pool.setDaemon(JobOSGiUtils.getDefault().useDaemonThreads());
+		pool.setStackSize(JobOSGiUtils.getDefault().getLongProperty(PROP_WORKER_STACK_SIZE, 0));
+		int maxWorkers = (int) JobOSGiUtils.getDefault().getLongProperty(PROP_MAX_WORKERS, 0);
+		int minWorkers = (int) JobOSGiUtils.getDefault().getLongProperty(PROP_MIN_WORKERS, 1);
+		pool.setLimits(maxWorkers, minWorkers, JobOSGiUtils.getDefault().getLongProperty(PROP_WORKER_KEEP_ALIVE, 60000));
+		workStealing = JobOSGiUtils.getDefault().getBooleanProperty(PROP_WORK_STEALING, false);
+		setMetricsEnabled(JobOSGiUtils.getDefault().getBooleanProperty(PROP_METRICS, false));
+		setContentionProfilingEnabled(JobOSGiUtils.getDefault().getBooleanProperty(PROP_CONTENTION_PROFILE, false));
 		internalWorker = new InternalWorker(this);
 		internalWorker.setDaemon(JobOSGiUtils.getDefault().useDaemonThreads());
 		internalWorker.start();
+		timer = new JobTimer(this);
+		timer.setDaemon(JobOSGiUtils.getDefault().useDaemonThreads());
+		timer.start();
 	}
 
 	/* (non-Javadoc)
@@ -278,6 +425,34 @@ public class JobManager implements IJobManager {
 		jobListeners.add(listener);
 	}
 
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.jobs.IJobManager#addJobChangeListener(org.eclipse.core.runtime.jobs.IJobChangeListener, java.lang.Object, int)
+	 */
+	public void addJobChangeListener(IJobChangeListener listener, Object family, int eventMask) {
+		jobListeners.add(listener, family, eventMask);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.jobs.IJobManager#addAsyncJobChangeListener(org.eclipse.core.runtime.jobs.IJobChangeListener, boolean)
+	 */
+	public void addAsyncJobChangeListener(IJobChangeListener listener, boolean coalesce) {
+		jobListeners.addAsync(listener, coalesce);
+	}
+
+	/**
+	 * Adds a job that is being scheduled to the family index.
+	 * @GuardedBy("lock")
+	 */
+	private void addToFamilyIndex(InternalJob job) {
+		Object family = job.getDeclaredFamily();
+		if (family == null) {
+			if (!(job instanceof ThreadJob))
+				undeclaredJobs = link(job, undeclaredJobs);
+			return;
+		}
+		familyIndex.put(family, link(job, (InternalJob) familyIndex.get(family)));
+	}
+
 	/* (non-Javadoc)
 	 * @see org.eclipse.core.runtime.jobs.IJobManager#beginRule(org.eclipse.core.runtime.jobs.ISchedulingRule, org.eclipse.core.runtime.IProgressMonitor)
 	 */
@@ -292,6 +467,7 @@ public class JobManager implements IJobManager {
 	protected boolean cancel(InternalJob job) {
 		IProgressMonitor monitor = null;
 		boolean runCanceling = false;
+		JobFuture future = null;
 		synchronized (lock) {
 			switch (job.getState()) {
 				case Job.NONE :
@@ -309,6 +485,8 @@ public class JobManager implements IJobManager {
 					job.setAboutToRunCanceled(true);
 					return false;
 				default :
+					future = job.getPendingFuture();
+					job.setPendingFuture(null);
 					changeState(job, Job.NONE);
 			}
 		}
@@ -321,8 +499,13 @@ public class JobManager implements IJobManager {
 			}
 			return false;
 		}
+		//cancel the successors in the job graph before notifying listeners
+		if (job.getGraph() != null)
+			job.getGraph().jobDone(job, Status.CANCEL_STATUS);
 		//only notify listeners if the job was waiting or sleeping
 		jobListeners.done((Job) job, Status.CANCEL_STATUS, false);
+		if (future != null)
+			future.complete(Status.CANCEL_STATUS);
 		return true;
 	}
 
@@ -335,6 +518,58 @@ public class JobManager implements IJobManager {
 			cancel((Job) it.next());
 	}
 
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.jobs.IJobManager#cancelAll(org.eclipse.core.runtime.jobs.Job[])
+	 */
+	public void cancelAll(Job[] jobs) {
+		Assert.isNotNull(jobs, "Jobs are null"); //$NON-NLS-1$
+		Job[] canceled = new Job[jobs.length];
+		int canceledCount = 0;
+		List runningJobs = null;
+		JobFuture[] futures = null;
+		synchronized (lock) {
+			for (int i = 0; i < jobs.length; i++) {
+				InternalJob job = jobs[i];
+				Assert.isNotNull(job, "Job is null"); //$NON-NLS-1$
+				switch (job.getState()) {
+					case Job.NONE :
+						break;
+					case Job.RUNNING :
+						//running jobs are canceled one by one below
+						if (runningJobs == null)
+							runningJobs = new ArrayList();
+						runningJobs.add(job);
+						break;
+					default :
+						JobFuture future = job.getPendingFuture();
+						if (future != null) {
+							if (futures == null)
+								futures = new JobFuture[jobs.length];
+							futures[canceledCount] = future;
+							job.setPendingFuture(null);
+						}
+						changeState(job, Job.NONE);
+						canceled[canceledCount++] = jobs[i];
+				}
+			}
+		}
+		//cancel running jobs and notify listeners outside sync block
+		if (runningJobs != null)
+			for (Iterator it = runningJobs.iterator(); it.hasNext();)
+				cancel((InternalJob) it.next());
+		//cancel the successors in job graphs before notifying listeners
+		for (int i = 0; i < canceledCount; i++) {
+			InternalJob job = canceled[i];
+			if (job.getGraph() != null)
+				job.getGraph().jobDone(job, Status.CANCEL_STATUS);
+		}
+		jobListeners.done(canceled, canceledCount, Status.CANCEL_STATUS, false);
+		if (futures != null)
+			for (int i = 0; i < canceledCount; i++)
+				if (futures[i] != null)
+					futures[i].complete(Status.CANCEL_STATUS);
+	}
+
 	/**
 	 * Atomically updates the state of a job, adding or removing from the
 	 * necessary queues or sets.
@@ -343,7 +578,7 @@ public class JobManager implements IJobManager {
 		boolean blockedJobs = false;
 		synchronized (lock) {
 			synchronized (job.jobStateLock) {
-				job.jobStateLock.notifyAll();
+				job.notifyStateChanged();
 				int oldState = job.internalGetState();
 				switch (oldState) {
 					case InternalJob.YIELDING :
@@ -354,6 +589,11 @@ public class JobManager implements IJobManager {
 					case InternalJob.BLOCKED :
 						//remove this job from the linked list of blocked jobs
 						job.remove();
+						blockedRules.remove(job);
+						if (job.getBlockedContention() != null) {
+							job.getBlockedContention().record(System.currentTimeMillis() - job.getBlockedTime());
+							job.setBlockedContention(null, 0);
+						}
 						break;
 					case Job.WAITING :
 						try {
@@ -361,8 +601,10 @@ public class JobManager implements IJobManager {
 						} catch (RuntimeException e) {
 							Assert.isLegal(false, "Tried to remove a job that wasn't in the queue"); //$NON-NLS-1$
 						}
+						activeJobCount--;
 						break;
 					case Job.SLEEPING :
+					case InternalJob.RATE_LIMITED :
 						try {
 							sleeping.remove(job);
 						} catch (RuntimeException e) {
@@ -372,6 +614,10 @@ public class JobManager implements IJobManager {
 					case Job.RUNNING :
 					case InternalJob.ABOUT_TO_RUN :
 						running.remove(job);
+						runningRules.remove(job);
+						runningSnapshot = null;
+						activeJobCount--;
+						updateRunningCounts(job.limits, -1);
 						//add any blocked jobs back to the wait queue
 						InternalJob blocked = job.previous();
 						job.remove();
@@ -385,23 +631,40 @@ public class JobManager implements IJobManager {
 					default :
 						Assert.isLegal(false, "Invalid job state: " + job + ", state: " + oldState); //$NON-NLS-1$ //$NON-NLS-2$
 				}
+				if (metricsEnabled)
+					updateMetricsTimes(job, oldState);
+				if (oldState == Job.NONE && newState != Job.NONE) {
+					addToFamilyIndex(job);
+					job.limits = limitsOf(job);
+				} else if (newState == Job.NONE && oldState != Job.NONE) {
+					removeFromFamilyIndex(job);
+					job.limits = null;
+				}
 				job.internalSetState(newState);
 				switch (newState) {
 					case Job.NONE :
 						job.setStartTime(InternalJob.T_NONE);
 						job.setWaitQueueStamp(InternalJob.T_NONE);
 						job.setRunCanceled(false);
+						break;
 					case InternalJob.BLOCKED :
+						blockedRules.add(job);
 						break;
 					case Job.WAITING :
 						waiting.enqueue(job);
+						activeJobCount++;
+						requestAffinityWakeup(job);
 						break;
 					case Job.SLEEPING :
+					case InternalJob.RATE_LIMITED :
 						try {
 							sleeping.enqueue(job);
 						} catch (RuntimeException e) {
 							throw new RuntimeException("Error changing from state: " + oldState); //$NON-NLS-1$
 						}
+						//the timer must wake up earlier if this job is now the first to wake
+						if (sleeping.peek() == job && job.getStartTime() != InternalJob.T_INFINITE)
+							timer.wakeUp();
 						break;
 					case Job.RUNNING :
 					case InternalJob.ABOUT_TO_RUN :
@@ -409,6 +672,10 @@ public class JobManager implements IJobManager {
 						job.setStartTime(InternalJob.T_NONE);
 						job.setWaitQueueStamp(InternalJob.T_NONE);
 						running.add(job);
+						runningRules.add(job);
+						runningSnapshot = null;
+						activeJobCount++;
+						updateRunningCounts(job.limits, 1);
 						break;
 					case InternalJob.YIELDING :
 						yielding.add(job);
@@ -448,10 +715,10 @@ public class JobManager implements IJobManager {
 	 * Returns a new progress monitor for this job.  Never returns null.
 	 * @GuardedBy("lock")
 	 */
-	private IProgressMonitor createMonitor(Job job) {
+	private IProgressMonitor createMonitor(InternalJob job) {
 		IProgressMonitor monitor = null;
 		if (progressProvider != null)
-			monitor = progressProvider.createMonitor(job);
+			monitor = progressProvider.createMonitor((Job) job);
 		if (monitor == null)
 			monitor = new NullProgressMonitor();
 		return monitor;
@@ -473,13 +740,17 @@ public class JobManager implements IJobManager {
 		Thread current = Thread.currentThread();
 		if (current instanceof Worker)
 			return ((Worker) current).currentJob();
-		synchronized (lock) {
-			for (Iterator it = running.iterator(); it.hasNext();) {
-				Job job = (Job) it.next();
-				if (job.getThread() == current)
-					return job;
+		Job[] jobs = runningSnapshot;
+		if (jobs == null) {
+			synchronized (lock) {
+				jobs = runningSnapshot;
+				if (jobs == null)
+					runningSnapshot = jobs = running.toArray();
 			}
 		}
+		for (int i = 0; i < jobs.length; i++)
+			if (jobs[i].getThread() == current)
+				return jobs[i];
 		return null;
 	}
 
@@ -517,6 +788,21 @@ public class JobManager implements IJobManager {
 		}
 	}
 
+	/**
+	 * Returns the delay in milliseconds that a job can tolerate waiting: the
+	 * delay for its priority, or its deadline if that is shorter. The wait
+	 * queue is ordered by the time each job should start by, which is the time
+	 * it started waiting plus this delay, so jobs are run earliest deadline
+	 * first. Since that time does not change while a job is waiting, a waiting
+	 * job can only be overtaken by jobs that start waiting less than its own
+	 * delay after it, and jobs with a low priority are not starved.
+	 */
+	private long delayFor(InternalJob job) {
+		long delay = delayFor(job.getPriority());
+		long deadline = job.getDeadline();
+		return deadline == Job.NO_DEADLINE ? delay : Math.min(delay, deadline);
+	}
+
 	/**
 	 * Performs the scheduling of a job.  Does not perform any notifications.
 	 */
@@ -535,9 +821,15 @@ public class JobManager implements IJobManager {
 				job.setStartTime(System.currentTimeMillis() + delay);
 				changeState(job, Job.SLEEPING);
 			} else {
-				job.setStartTime(System.currentTimeMillis() + delayFor(job.getPriority()));
+				job.setStartTime(System.currentTimeMillis() + delayFor(job));
 				job.setWaitQueueStamp(waitQueueCounter.increment());
 				changeState(job, Job.WAITING);
+				//remember jobs without rules that a worker schedules while running a job
+				if (workStealing && job.getRule() == null) {
+					Thread current = Thread.currentThread();
+					if (current instanceof Worker && ((Worker) current).currentJob() != null)
+						((Worker) current).pushLocalJob(job);
+				}
 			}
 		}
 	}
@@ -550,54 +842,57 @@ public class JobManager implements IJobManager {
 	 */
 	private void doShutdown() {
 		Job[] toCancel = null;
+		JobFuture[] futures = null;
 		synchronized (lock) {
 			if (!active)
 				return;
 			active = false;
 			//cancel all running jobs
-			toCancel = (Job[]) running.toArray(new Job[running.size()]);
+			toCancel = running.toArray();
+			//remember the futures of the running jobs to wait for them to finish
+			futures = new JobFuture[toCancel.length];
+			for (int i = 0; i < toCancel.length; i++)
+				futures[i] = (JobFuture) getFuture(toCancel[i]);
 			//discard any jobs that have not yet started running
 			sleeping.clear();
 			waiting.clear();
+			activeJobCount = running.size();
 		}
 
-		// Give running jobs a chance to finish. Wait 0.1 seconds for up to 3 times.
+		// Give running jobs a chance to finish. Wait up to 0.3 seconds in total.
 		if (toCancel != null && toCancel.length > 0) {
 			for (int i = 0; i < toCancel.length; i++) {
 				cancel(toCancel[i]); // cancel jobs outside sync block to avoid deadlock
 			}
 
-			for (int waitAttempts = 0; waitAttempts < 3; waitAttempts++) {
-				Thread.yield();
-				synchronized (lock) {
-					if (running.isEmpty())
+			long deadline = System.currentTimeMillis() + SHUTDOWN_WAIT;
+			try {
+				for (int i = 0; i < futures.length; i++) {
+					long timeLeft = deadline - System.currentTimeMillis();
+					if (timeLeft <= 0 || !futures[i].await(timeLeft))
 						break;
 				}
-				if (DEBUG_SHUTDOWN) {
-					JobManager.debug("Shutdown - job wait cycle #" + (waitAttempts + 1)); //$NON-NLS-1$
-					Job[] stillRunning = null;
-					synchronized (lock) {
-						stillRunning = (Job[]) running.toArray(new Job[running.size()]);
-					}
-					if (stillRunning != null) {
-						for (int j = 0; j < stillRunning.length; j++) {
-							JobManager.debug("\tJob: " + printJobName(stillRunning[j])); //$NON-NLS-1$
-						}
-					}
+			} catch (InterruptedException e) {
+				//ignore
+			}
+			if (DEBUG_SHUTDOWN) {
+				Job[] stillRunning = null;
+				synchronized (lock) {
+					stillRunning = running.toArray();
 				}
-				try {
-					Thread.sleep(100);
-				} catch (InterruptedException e) {
-					//ignore
+				JobManager.debug("Shutdown - jobs still running: " + stillRunning.length); //$NON-NLS-1$
+				for (int j = 0; j < stillRunning.length; j++) {
+					JobManager.debug("\tJob: " + printJobName(stillRunning[j])); //$NON-NLS-1$
 				}
-				Thread.yield();
 			}
 
 			synchronized (lock) { // retrieve list of the jobs that are still running
-				toCancel = (Job[]) running.toArray(new Job[running.size()]);
+				toCancel = running.toArray();
 			}
 		}
 		internalWorker.cancel();
+		timer.cancel();
+		jobListeners.shutdown();
 		if (toCancel != null) {
 			for (int i = 0; i < toCancel.length; i++) {
 				String jobName = printJobName(toCancel[i]);
@@ -614,6 +909,10 @@ public class JobManager implements IJobManager {
 		synchronized (lock) {
 			//discard reference to any jobs still running at this point
 			running.clear();
+			runningRules.clear();
+			blockedRules.clear();
+			runningSnapshot = null;
+			activeJobCount = 0;
 		}
 
 		pool.shutdown();
@@ -626,6 +925,9 @@ public class JobManager implements IJobManager {
 	 */
 	protected void endJob(InternalJob job, IStatus result, boolean notify) {
 		long rescheduleDelay = InternalJob.T_NONE;
+		JobFuture future = null;
+		JobMetrics.Times times = null;
+		long waitTime = 0, blockedTime = 0, runTime = 0;
 		synchronized (lock) {
 			//if the job is finishing asynchronously, there is nothing more to do for now
 			if (result == Job.ASYNC_FINISH)
@@ -639,12 +941,27 @@ public class JobManager implements IJobManager {
 			job.setProgressMonitor(null);
 			job.setThread(null);
 			rescheduleDelay = job.getStartTime();
+			future = job.getPendingFuture();
+			job.setPendingFuture(null);
 			changeState(job, Job.NONE);
+			times = metricsEnabled ? job.getMetricsTimes() : null;
+			if (times != null && times.complete) {
+				waitTime = times.waitTime;
+				blockedTime = times.blockedTime;
+				runTime = times.runTime;
+			}
 		}
+		if (times != null && times.complete)
+			metrics.record(job, waitTime, blockedTime, runTime);
 		//notify listeners outside sync block
 		final boolean reschedule = active && rescheduleDelay > InternalJob.T_NONE && job.shouldSchedule();
+		//release the successors in the job graph without waiting for the listeners
+		if (!reschedule && job.getGraph() != null)
+			job.getGraph().jobDone(job, result);
 		if (notify)
 			jobListeners.done((Job) job, result, reschedule);
+		if (future != null)
+			future.complete(result);
 		//reschedule the job if requested and we are still active
 		if (reschedule)
 			schedule(job, rescheduleDelay, reschedule);
@@ -660,6 +977,20 @@ public class JobManager implements IJobManager {
 		implicitJobs.end(rule, false);
 	}
 
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.jobs.IJobManager#getJobClassMetrics()
+	 */
+	public IJobMetrics[] getJobClassMetrics() {
+		return metrics.getJobClassMetrics();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.jobs.IJobManager#getMetrics(java.lang.Object)
+	 */
+	public IJobMetrics getMetrics(Object family) {
+		return metrics.getMetrics(family);
+	}
+
 	/* (non-Javadoc)
 	 * @see org.eclipse.core.runtime.jobs.IJobManager#find(java.lang.String)
 	 */
@@ -681,32 +1012,61 @@ public class JobManager implements IJobManager {
 			if (running.isEmpty())
 				return null;
 			//check the running jobs
-			boolean hasBlockedJobs = false;
-			for (Iterator it = running.iterator(); it.hasNext();) {
-				InternalJob job = (InternalJob) it.next();
-				if (waitingJob.isConflicting(job))
-					return job;
-				if (!hasBlockedJobs)
-					hasBlockedJobs = job.previous() != null;
-			}
-			//there are no blocked jobs, so we are done
-			if (!hasBlockedJobs)
-				return null;
+			InternalJob blocking = runningRules.findConflicting(waitingJob);
+			if (blocking != null || blockedRules.isEmpty())
+				return blocking;
 			//check all jobs blocked by running jobs
-			for (Iterator it = running.iterator(); it.hasNext();) {
-				InternalJob job = (InternalJob) it.next();
-				while (true) {
-					job = job.previous();
-					if (job == null)
-						break;
-					if (waitingJob.isConflicting(job))
+			return blockedRules.findConflicting(waitingJob);
+		}
+	}
+
+	/**
+	 * Returns a running job of a family of the given job that runs as many jobs
+	 * as its concurrency limit allows, or null if the job may run.
+	 * @GuardedBy("lock")
+	 */
+	private InternalJob findLimitingJob(InternalJob waitingJob) {
+		FamilyLimit[] limits = waitingJob.limits;
+		if (limits == null)
+			return null;
+		for (int i = 0; i < limits.length; i++) {
+			FamilyLimit limit = limits[i];
+			if (limit.maxRunning == 0 || limit.running < limit.maxRunning)
+				continue;
+			//the family is full, so one of the running jobs belongs to it
+			for (int j = 0, max = running.size(); j < max; j++) {
+				InternalJob job = running.get(j);
+				FamilyLimit[] jobLimits = job.limits;
+				if (jobLimits == null)
+					continue;
+				for (int k = 0; k < jobLimits.length; k++)
+					if (jobLimits[k] == limit)
 						return job;
-				}
 			}
 		}
 		return null;
 	}
 
+	/**
+	 * Takes a token from the rate limited families of the given job, and returns 0.
+	 * If one of the families has no token, no token is taken, and the time in
+	 * milliseconds until all families have a token is returned.
+	 * @GuardedBy("lock")
+	 */
+	private long takeFamilyTokens(InternalJob job, long now) {
+		FamilyLimit[] limits = job.limits;
+		if (limits == null)
+			return 0;
+		long delay = 0;
+		for (int i = 0; i < limits.length; i++)
+			delay = Math.max(delay, limits[i].tokenDelay(now));
+		if (delay > 0)
+			return delay;
+		for (int i = 0; i < limits.length; i++)
+			limits[i].takeToken();
+		return 0;
+	}
+
 	/**
 	 * Returns a job from the given collection whose scheduling rule conflicts
 	 * with the scheduling rule of the given job.  Returns null if there are no 
@@ -735,6 +1095,62 @@ public class JobManager implements IJobManager {
 		}
 	}
 
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.jobs.IJobManager#dumpContentions(java.io.File)
+	 */
+	public void dumpContentions(File file) throws IOException {
+		contentionProfiler.dump(file);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.jobs.IJobManager#getContentions(int)
+	 */
+	public IContention[] getContentions(int count) {
+		Assert.isLegal(count >= 0, "Count is negative"); //$NON-NLS-1$
+		return contentionProfiler.getContentions(count);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.jobs.IJobManager#getFuture(java.lang.Object)
+	 */
+	public IJobFuture getFuture(Object family) {
+		synchronized (lock) {
+			return new FamilyFuture(this, family, selectForFuture(family, Job.RUNNING | Job.WAITING | Job.SLEEPING));
+		}
+	}
+
+	/**
+	 * Returns the future of the current run of the given job, or a future that
+	 * is already done if the job is not scheduled.
+	 */
+	IJobFuture getFuture(InternalJob job) {
+		synchronized (lock) {
+			if (job.getState() == Job.NONE) {
+				IStatus result = job.getResult();
+				return new JobFuture(lockManager, result == null ? Status.OK_STATUS : result);
+			}
+			JobFuture future = job.getPendingFuture();
+			if (future == null) {
+				future = new JobFuture(lockManager);
+				job.setPendingFuture(future);
+			}
+			return future;
+		}
+	}
+
+	/**
+	 * Returns the limits of the given family, adding them if the family has none.
+	 * @GuardedBy("lock")
+	 */
+	private FamilyLimit getFamilyLimit(Object family) {
+		FamilyLimit limit = (FamilyLimit) familyLimits.get(family);
+		if (limit == null) {
+			limit = new FamilyLimit(family);
+			familyLimits.put(family, limit);
+		}
+		return limit;
+	}
+
 	public LockManager getLockManager() {
 		return lockManager;
 	}
@@ -797,26 +1213,61 @@ public class JobManager implements IJobManager {
 	 * @see org.eclipse.core.runtime.jobs.IJobManager#isIdle()
 	 */
 	public boolean isIdle() {
-		synchronized (lock) {
-			return running.isEmpty() && waiting.isEmpty();
+		return activeJobCount == 0;
+	}
+
+	/**
+	 * Returns whether the given job belongs to a family with a concurrency
+	 * or rate limit.
+	 * @GuardedBy("lock")
+	 */
+	private boolean isLimited(InternalJob job) {
+		return job.limits != null;
+	}
+
+	/**
+	 * Returns the limits of the families the given job belongs to, or null if
+	 * none of them is limited. A job with a declared family only belongs to
+	 * that family, so only other jobs are asked whether they belong to each
+	 * limited family.
+	 * @GuardedBy("lock")
+	 */
+	private FamilyLimit[] limitsOf(InternalJob job) {
+		if (familyLimitArray.length == 0 || job instanceof ThreadJob)
+			return null;
+		Object family = job.getDeclaredFamily();
+		if (family != null) {
+			FamilyLimit limit = (FamilyLimit) familyLimits.get(family);
+			return limit == null ? null : limit.only;
 		}
+		FamilyLimit[] limits = null;
+		int count = 0;
+		for (int i = 0; i < familyLimitArray.length; i++) {
+			if (!job.belongsTo(familyLimitArray[i].family))
+				continue;
+			if (limits == null)
+				limits = new FamilyLimit[familyLimitArray.length - i];
+			limits[count++] = familyLimitArray[i];
+		}
+		if (limits == null || count == limits.length)
+			return limits;
+		FamilyLimit[] result = new FamilyLimit[count];
+		System.arraycopy(limits, 0, result, 0, count);
+		return result;
 	}
 
 	/* (non-Javadoc)
 	 * @see org.eclipse.core.runtime.jobs.IJobManager#isSuspended()
 	 */
 	public boolean isSuspended() {
-		synchronized (lock) {
-			return suspended;
-		}
+		return suspended;
 	}
 
 	/* (non-Javadoc)
 	 * @see org.eclipse.core.runtime.jobs.Job#job(org.eclipse.core.runtime.jobs.Job)
 	 */
 	protected void join(InternalJob job) {
-		final IJobChangeListener listener;
-		final Semaphore barrier;
+		JobFuture future;
 		synchronized (lock) {
 			int state = job.getState();
 			if (state == Job.NONE)
@@ -827,24 +1278,16 @@ public class JobManager implements IJobManager {
 			//it's an error for a job to join itself
 			if (state == Job.RUNNING && job.getThread() == Thread.currentThread())
 				throw new IllegalStateException("Job attempted to join itself"); //$NON-NLS-1$
-			//the semaphore will be released when the job is done
-			barrier = new Semaphore(null);
-			listener = new JobChangeAdapter() {
-				public void done(IJobChangeEvent event) {
-					barrier.release();
-				}
-			};
-			job.addJobChangeListener(listener);
-			//compute set of all jobs that must run before this one
-			//add a listener that removes jobs from the blocking set when they finish
+			//the future is done when the job is done
+			future = (JobFuture) getFuture(job);
 		}
-		//wait until listener notifies this thread.
+		//wait until the future is done
 		try {
 			while (true) {
 				//notify hook to service pending syncExecs before falling asleep
 				lockManager.aboutToWait(job.getThread());
 				try {
-					if (barrier.acquire(Long.MAX_VALUE))
+					if (future.await(Long.MAX_VALUE))
 						break;
 				} catch (InterruptedException e) {
 					//loop and keep trying
@@ -852,7 +1295,6 @@ public class JobManager implements IJobManager {
 			}
 		} finally {
 			lockManager.aboutToRelease();
-			job.removeJobChangeListener(listener);
 		}
 	}
 
@@ -861,38 +1303,18 @@ public class JobManager implements IJobManager {
 	 */
 	public void join(final Object family, IProgressMonitor monitor) throws InterruptedException, OperationCanceledException {
 		monitor = monitorFor(monitor);
-		IJobChangeListener listener = null;
-		final Set jobs;
+		FamilyFuture future;
 		int jobCount;
 		Job blocking = null;
 		synchronized (lock) {
 			//don't join a waiting or sleeping job when suspended (deadlock risk)
 			int states = suspended ? Job.RUNNING : Job.RUNNING | Job.WAITING | Job.SLEEPING;
-			jobs = Collections.synchronizedSet(new HashSet(select(family, states)));
+			List jobs = selectForFuture(family, states);
 			jobCount = jobs.size();
-			if (jobCount > 0) {
-				//if there is only one blocking job, use it in the blockage callback below
-				if (jobCount == 1)
-					blocking = (Job) jobs.iterator().next();
-				listener = new JobChangeAdapter() {
-					public void done(IJobChangeEvent event) {
-						//don't remove from list if job is being rescheduled
-						if (!((JobChangeEvent) event).reschedule)
-							jobs.remove(event.getJob());
-					}
-
-					//update the list of jobs if new ones are added during the join
-					public void scheduled(IJobChangeEvent event) {
-						//don't add to list if job is being rescheduled
-						if (((JobChangeEvent) event).reschedule)
-							return;
-						Job job = event.getJob();
-						if (job.belongsTo(family))
-							jobs.add(job);
-					}
-				};
-				addJobChangeListener(listener);
-			}
+			//if there is only one blocking job, use it in the blockage callback below
+			if (jobCount == 1)
+				blocking = (Job) jobs.get(0);
+			future = new FamilyFuture(this, family, jobs);
 		}
 		if (jobCount == 0) {
 			//use up the monitor outside synchronized block because monitors call untrusted code
@@ -900,14 +1322,14 @@ public class JobManager implements IJobManager {
 			monitor.done();
 			return;
 		}
-		//spin until all jobs are completed
+		//wait until all jobs are completed
 		try {
 			monitor.beginTask(JobMessages.jobs_blocked0, jobCount);
 			monitor.subTask(getWaitMessage(jobCount));
 			reportBlocked(monitor, blocking);
 			int jobsLeft;
 			int reportedWorkDone = 0;
-			while ((jobsLeft = jobs.size()) > 0) {
+			while ((jobsLeft = future.getJobsLeft()) > 0) {
 				//don't let there be negative work done if new jobs have
 				//been added since the join began
 				int actualWorkDone = Math.max(0, jobCount - jobsLeft);
@@ -922,11 +1344,11 @@ public class JobManager implements IJobManager {
 					throw new OperationCanceledException();
 				//notify hook to service pending syncExecs before falling asleep
 				lockManager.aboutToWait(null);
-				Thread.sleep(100);
+				future.await(100);
 			}
 		} finally {
 			lockManager.aboutToRelease();
-			removeJobChangeListener(listener);
+			future.dispose();
 			reportUnblocked(monitor);
 			monitor.done();
 		}
@@ -961,28 +1383,58 @@ public class JobManager implements IJobManager {
 		return lockManager.newLock();
 	}
 
+	/**
+	 * Removes and returns the most recent job scheduled by the given worker that
+	 * is still waiting, or null if there is none, or if a job with higher priority
+	 * is waiting.
+	 * @GuardedBy("lock")
+	 */
+	private InternalJob nextLocalJob(Worker worker) {
+		InternalJob job;
+		//forget jobs that have already been run or canceled
+		while ((job = worker.peekLocalJob()) != null && job.internalGetState() != Job.WAITING)
+			worker.popLocalJob();
+		if (job == null || job.getPriority() > waiting.peek().getPriority())
+			return null;
+		worker.popLocalJob();
+		return job;
+	}
+
 	/**
 	 * Removes and returns the first waiting job in the queue. Returns null if there
 	 * are no items waiting in the queue.  If an item is removed from the queue,
 	 * it is moved to the running jobs list.
+	 * @param worker The worker that will run the job, or null
 	 */
-	private Job nextJob() {
+	private Job nextJob(Worker worker) {
 		synchronized (lock) {
 			//do nothing if the job manager is suspended
 			if (suspended)
 				return null;
-			//tickle the sleep queue to see if anyone wakes up
-			long now = System.currentTimeMillis();
-			InternalJob job = sleeping.peek();
-			while (job != null && job.getStartTime() < now) {
-				job.setStartTime(now + delayFor(job.getPriority()));
-				job.setWaitQueueStamp(waitQueueCounter.increment());
-				changeState(job, Job.WAITING);
-				job = sleeping.peek();
-			}
+			boolean limited = familyLimitArray.length > 0;
+			//prefer a job scheduled by the worker, which can always run because it has no rule
+			InternalJob job = workStealing && worker != null ? nextLocalJob(worker) : null;
+			//leave a local job in the wait queue if its family limits must be checked
+			if (job != null && limited && isLimited(job))
+				job = null;
 			//process the wait queue until we find a job whose rules are satisfied.
-			while ((job = waiting.peek()) != null) {
+			while (job == null && (job = peekWaiting(worker)) != null) {
 				InternalJob blocker = findBlockingJob(job);
+				boolean conflicting = blocker != null;
+				if (blocker == null && limited) {
+					blocker = findLimitingJob(job);
+					if (blocker == null) {
+						long now = System.currentTimeMillis();
+						long delay = takeFamilyTokens(job, now);
+						if (delay == 0)
+							break;
+						//park the job in the sleep queue until its families may start another job
+						job.setStartTime(now + delay);
+						changeState(job, InternalJob.RATE_LIMITED);
+						job = null;
+						continue;
+					}
+				}
 				if (blocker == null)
 					break;
 				//queue this job after the job that's blocking it
@@ -991,10 +1443,22 @@ public class JobManager implements IJobManager {
 				Assert.isTrue(job.next() == null);
 				Assert.isTrue(job.previous() == null);
 				blocker.addLast(job);
+				if (conflicting && contentionProfiler.isEnabled())
+					job.setBlockedContention(contentionProfiler.getRuleContention(job, blocker), System.currentTimeMillis());
+				job = null;
 			}
 			//the job to run must be in the running list before we exit
 			//the sync block, otherwise two jobs with conflicting rules could start at once
 			if (job != null) {
+				if (worker != null) {
+					worker.lastJob = job;
+					Object affinity = job.getAffinity();
+					if (affinity != null) {
+						//move the affinity to the end of the map
+						affinityWorkers.remove(affinity);
+						affinityWorkers.put(affinity, worker);
+					}
+				}
 				changeState(job, InternalJob.ABOUT_TO_RUN);
 				if (JobManager.DEBUG)
 					JobManager.debug("Starting job: " + job); //$NON-NLS-1$
@@ -1003,6 +1467,123 @@ public class JobManager implements IJobManager {
 		}
 	}
 
+	/**
+	 * Returns the first job in the wait queue that is not left for another
+	 * worker, or null if there is none.
+	 * @GuardedBy("lock")
+	 */
+	private InternalJob peekWaiting(Worker worker) {
+		InternalJob job = waiting.peek();
+		if (affinityWorkers.isEmpty())
+			return job;
+		for (int skipped = 0; job != null && skipped < MAX_AFFINITY_SKIPS; skipped++) {
+			Worker preferred = preferredWorker(job);
+			if (preferred == null || preferred == worker)
+				return job;
+			job = waiting.peekAfter(job);
+		}
+		return job;
+	}
+
+	/**
+	 * Returns the idle worker that a waiting job is left for, or null if
+	 * any worker may run the job.
+	 * @GuardedBy("lock")
+	 */
+	private Worker preferredWorker(InternalJob job) {
+		Object affinity = job.getAffinity();
+		if (affinity == null)
+			return null;
+		Worker worker = (Worker) affinityWorkers.get(affinity);
+		if (worker == null || !worker.isAlive())
+			return null;
+		//a worker whose last job is done, or is waiting again, is about to look for another job
+		InternalJob last = worker.lastJob;
+		if (last != null && last != job) {
+			int state = last.internalGetState();
+			if (state == Job.RUNNING || state == InternalJob.ABOUT_TO_RUN)
+				return null;
+		}
+		//the start time of a waiting job is the time it started waiting plus its delay
+		if (System.currentTimeMillis() - (job.getStartTime() - delayFor(job)) >= AFFINITY_WINDOW)
+			return null;
+		return worker;
+	}
+
+	/**
+	 * Forgets the affinities whose last worker is the given worker, which
+	 * has been removed from the pool.
+	 */
+	void removeAffinityWorker(Worker worker) {
+		synchronized (lock) {
+			if (affinityWorkers.isEmpty())
+				return;
+			for (Iterator it = affinityWorkers.values().iterator(); it.hasNext();)
+				if (it.next() == worker)
+					it.remove();
+		}
+	}
+
+	/**
+	 * Asks the pool to wake the idle worker that a job that just started
+	 * waiting is left for, instead of any other worker.
+	 * @GuardedBy("lock")
+	 */
+	private void requestAffinityWakeup(InternalJob job) {
+		if (job.getAffinity() == null || affinityWorkers.isEmpty())
+			return;
+		Worker worker = preferredWorker(job);
+		if (worker != null) {
+			worker.affinityWakeup = true;
+			pool.affinityWakeups = true;
+		}
+	}
+
+	/**
+	 * Removes a job that is no longer scheduled from the family index.
+	 * @GuardedBy("lock")
+	 */
+	private void removeFromFamilyIndex(InternalJob job) {
+		Object family = job.getDeclaredFamily();
+		if (family == null) {
+			if (!(job instanceof ThreadJob))
+				undeclaredJobs = unlink(job, undeclaredJobs);
+			return;
+		}
+		InternalJob first = unlink(job, (InternalJob) familyIndex.get(family));
+		if (first == null)
+			familyIndex.remove(family);
+		else
+			familyIndex.put(family, first);
+	}
+
+	/**
+	 * Adds a job to the front of a family list, and returns the new first job.
+	 * @GuardedBy("lock")
+	 */
+	private static InternalJob link(InternalJob job, InternalJob first) {
+		job.familyPrevious = null;
+		job.familyNext = first;
+		if (first != null)
+			first.familyPrevious = job;
+		return job;
+	}
+
+	/**
+	 * Removes a job from a family list, and returns the new first job.
+	 * @GuardedBy("lock")
+	 */
+	private static InternalJob unlink(InternalJob job, InternalJob first) {
+		InternalJob next = job.familyNext;
+		InternalJob previous = job.familyPrevious;
+		if (next != null)
+			next.familyPrevious = previous;
+		if (previous != null)
+			previous.familyNext = next;
+		job.familyNext = job.familyPrevious = null;
+		return first == job ? next : first;
+	}
+
 	/* (non-Javadoc)
 	 * @see org.eclipse.core.runtime.jobs.IJobManager#removeJobListener(org.eclipse.core.runtime.jobs.IJobChangeListener)
 	 */
@@ -1049,8 +1630,9 @@ public class JobManager implements IJobManager {
 	public final void resume() {
 		synchronized (lock) {
 			suspended = false;
-			//poke the job pool
+			//poke the job pool and the timer
 			pool.jobQueued();
+			timer.wakeUp();
 		}
 	}
 
@@ -1092,6 +1674,11 @@ public class JobManager implements IJobManager {
 				// atomically release waiting
 				implicitJobs.removeWaiting(job);
 			}
+		} else {
+			//remember the state of the blocker to detect changes before the caller waits
+			synchronized (blocking.jobStateLock) {
+				job.blockerStateChanges = blocking.getStateChanges();
+			}
 		}
 		return blocking;
 	}
@@ -1104,6 +1691,7 @@ public class JobManager implements IJobManager {
 			throw new IllegalStateException("Job manager has been shut down."); //$NON-NLS-1$
 		Assert.isNotNull(job, "Job is null"); //$NON-NLS-1$
 		Assert.isLegal(delay >= 0, "Scheduling delay is negative"); //$NON-NLS-1$
+		boolean notify;
 		synchronized (lock) {
 			//if the job is already running, set it to be rescheduled when done
 			if (job.getState() == Job.RUNNING) {
@@ -1118,6 +1706,16 @@ public class JobManager implements IJobManager {
 			//remember that we are about to schedule the job
 			//to prevent multiple schedule attempts from succeeding (bug 68452)
 			changeState(job, InternalJob.ABOUT_TO_SCHEDULE);
+			//if nobody is listening, the job can be queued in the same sync block.
+			//Decide while holding the lock, so that a listener registered under the
+			//lock either sees the job queued or is notified that it is scheduled
+			notify = jobListeners.hasListeners(job);
+			if (!notify)
+				doSchedule(job, delay);
+		}
+		if (!notify) {
+			pool.jobQueued();
+			return;
 		}
 		//notify listeners outside sync block
 		jobListeners.scheduled((Job) job, delay, reschedule);
@@ -1127,6 +1725,63 @@ public class JobManager implements IJobManager {
 		pool.jobQueued();
 	}
 
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.jobs.IJobManager#scheduleAll(org.eclipse.core.runtime.jobs.Job[], long)
+	 */
+	public void scheduleAll(Job[] jobs, long delay) {
+		if (!active)
+			throw new IllegalStateException("Job manager has been shut down."); //$NON-NLS-1$
+		Assert.isNotNull(jobs, "Jobs are null"); //$NON-NLS-1$
+		Assert.isLegal(delay >= 0, "Scheduling delay is negative"); //$NON-NLS-1$
+		//ask the jobs outside sync block because it is third party code
+		Job[] toSchedule = new Job[jobs.length];
+		int count = 0;
+		for (int i = 0; i < jobs.length; i++) {
+			Assert.isNotNull(jobs[i], "Job is null"); //$NON-NLS-1$
+			if (jobs[i].shouldSchedule())
+				toSchedule[count++] = jobs[i];
+		}
+		//jobs with listeners are moved to the front of the array
+		int notifyCount = 0;
+		int queued = 0;
+		synchronized (lock) {
+			for (int i = 0; i < count; i++) {
+				InternalJob job = toSchedule[i];
+				//if the job is already running, set it to be rescheduled when done
+				if (job.getState() == Job.RUNNING) {
+					job.setStartTime(delay);
+					continue;
+				}
+				//can't schedule a job that is waiting or sleeping
+				if (job.internalGetState() != Job.NONE)
+					continue;
+				if (JobManager.DEBUG)
+					JobManager.debug("Scheduling job: " + job); //$NON-NLS-1$
+				changeState(job, InternalJob.ABOUT_TO_SCHEDULE);
+				if (jobListeners.hasListeners(job)) {
+					toSchedule[notifyCount++] = toSchedule[i];
+					continue;
+				}
+				doSchedule(job, delay);
+				if (job.internalGetState() == Job.WAITING)
+					queued++;
+			}
+		}
+		if (notifyCount > 0) {
+			//notify listeners outside sync block
+			jobListeners.scheduled(toSchedule, notifyCount, delay, false);
+			synchronized (lock) {
+				for (int i = 0; i < notifyCount; i++) {
+					doSchedule(toSchedule[i], delay);
+					if (((InternalJob) toSchedule[i]).internalGetState() == Job.WAITING)
+						queued++;
+				}
+			}
+		}
+		//call the pool outside sync block to avoid deadlock
+		pool.jobsQueued(queued);
+	}
+
 	/**
 	 * Adds all family members in the list of jobs to the collection
 	 */
@@ -1149,6 +1804,54 @@ public class JobManager implements IJobManager {
 		return select(family, Job.WAITING | Job.SLEEPING | Job.RUNNING);
 	}
 
+	/**
+	 * Adds the jobs of the given family list that are in one of the provided 
+	 * states, and that belong to the given family if it is not null.
+	 * @GuardedBy("lock")
+	 */
+	private void selectFamilyList(List members, Object family, InternalJob first, int stateMask) {
+		for (InternalJob job = first; job != null; job = job.familyNext) {
+			//jobs about to be scheduled are not in any queue yet
+			if (job.internalGetState() == InternalJob.ABOUT_TO_SCHEDULE || (job.getState() & stateMask) == 0)
+				continue;
+			if (family == null || job.belongsTo(family))
+				members.add(job);
+		}
+	}
+
+	/**
+	 * Adds the jobs of the given family list that are about to be scheduled,
+	 * and that belong to the given family if it is not null.
+	 * @GuardedBy("lock")
+	 */
+	private void selectAboutToSchedule(List members, Object family, InternalJob first) {
+		for (InternalJob job = first; job != null; job = job.familyNext)
+			if (job.internalGetState() == InternalJob.ABOUT_TO_SCHEDULE && (family == null || job.belongsTo(family)))
+				members.add(job);
+	}
+
+	/**
+	 * Returns the jobs that a future of the given family waits for: the jobs in
+	 * one of the provided states and, if waiting jobs are included, the jobs
+	 * that are about to be scheduled. The listeners of a job about to be
+	 * scheduled are notified outside the lock, possibly without the listener
+	 * of the future, which is registered later.
+	 * @GuardedBy("lock")
+	 */
+	private List selectForFuture(Object family, int stateMask) {
+		List members = select(family, stateMask);
+		if ((stateMask & Job.WAITING) == 0)
+			return members;
+		if (family != null) {
+			selectAboutToSchedule(members, null, (InternalJob) familyIndex.get(family));
+		} else {
+			for (Iterator it = familyIndex.values().iterator(); it.hasNext();)
+				selectAboutToSchedule(members, null, (InternalJob) it.next());
+		}
+		selectAboutToSchedule(members, family, undeclaredJobs);
+		return members;
+	}
+
 	/**
 	 * Returns a list of all jobs known to the job manager that belong to the given 
 	 * family and are in one of the provided states.
@@ -1156,23 +1859,53 @@ public class JobManager implements IJobManager {
 	private List select(Object family, int stateMask) {
 		List members = new ArrayList();
 		synchronized (lock) {
+			if (family != null) {
+				//only ask the jobs without a declared family whether they belong to the family
+				selectFamilyList(members, null, (InternalJob) familyIndex.get(family), stateMask);
+				selectFamilyList(members, family, undeclaredJobs, stateMask);
+				return members;
+			}
 			if ((stateMask & Job.RUNNING) != 0) {
-				for (Iterator it = running.iterator(); it.hasNext();) {
-					select(members, family, (InternalJob) it.next(), stateMask);
-				}
+				for (int i = 0, max = running.size(); i < max; i++)
+					select(members, family, running.get(i), stateMask);
 			}
 			if ((stateMask & Job.WAITING) != 0) {
 				select(members, family, waiting.peek(), stateMask);
-				for (Iterator it = yielding.iterator(); it.hasNext();) {
+				for (int i = 0, max = yielding.size(); i < max; i++)
+					select(members, family, yielding.get(i), stateMask);
+			}
+			//the sleep queue also holds rate limited jobs, which are waiting for clients
+			if ((stateMask & (Job.SLEEPING | Job.WAITING)) != 0) {
+				for (Iterator it = sleeping.iterator(); it.hasNext();) {
 					select(members, family, (InternalJob) it.next(), stateMask);
 				}
 			}
-			if ((stateMask & Job.SLEEPING) != 0)
-				select(members, family, sleeping.peek(), stateMask);
 		}
 		return members;
 	}
 
+	/**
+	 * Changes a job deadline.
+	 */
+	protected void setDeadline(InternalJob job, long newDeadline) {
+		synchronized (lock) {
+			if (job.getDeadline() == newDeadline)
+				return;
+			long oldDelay = delayFor(job);
+			job.internalSetDeadline(newDeadline);
+			resortWaiting(job, oldDelay);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.jobs.IJobManager#setMetricsEnabled(boolean)
+	 */
+	public void setMetricsEnabled(boolean enabled) {
+		if (enabled && !metricsEnabled)
+			metricsEnabledTime = System.currentTimeMillis();
+		metricsEnabled = enabled;
+	}
+
 	/* (non-Javadoc)
 	 * @see IJobManager#setLockListener(LockListener)
 	 */
@@ -1185,19 +1918,49 @@ public class JobManager implements IJobManager {
 	 */
 	protected void setPriority(InternalJob job, int newPriority) {
 		synchronized (lock) {
-			int oldPriority = job.getPriority();
-			if (oldPriority == newPriority)
+			if (job.getPriority() == newPriority)
 				return;
+			long oldDelay = delayFor(job);
 			job.internalSetPriority(newPriority);
-			//if the job is waiting to run, re-shuffle the queue
-			if (job.getState() == Job.WAITING) {
-				long oldStart = job.getStartTime();
-				job.setStartTime(oldStart + (delayFor(newPriority) - delayFor(oldPriority)));
-				waiting.resort(job);
-			}
+			resortWaiting(job, oldDelay);
 		}
 	}
 
+	/**
+	 * If the job is waiting to run, moves it to the position in the wait queue
+	 * for its current delay, given the delay it was queued with.
+	 * @GuardedBy("lock")
+	 */
+	private void resortWaiting(InternalJob job, long oldDelay) {
+		if (job.internalGetState() != Job.WAITING)
+			return;
+		long newDelay = delayFor(job);
+		if (newDelay == oldDelay)
+			return;
+		job.setStartTime(job.getStartTime() + (newDelay - oldDelay));
+		waiting.resort(job);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.jobs.IJobManager#setConcurrencyLimit(java.lang.Object, int)
+	 */
+	public void setConcurrencyLimit(Object family, int limit) {
+		Assert.isNotNull(family, "Family is null"); //$NON-NLS-1$
+		Assert.isLegal(limit >= 0, "Concurrency limit is negative"); //$NON-NLS-1$
+		synchronized (lock) {
+			FamilyLimit familyLimit = getFamilyLimit(family);
+			familyLimit.maxRunning = limit;
+			updateFamilyLimits(familyLimit);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.jobs.IJobManager#setContentionProfilingEnabled(boolean)
+	 */
+	public void setContentionProfilingEnabled(boolean enabled) {
+		contentionProfiler.setEnabled(enabled);
+	}
+
 	/* (non-Javadoc)
 	 * @see IJobManager#setProgressProvider(IProgressProvider)
 	 */
@@ -1205,6 +1968,20 @@ public class JobManager implements IJobManager {
 		progressProvider = provider;
 	}
 
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.jobs.IJobManager#setRateLimit(java.lang.Object, int, long)
+	 */
+	public void setRateLimit(Object family, int count, long interval) {
+		Assert.isNotNull(family, "Family is null"); //$NON-NLS-1$
+		Assert.isLegal(count >= 0, "Rate limit count is negative"); //$NON-NLS-1$
+		Assert.isLegal(count == 0 || interval > 0, "Rate limit interval is not positive"); //$NON-NLS-1$
+		synchronized (lock) {
+			FamilyLimit familyLimit = getFamilyLimit(family);
+			familyLimit.setRate(count, interval);
+			updateFamilyLimits(familyLimit);
+		}
+	}
+
 	/* (non-Javadoc)
 	 * @see Job#setRule
 	 */
@@ -1217,32 +1994,47 @@ public class JobManager implements IJobManager {
 		}
 	}
 
+	/**
+	 * Puts a job to sleep without notifying listeners. Returns true if the job 
+	 * was successfully put to sleep, and false if it is already running.
+	 * @GuardedBy("lock")
+	 */
+	private boolean doSleep(InternalJob job) {
+		switch (job.getState()) {
+			case Job.RUNNING :
+				//cannot be paused if it is already running (as opposed to ABOUT_TO_RUN)
+				if (job.internalGetState() == Job.RUNNING)
+					return false;
+				//job hasn't started running yet (aboutToRun listener)
+				break;
+			case Job.SLEEPING :
+				//update the job wake time
+				job.setStartTime(InternalJob.T_INFINITE);
+				//change state again to re-shuffle the sleep queue
+				changeState(job, Job.SLEEPING);
+				return true;
+			case Job.NONE :
+				return true;
+			case Job.WAITING :
+				//put the job to sleep
+				break;
+		}
+		job.setStartTime(InternalJob.T_INFINITE);
+		changeState(job, Job.SLEEPING);
+		return true;
+	}
+
 	/**
 	 * Puts a job to sleep. Returns true if the job was successfully put to sleep.
 	 */
 	protected boolean sleep(InternalJob job) {
 		synchronized (lock) {
-			switch (job.getState()) {
-				case Job.RUNNING :
-					//cannot be paused if it is already running (as opposed to ABOUT_TO_RUN)
-					if (job.internalGetState() == Job.RUNNING)
-						return false;
-					//job hasn't started running yet (aboutToRun listener)
-					break;
-				case Job.SLEEPING :
-					//update the job wake time
-					job.setStartTime(InternalJob.T_INFINITE);
-					//change state again to re-shuffle the sleep queue
-					changeState(job, Job.SLEEPING);
-					return true;
-				case Job.NONE :
-					return true;
-				case Job.WAITING :
-					//put the job to sleep
-					break;
-			}
-			job.setStartTime(InternalJob.T_INFINITE);
-			changeState(job, Job.SLEEPING);
+			int oldState = job.getState();
+			if (!doSleep(job))
+				return false;
+			//only notify listeners if the job was waiting to run
+			if (oldState == Job.SLEEPING || oldState == Job.NONE)
+				return true;
 		}
 		jobListeners.sleeping((Job) job);
 		return true;
@@ -1258,26 +2050,80 @@ public class JobManager implements IJobManager {
 		}
 	}
 
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.jobs.IJobManager#sleepAll(org.eclipse.core.runtime.jobs.Job[])
+	 */
+	public void sleepAll(Job[] jobs) {
+		Assert.isNotNull(jobs, "Jobs are null"); //$NON-NLS-1$
+		Job[] asleep = new Job[jobs.length];
+		int count = 0;
+		synchronized (lock) {
+			for (int i = 0; i < jobs.length; i++) {
+				InternalJob job = jobs[i];
+				Assert.isNotNull(job, "Job is null"); //$NON-NLS-1$
+				int oldState = job.getState();
+				//only notify listeners if the job was waiting to run
+				if (doSleep(job) && oldState != Job.SLEEPING && oldState != Job.NONE)
+					asleep[count++] = jobs[i];
+			}
+		}
+		jobListeners.sleeping(asleep, count);
+	}
+
 	/**
-	 * Returns the estimated time in milliseconds before the next job is scheduled
-	 * to wake up. The result may be negative.  Returns InternalJob.T_INFINITE if
-	 * there are no sleeping or waiting jobs.
+	 * Returns 0 if there are jobs waiting to run, and InternalJob.T_INFINITE
+	 * otherwise. Workers do not need to wake up for sleeping jobs, because the
+	 * timer moves them to the wait queue and notifies the pool.
 	 */
 	protected long sleepHint() {
 		synchronized (lock) {
 			//wait forever if job manager is suspended
-			if (suspended)
-				return InternalJob.T_INFINITE;
-			if (!waiting.isEmpty())
-				return 0L;
-			//return the anticipated time that the next sleeping job will wake
-			InternalJob next = sleeping.peek();
-			if (next == null)
+			if (suspended || waiting.isEmpty())
 				return InternalJob.T_INFINITE;
-			return next.getStartTime() - System.currentTimeMillis();
+			return 0L;
 		}
 	}
 
+	/**
+	 * Removes the given family limits if they no longer limit anything, and
+	 * updates the array of family limits.
+	 * @GuardedBy("lock")
+	 */
+	private void updateFamilyLimits(FamilyLimit limit) {
+		if (limit.isEmpty())
+			familyLimits.remove(limit.family);
+		familyLimitArray = (FamilyLimit[]) familyLimits.values().toArray(new FamilyLimit[familyLimits.size()]);
+		//find the limits of the scheduled jobs again, and count the running jobs of each family
+		for (int i = 0; i < familyLimitArray.length; i++)
+			familyLimitArray[i].running = 0;
+		for (Iterator it = familyIndex.values().iterator(); it.hasNext();)
+			updateLimits((InternalJob) it.next());
+		updateLimits(undeclaredJobs);
+		for (int i = 0, max = running.size(); i < max; i++)
+			updateRunningCounts(running.get(i).limits, 1);
+	}
+
+	/**
+	 * Finds the limits of the jobs of the given family list again.
+	 * @GuardedBy("lock")
+	 */
+	private void updateLimits(InternalJob first) {
+		for (InternalJob job = first; job != null; job = job.familyNext)
+			job.limits = limitsOf(job);
+	}
+
+	/**
+	 * Adds the given amount to the number of running jobs of the given limits,
+	 * which may be null.
+	 * @GuardedBy("lock")
+	 */
+	private void updateRunningCounts(FamilyLimit[] limits, int amount) {
+		if (limits == null)
+			return;
+		for (int i = 0; i < limits.length; i++)
+			limits[i].running += amount;
+	}
+
 	/**
 	 * Implementation of {@link Job#yieldRule(IProgressMonitor)}
 	 */
@@ -1404,8 +2250,8 @@ public class JobManager implements IJobManager {
 		if (DEBUG_YIELDING) {
 			// extra assert: make sure no other conflicting jobs are running now
 			synchronized (lock) {
-				for (Iterator it = running.iterator(); it.hasNext();) {
-					InternalJob other = (InternalJob) it.next();
+				for (int i = 0, max = running.size(); i < max; i++) {
+					InternalJob other = running.get(i);
 					if (other == job)
 						continue;
 					Assert.isTrue(!other.isConflicting(job), other + " conflicts and ran simultaneously with " + job); //$NON-NLS-1$
@@ -1471,11 +2317,12 @@ public class JobManager implements IJobManager {
 	/**
 	 * Returns the next job to be run, or null if no jobs are waiting to run.
 	 * The worker must call endJob when the job is finished running.  
+	 * @param worker The worker that will run the job
 	 */
-	protected Job startJob() {
+	protected Job startJob(Worker worker) {
 		Job job = null;
 		while (true) {
-			job = nextJob();
+			job = nextJob(worker);
 			if (job == null)
 				return null;
 			//must perform this outside sync block because it is third party code
@@ -1493,7 +2340,7 @@ public class JobManager implements IJobManager {
 							internal.setProgressMonitor(createMonitor(job));
 							//change from ABOUT_TO_RUN to RUNNING
 							internal.internalSetState(Job.RUNNING);
-							internal.jobStateLock.notifyAll();
+							internal.notifyStateChanged();
 							break;
 						}
 						internal.setAboutToRunCanceled(false);
@@ -1538,6 +2385,44 @@ public class JobManager implements IJobManager {
 		implicitJobs.transfer(rule, destinationThread);
 	}
 
+	/**
+	 * Adds the time the given job has spent in its old state to its wait, blocked
+	 * or run time, and remembers when it enters its new state. The times of a job
+	 * start over when it leaves the NONE state, or when they were measured before
+	 * metrics were last enabled.
+	 * @GuardedBy("lock")
+	 */
+	private void updateMetricsTimes(InternalJob job, int oldState) {
+		long now = System.currentTimeMillis();
+		JobMetrics.Times times = job.getMetricsTimes();
+		if (times == null) {
+			times = new JobMetrics.Times();
+			job.setMetricsTimes(times);
+		}
+		if (oldState == Job.NONE || times.stateTime < metricsEnabledTime) {
+			//only jobs measured since they were scheduled are recorded
+			times.complete = oldState == Job.NONE;
+			times.waitTime = times.blockedTime = times.runTime = 0;
+		} else {
+			long elapsed = now - times.stateTime;
+			switch (oldState) {
+				case Job.WAITING :
+				case InternalJob.RATE_LIMITED :
+					times.waitTime += elapsed;
+					break;
+				case InternalJob.BLOCKED :
+				case InternalJob.YIELDING :
+					times.blockedTime += elapsed;
+					break;
+				case Job.RUNNING :
+				case InternalJob.ABOUT_TO_RUN :
+					times.runTime += elapsed;
+					break;
+			}
+		}
+		times.stateTime = now;
+	}
+
 	/**
 	 * Validates that the given scheduling rule obeys the constraints of
 	 * scheduling rules as described in the <code>ISchedulingRule</code>
@@ -1557,6 +2442,34 @@ public class JobManager implements IJobManager {
 		Assert.isLegal(!rule.isConflicting(nullRule));
 	}
 
+	/**
+	 * Moves the sleeping jobs whose start time has been reached to the wait
+	 * queue, and notifies the pool. Returns the time in milliseconds until the 
+	 * next sleeping job should wake up, or InternalJob.T_INFINITE if no job 
+	 * needs to be woken by the timer.
+	 */
+	long wakeSleepingJobs() {
+		int woken = 0;
+		long delay;
+		synchronized (lock) {
+			//don't wake jobs while suspended, resume will wake the timer
+			if (suspended)
+				return InternalJob.T_INFINITE;
+			long now = System.currentTimeMillis();
+			InternalJob job;
+			while ((job = sleeping.peek()) != null && job.getStartTime() <= now) {
+				job.setStartTime(now + delayFor(job));
+				job.setWaitQueueStamp(waitQueueCounter.increment());
+				changeState(job, Job.WAITING);
+				woken++;
+			}
+			delay = job == null || job.getStartTime() == InternalJob.T_INFINITE ? InternalJob.T_INFINITE : job.getStartTime() - now;
+		}
+		//call the pool outside sync block to avoid deadlock
+		pool.jobsQueued(woken);
+		return delay;
+	}
+
 	/* (non-Javadoc)
 	 * @see Job#wakeUp(long)
 	 */
@@ -1586,6 +2499,32 @@ public class JobManager implements IJobManager {
 		}
 	}
 
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.jobs.IJobManager#wakeUpAll(org.eclipse.core.runtime.jobs.Job[])
+	 */
+	public void wakeUpAll(Job[] jobs) {
+		Assert.isNotNull(jobs, "Jobs are null"); //$NON-NLS-1$
+		Job[] awake = new Job[jobs.length];
+		int count = 0;
+		int queued = 0;
+		synchronized (lock) {
+			for (int i = 0; i < jobs.length; i++) {
+				InternalJob job = jobs[i];
+				Assert.isNotNull(job, "Job is null"); //$NON-NLS-1$
+				//cannot wake up if it is not sleeping
+				if (job.getState() != Job.SLEEPING)
+					continue;
+				doSchedule(job, 0L);
+				awake[count++] = jobs[i];
+				if (job.internalGetState() == Job.WAITING)
+					queued++;
+			}
+		}
+		//call the pool outside sync block to avoid deadlock
+		pool.jobsQueued(queued);
+		jobListeners.awake(awake, count);
+	}
+
 	void endMonitoring(ThreadJob threadJob) {
 		synchronized (monitorStack) {
 			for (int i = monitorStack.size() - 1; i >= 0; i--) {
@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM - Initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+import org.eclipse.core.runtime.Assert;
+import org.eclipse.core.runtime.jobs.IJobMetrics;
+
+/**
+ * The wait, blocked and run times recorded for a set of jobs.
+ */
+public class JobMetrics implements IJobMetrics {
+	/**
+	 * The times measured for a job that has not finished yet. The job manager
+	 * only creates them while metrics are enabled.
+	 */
+	static final class Times {
+		long blockedTime;
+		/**
+		 * True if the times were measured since the job was scheduled.
+		 */
+		boolean complete;
+		long runTime;
+		/**
+		 * The time when the job entered its current state.
+		 */
+		long stateTime;
+		long waitTime;
+	}
+
+	/**
+	 * The family of the recorded jobs, or null.
+	 */
+	private final Object family;
+	/**
+	 * @GuardedBy("this")
+	 */
+	private final Histogram[] histograms = new Histogram[] {new Histogram(), new Histogram(), new Histogram()};
+	private final String name;
+
+	JobMetrics(String name, Object family) {
+		this.name = name;
+		this.family = family;
+	}
+
+	Object getFamily() {
+		return family;
+	}
+
+	private Histogram histogram(int kind) {
+		Assert.isLegal(kind >= WAIT && kind <= RUN);
+		return histograms[kind];
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.jobs.IJobMetrics#getCount()
+	 */
+	public synchronized long getCount() {
+		return histograms[RUN].getCount();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.jobs.IJobMetrics#getHistogram(int)
+	 */
+	public synchronized long[] getHistogram(int kind) {
+		return histogram(kind).getCounts();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.jobs.IJobMetrics#getMaximumTime(int)
+	 */
+	public synchronized long getMaximumTime(int kind) {
+		return histogram(kind).getMax();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.jobs.IJobMetrics#getName()
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.jobs.IJobMetrics#getPercentile(int, double)
+	 */
+	public synchronized long getPercentile(int kind, double fraction) {
+		return histogram(kind).getPercentile(fraction);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.jobs.IJobMetrics#getTotalTime(int)
+	 */
+	public synchronized long getTotalTime(int kind) {
+		return histogram(kind).getTotal();
+	}
+
+	/**
+	 * Records the times of one job.
+	 */
+	synchronized void record(long waitTime, long blockedTime, long runTime) {
+		histograms[WAIT].record(waitTime);
+		histograms[BLOCKED].record(blockedTime);
+		histograms[RUN].record(runTime);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.jobs.IJobMetrics#reset()
+	 */
+	public synchronized void reset() {
+		for (int i = 0; i < histograms.length; i++)
+			histograms[i].clear();
+	}
+
+	/**
+	 * Appends the median, 99th percentile and maximum of one kind of time.
+	 */
+	private void toString(StringBuffer buffer, String label, Histogram histogram) {
+		buffer.append(", ").append(label).append(" p50/p99/max="); //$NON-NLS-1$ //$NON-NLS-2$
+		buffer.append(histogram.getPercentile(0.5)).append('/');
+		buffer.append(histogram.getPercentile(0.99)).append('/');
+		buffer.append(histogram.getMax()).append("ms"); //$NON-NLS-1$
+	}
+
+	/**
+	 * Returns a one line summary, suitable for logging.
+	 */
+	public synchronized String toString() {
+		StringBuffer buffer = new StringBuffer(name);
+		buffer.append(": count=").append(getCount()); //$NON-NLS-1$
+		toString(buffer, "wait", histograms[WAIT]); //$NON-NLS-1$
+		toString(buffer, "blocked", histograms[BLOCKED]); //$NON-NLS-1$
+		toString(buffer, "run", histograms[RUN]); //$NON-NLS-1$
+		return buffer.toString();
+	}
+}
@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM - Initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+import java.util.HashMap;
+import org.eclipse.core.runtime.jobs.IJobMetrics;
+
+/**
+ * Records the times of finished jobs in the metrics of all jobs, of the class
+ * of the job, and of every tracked family the job belongs to. A family is
+ * tracked from the first time its metrics are requested.
+ */
+class JobMetricsRecorder {
+	private static final JobMetrics[] EMPTY = new JobMetrics[0];
+
+	private final JobMetrics all = new JobMetrics("All jobs", null); //$NON-NLS-1$
+	/**
+	 * Map of job class name to JobMetrics.
+	 * @GuardedBy("byClass")
+	 */
+	private final HashMap byClass = new HashMap();
+	/**
+	 * The metrics of the tracked families. The array is replaced rather than
+	 * modified, so that it can be read without synchronization.
+	 * @GuardedBy("this") for writing
+	 */
+	private volatile JobMetrics[] families = EMPTY;
+
+	/**
+	 * Returns the metrics of the jobs of each class that has been recorded.
+	 */
+	IJobMetrics[] getJobClassMetrics() {
+		synchronized (byClass) {
+			return (IJobMetrics[]) byClass.values().toArray(new IJobMetrics[byClass.size()]);
+		}
+	}
+
+	/**
+	 * Returns the metrics of the jobs in the given family, or of all jobs if
+	 * the family is null. Starts tracking the family if it is not tracked yet.
+	 */
+	synchronized IJobMetrics getMetrics(Object family) {
+		if (family == null)
+			return all;
+		JobMetrics[] old = families;
+		for (int i = 0; i < old.length; i++)
+			if (old[i].getFamily() == family)
+				return old[i];
+		JobMetrics result = new JobMetrics(String.valueOf(family), family);
+		JobMetrics[] newFamilies = new JobMetrics[old.length + 1];
+		System.arraycopy(old, 0, newFamilies, 0, old.length);
+		newFamilies[old.length] = result;
+		families = newFamilies;
+		return result;
+	}
+
+	/**
+	 * Records the times of a job that has finished.
+	 */
+	void record(InternalJob job, long waitTime, long blockedTime, long runTime) {
+		all.record(waitTime, blockedTime, runTime);
+		String className = job.getClass().getName();
+		JobMetrics metrics;
+		synchronized (byClass) {
+			metrics = (JobMetrics) byClass.get(className);
+			if (metrics == null) {
+				metrics = new JobMetrics(className, null);
+				byClass.put(className, metrics);
+			}
+		}
+		metrics.record(waitTime, blockedTime, runTime);
+		JobMetrics[] tracked = families;
+		for (int i = 0; i < tracked.length; i++)
+			if (job.belongsTo(tracked[i].getFamily()))
+				tracked[i].record(waitTime, blockedTime, runTime);
+	}
+}
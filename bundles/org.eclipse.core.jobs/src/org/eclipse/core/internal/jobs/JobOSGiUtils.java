@@ -10,6 +10,9 @@
  *******************************************************************************/
 package org.eclipse.core.internal.jobs;
 
+import org.eclipse.core.internal.runtime.RuntimeLog;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.jobs.IJobManager;
 import org.eclipse.osgi.service.debug.DebugOptions;
 import org.osgi.framework.Bundle;
@@ -110,6 +113,46 @@ class JobOSGiUtils {
 		return null;
 	}
 
+	/**
+	 * Returns the value of the given configuration property, or <code>null</code>
+	 * if the property is not defined. The property is obtained from the framework
+	 * when the plugin has been started, and from the system properties otherwise.
+	 */
+	String getProperty(String key) {
+		BundleContext context = JobActivator.getContext();
+		if (context == null)
+			return System.getProperty(key);
+		return context.getProperty(key);
+	}
+
+	/**
+	 * Returns the boolean value of the given configuration property, or the
+	 * default value if the property is not defined.
+	 */
+	boolean getBooleanProperty(String key, boolean defaultValue) {
+		String value = getProperty(key);
+		if (value == null)
+			return defaultValue;
+		return "true".equalsIgnoreCase(value); //$NON-NLS-1$
+	}
+
+	/**
+	 * Returns the numeric value of the given configuration property, or the
+	 * default value if the property is not defined or is not a valid number.
+	 */
+	long getLongProperty(String key, long defaultValue) {
+		String value = getProperty(key);
+		if (value == null)
+			return defaultValue;
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			String msg = "Invalid value for property " + key + ": " + value; //$NON-NLS-1$ //$NON-NLS-2$
+			RuntimeLog.log(new Status(IStatus.WARNING, JobManager.PI_JOBS, JobManager.PLUGIN_ERROR, msg, e));
+			return defaultValue;
+		}
+	}
+
 	/**
 	 * Calculates whether the job plugin should set worker threads to be daemon 
 	 * threads.  When workers are daemon threads, the job plugin does not need
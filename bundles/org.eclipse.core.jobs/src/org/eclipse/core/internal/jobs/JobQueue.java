@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2003, 2010 IBM Corporation and others.
+ *  Copyright (c) 2003, 2011 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -15,8 +15,43 @@ import org.eclipse.core.runtime.*;
 
 /**
  * A linked list based priority queue. 
+ * 
+ * To find the position of a new entry without walking the list, the entries
+ * are also stored in a balanced binary tree (a treap) in list order. Each tree
+ * node records the minimum start time and wait queue stamp, and the number of
+ * jobs with a rule, in its subtree. When the new entry can overtake every entry
+ * of a subtree according to these summaries, the whole subtree is skipped.
+ * Entries are only asked about conflicts when they cannot be skipped, so the
+ * resulting position is the same as when walking the list from the tail.
  */
 public final class JobQueue {
+	/**
+	 * A node of the tree. Jobs keep their node while they are not in a queue,
+	 * so that it can be reused.
+	 */
+	static final class Node {
+		final InternalJob job;
+		Node left, right, parent;
+		/**
+		 * Nodes with greater weight are closer to the root. 
+		 */
+		final int weight;
+		/**
+		 * The queue whose tree contains this node, or null.
+		 */
+		JobQueue queue;
+		/**
+		 * Summaries of the jobs in the subtree rooted at this node.
+		 */
+		long minStartTime, minWaitQueueStamp;
+		int ruleCount;
+
+		Node(InternalJob job, int weight) {
+			this.job = job;
+			this.weight = weight;
+		}
+	}
+
 	/**
 	 * The dummy entry sits between the head and the tail of the queue.
 	 * dummy.previous() is the head, and dummy.next() is the tail.
@@ -32,6 +67,17 @@ public final class JobQueue {
 
 	private final boolean allowPriorityOvertaking;
 
+	/**
+	 * The root of the tree, whose in-order traversal goes from the head
+	 * of the queue to the tail.
+	 */
+	private Node root;
+
+	/**
+	 * State of the generator of node weights.
+	 */
+	private int seed = 0x2545F491;
+
 	/**
 	 * Create a new job queue. 
 	 */
@@ -59,6 +105,9 @@ public final class JobQueue {
 	 * remove all elements 
 	 */
 	public void clear() {
+		for (InternalJob job = dummy.previous(); job != dummy; job = job.previous())
+			job.getQueueNode().queue = null;
+		root = null;
 		dummy.setNext(dummy);
 		dummy.setPrevious(dummy);
 	}
@@ -70,7 +119,8 @@ public final class JobQueue {
 		InternalJob toRemove = dummy.previous();
 		if (toRemove == dummy)
 			return null;
-		return toRemove.remove();
+		remove(toRemove);
+		return toRemove;
 	}
 
 	/**
@@ -80,16 +130,180 @@ public final class JobQueue {
 		//assert new entry is does not already belong to some other data structure
 		Assert.isTrue(newEntry.next() == null);
 		Assert.isTrue(newEntry.previous() == null);
-		InternalJob tail = dummy.next();
+		Node node = newEntry.getQueueNode();
+		if (node == null) {
+			node = new Node(newEntry, nextWeight());
+			newEntry.setQueueNode(node);
+		}
+		Assert.isTrue(node.queue == null);
 		//overtake lower priority jobs. Only overtake conflicting jobs if allowed to
-		while (canOvertake(newEntry, tail))
-			tail = tail.next();
+		Node last = findLastNotOvertaken(root, newEntry);
+		InternalJob tail = last == null ? dummy : last.job;
 		//new entry is smaller than tail
 		final InternalJob tailPrevious = tail.previous();
 		newEntry.setNext(tail);
 		newEntry.setPrevious(tailPrevious);
 		tailPrevious.setNext(newEntry);
 		tail.setPrevious(newEntry);
+		insertAfter(last, node);
+	}
+
+	/**
+	 * Returns the node closest to the tail of the queue in the given subtree
+	 * whose job cannot be overtaken by the new entry, or null if the new
+	 * entry can overtake all jobs in the subtree.
+	 */
+	private Node findLastNotOvertaken(Node node, InternalJob newEntry) {
+		if (node == null || canOvertakeAll(newEntry, node))
+			return null;
+		Node found = findLastNotOvertaken(node.right, newEntry);
+		if (found != null)
+			return found;
+		if (!canOvertake(newEntry, node.job))
+			return node;
+		return findLastNotOvertaken(node.left, newEntry);
+	}
+
+	/**
+	 * Returns whether the summary of the given subtree proves that the new
+	 * entry can overtake all jobs in the subtree. This is equivalent to
+	 * canOvertake returning true for every job in the subtree, but may
+	 * return false even if it does.
+	 */
+	private boolean canOvertakeAll(InternalJob newEntry, Node subtree) {
+		long stamp = newEntry.getWaitQueueStamp();
+		if (stamp > 0 && stamp < subtree.minWaitQueueStamp)
+			return true;
+		if (allowPriorityOvertaking && newEntry.getStartTime() >= subtree.minStartTime)
+			return false;
+		return allowConflictOvertaking || subtree.ruleCount == 0 || newEntry.getRule() == null;
+	}
+
+	/**
+	 * Adds the node to the tree, right after the given node in list order,
+	 * or at the head of the queue if the given node is null.
+	 */
+	private void insertAfter(Node previous, Node node) {
+		node.queue = this;
+		node.left = node.right = null;
+		if (root == null) {
+			node.parent = null;
+			root = node;
+		} else if (previous == null) {
+			attachLeft(leftmost(root), node);
+		} else if (previous.right == null) {
+			node.parent = previous;
+			previous.right = node;
+		} else {
+			attachLeft(leftmost(previous.right), node);
+		}
+		for (Node ancestor = node; ancestor != null; ancestor = ancestor.parent)
+			update(ancestor);
+		//restore the heap order of weights
+		while (node.parent != null && node.parent.weight < node.weight)
+			rotateUp(node);
+	}
+
+	private static void attachLeft(Node parent, Node node) {
+		node.parent = parent;
+		parent.left = node;
+	}
+
+	private static Node leftmost(Node node) {
+		while (node.left != null)
+			node = node.left;
+		return node;
+	}
+
+	/**
+	 * Joins two subtrees, where all nodes of the first come before
+	 * all nodes of the second in list order.
+	 */
+	private static Node merge(Node first, Node second) {
+		if (first == null)
+			return second;
+		if (second == null)
+			return first;
+		if (first.weight > second.weight) {
+			first.right = merge(first.right, second);
+			first.right.parent = first;
+			update(first);
+			return first;
+		}
+		second.left = merge(first, second.left);
+		second.left.parent = second;
+		update(second);
+		return second;
+	}
+
+	private int nextWeight() {
+		seed ^= seed << 13;
+		seed ^= seed >>> 17;
+		seed ^= seed << 5;
+		return seed;
+	}
+
+	/**
+	 * Replaces the given child of the parent, or the root if there is no
+	 * parent, by a new child.
+	 */
+	private void replaceChild(Node parent, Node oldChild, Node newChild) {
+		if (newChild != null)
+			newChild.parent = parent;
+		if (parent == null)
+			root = newChild;
+		else if (parent.left == oldChild)
+			parent.left = newChild;
+		else
+			parent.right = newChild;
+	}
+
+	/**
+	 * Rotates the given node above its parent, keeping the list order.
+	 */
+	private void rotateUp(Node node) {
+		Node parent = node.parent;
+		replaceChild(parent.parent, parent, node);
+		if (parent.left == node) {
+			parent.left = node.right;
+			if (node.right != null)
+				node.right.parent = parent;
+			node.right = parent;
+		} else {
+			parent.right = node.left;
+			if (node.left != null)
+				node.left.parent = parent;
+			node.left = parent;
+		}
+		parent.parent = node;
+		update(parent);
+		update(node);
+	}
+
+	/**
+	 * Recomputes the summary of the subtree rooted at the given node
+	 * from the summaries of its children.
+	 */
+	private static void update(Node node) {
+		InternalJob job = node.job;
+		long minStartTime = job.getStartTime();
+		long minStamp = job.getWaitQueueStamp();
+		int ruleCount = job.getRule() == null ? 0 : 1;
+		Node left = node.left;
+		if (left != null) {
+			minStartTime = Math.min(minStartTime, left.minStartTime);
+			minStamp = Math.min(minStamp, left.minWaitQueueStamp);
+			ruleCount += left.ruleCount;
+		}
+		Node right = node.right;
+		if (right != null) {
+			minStartTime = Math.min(minStartTime, right.minStartTime);
+			minStamp = Math.min(minStamp, right.minWaitQueueStamp);
+			ruleCount += right.ruleCount;
+		}
+		node.minStartTime = minStartTime;
+		node.minWaitQueueStamp = minStamp;
+		node.ruleCount = ruleCount;
 	}
 
 	/**
@@ -116,7 +330,15 @@ public final class JobQueue {
 	 */
 	public void remove(InternalJob toRemove) {
 		toRemove.remove();
-		//previous of toRemove might now bubble up
+		Node node = toRemove.getQueueNode();
+		if (node == null || node.queue != this)
+			return;
+		node.queue = null;
+		Node parent = node.parent;
+		replaceChild(parent, node, merge(node.left, node.right));
+		for (; parent != null; parent = parent.parent)
+			update(parent);
+		node.left = node.right = node.parent = null;
 	}
 
 	/**
@@ -142,6 +364,15 @@ public final class JobQueue {
 		return dummy.previous() == dummy ? null : dummy.previous();
 	}
 
+	/**
+	 * Returns the element that is dequeued after the given element, or null
+	 * if the given element is the last one.
+	 */
+	public InternalJob peekAfter(InternalJob entry) {
+		InternalJob next = entry.previous();
+		return next == dummy ? null : next;
+	}
+
 	public Iterator iterator() {
 		return new Iterator() {
 			InternalJob pointer = dummy;
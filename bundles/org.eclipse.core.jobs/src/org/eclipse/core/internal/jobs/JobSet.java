@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM - Initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+import org.eclipse.core.runtime.jobs.Job;
+
+/**
+ * A small set of jobs stored in an array. Adding and removing jobs does not
+ * allocate once the array is large enough, and the members can be traversed
+ * by index without an iterator. Intended for the sets of running and yielding
+ * jobs, which are never larger than the number of threads.
+ *
+ * This class is not thread safe. The job manager only uses it while
+ * holding its lock.
+ */
+final class JobSet {
+	private InternalJob[] elements;
+	private int size = 0;
+
+	JobSet(int initialCapacity) {
+		elements = new InternalJob[initialCapacity];
+	}
+
+	/**
+	 * Adds a job to this set. Has no effect if the job is already a member.
+	 */
+	void add(InternalJob job) {
+		if (contains(job))
+			return;
+		if (size == elements.length) {
+			InternalJob[] newElements = new InternalJob[Math.max(4, size * 2)];
+			System.arraycopy(elements, 0, newElements, 0, size);
+			elements = newElements;
+		}
+		elements[size++] = job;
+	}
+
+	void clear() {
+		for (int i = 0; i < size; i++)
+			elements[i] = null;
+		size = 0;
+	}
+
+	boolean contains(InternalJob job) {
+		for (int i = 0; i < size; i++)
+			if (elements[i] == job)
+				return true;
+		return false;
+	}
+
+	/**
+	 * Returns the member at the given index. The index of a member changes
+	 * when another member is removed.
+	 */
+	InternalJob get(int index) {
+		return elements[index];
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Removes a job from this set. Returns whether the job was a member.
+	 */
+	boolean remove(InternalJob job) {
+		for (int i = 0; i < size; i++) {
+			if (elements[i] == job) {
+				//fill the gap with the last member, order does not matter
+				elements[i] = elements[--size];
+				elements[size] = null;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Returns a new array containing the members of this set.
+	 */
+	Job[] toArray() {
+		Job[] result = new Job[size];
+		System.arraycopy(elements, 0, result, 0, size);
+		return result;
+	}
+}
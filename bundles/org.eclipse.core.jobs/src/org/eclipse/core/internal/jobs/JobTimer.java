@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM - Initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+/**
+ * Moves sleeping jobs to the wait queue when their start time is reached,
+ * so that idle workers do not need to poll the sleep queue. The job manager
+ * wakes the timer when a job becomes the first job to wake up, and when it
+ * is resumed.
+ *
+ * The timer never acquires the job manager lock while holding its own
+ * monitor, so the job manager can wake the timer while holding its lock.
+ */
+class JobTimer extends Thread {
+	private final JobManager manager;
+	/**
+	 * @GuardedBy("this")
+	 */
+	private boolean canceled = false;
+	/**
+	 * True if the timer was woken since it last looked at the sleep queue.
+	 * @GuardedBy("this")
+	 */
+	private boolean woken = false;
+
+	JobTimer(JobManager manager) {
+		super("Worker-Timer"); //$NON-NLS-1$
+		this.manager = manager;
+	}
+
+	/**
+	 * Wakes jobs whose start time has been reached, then waits until the
+	 * next job is due or until the timer is woken.
+	 */
+	public void run() {
+		while (true) {
+			long delay = manager.wakeSleepingJobs();
+			synchronized (this) {
+				if (canceled)
+					return;
+				if (!woken) {
+					try {
+						if (delay == InternalJob.T_INFINITE)
+							wait();
+						else
+							wait(delay);
+					} catch (InterruptedException e) {
+						//loop
+					}
+				}
+				woken = false;
+			}
+		}
+	}
+
+	/**
+	 * Terminate this thread. Once terminated, it cannot be restarted.
+	 */
+	synchronized void cancel() {
+		canceled = true;
+		notify();
+	}
+
+	/**
+	 * Makes the timer look at the sleep queue again, because a job was
+	 * added to the front of the queue or the job manager was resumed.
+	 */
+	synchronized void wakeUp() {
+		woken = true;
+		notify();
+	}
+}
@@ -63,6 +63,11 @@ public class LockManager {
 		}
 	}
 
+	/**
+	 * Records the time spent waiting for rules and locks while contention
+	 * profiling is enabled.
+	 */
+	private final ContentionProfiler contentionProfiler = new ContentionProfiler();
 	//the lock listener for this lock manager
 	protected LockListener lockListener;
 	/* 
@@ -82,6 +87,13 @@ public class LockManager {
 		super();
 	}
 
+	/**
+	 * Returns the profiler of rule and lock contention.
+	 */
+	ContentionProfiler getContentionProfiler() {
+		return contentionProfiler;
+	}
+
 	/* (non-Javadoc)
 	 * Method declared on LockListener
 	 */
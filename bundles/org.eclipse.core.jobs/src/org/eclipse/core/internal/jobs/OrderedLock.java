@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2010 IBM Corporation and others.
+ * Copyright (c) 2003, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -32,6 +32,13 @@ import org.eclipse.core.runtime.jobs.ISchedulingRule;
  * lock in the same order in which acquire() requests arrive. In
  * this scheme, starvation is only possible if a thread retains
  * a lock indefinitely.
+ * 
+ * A thread that already owns the lock acquires and releases it again without
+ * synchronization and without updating the deadlock detection graph, which only
+ * records that the thread owns the lock. Only the owner changes the depth while
+ * the lock is owned, except while the owner is blocked: when the lock listener
+ * grants access to the thread the owner waits for, or when the lock is suspended
+ * to resolve a deadlock.
  */
 public class OrderedLock implements ILock, ISchedulingRule {
 
@@ -47,7 +54,8 @@ public class OrderedLock implements ILock, ISchedulingRule {
 	/**
 	 * Records the number of successive acquires in the same
 	 * thread. The lock is released only when the depth
-	 * reaches zero.
+	 * reaches zero. The deadlock detection graph only
+	 * records one acquire, regardless of the depth.
 	 */
 	private int depth;
 	/**
@@ -98,6 +106,11 @@ public class OrderedLock implements ILock, ISchedulingRule {
 	public boolean acquire(long delay) throws InterruptedException {
 		if (Thread.interrupted())
 			throw new InterruptedException();
+		//fast path for a thread that already owns the lock
+		if (currentOperationThread == Thread.currentThread()) {
+			depth++;
+			return true;
+		}
 
 		boolean success = false;
 		if (delay <= 0)
@@ -123,8 +136,12 @@ public class OrderedLock implements ILock, ISchedulingRule {
 	 */
 	private synchronized boolean attempt() {
 		//return true if we already own the lock
-		//also, if nobody is waiting, grant the lock immediately
-		if ((currentOperationThread == Thread.currentThread()) || (currentOperationThread == null && operations.isEmpty())) {
+		if (currentOperationThread == Thread.currentThread()) {
+			depth++;
+			return true;
+		}
+		//if nobody is waiting, grant the lock immediately
+		if (currentOperationThread == null && operations.isEmpty()) {
 			depth++;
 			setCurrentOperationThread(Thread.currentThread());
 			return true;
@@ -161,7 +178,6 @@ public class OrderedLock implements ILock, ISchedulingRule {
 			//do not log in graph because this thread did not really get the lock
 			removeFromQueue(semaphore);
 			depth++;
-			manager.addLockThread(currentOperationThread, this);
 			return true;
 		}
 		//Make sure the semaphore is in the queue before we start waiting
@@ -172,6 +188,8 @@ public class OrderedLock implements ILock, ISchedulingRule {
 			return true;
 		final Thread currentThread = Thread.currentThread();
 		manager.addLockWaitThread(currentThread, this);
+		ContentionProfiler profiler = manager.getContentionProfiler();
+		long start = profiler.isEnabled() ? System.currentTimeMillis() : -1;
 		try {
 			success = semaphore.acquire(delay);
 		} catch (InterruptedException e) {
@@ -180,6 +198,8 @@ public class OrderedLock implements ILock, ISchedulingRule {
 			//remember the interrupt to throw it later
 			currentThread.interrupt();
 		}
+		if (start >= 0)
+			profiler.getLockContention(this).record(System.currentTimeMillis() - start);
 		return updateOperationQueue(semaphore, success);
 	}
 
@@ -227,6 +247,15 @@ public class OrderedLock implements ILock, ISchedulingRule {
 		return depth;
 	}
 
+	/**
+	 * Returns the lock number. The deadlock detection graph hashes locks while
+	 * their monitor is held, and computing the identity hash code of a locked
+	 * object is expensive on some virtual machines.
+	 */
+	public int hashCode() {
+		return number;
+	}
+
 	/* (non-Javadoc)
 	 * @see org.eclipse.core.runtime.jobs.ISchedulingRule#isConflicting(org.eclipse.core.runtime.jobs.ISchedulingRule)
 	 */
@@ -244,8 +273,6 @@ public class OrderedLock implements ILock, ISchedulingRule {
 		Assert.isTrue(depth >= 0, "Lock released too many times"); //$NON-NLS-1$
 		if (--depth == 0)
 			doRelease();
-		else
-			manager.removeLockThread(currentOperationThread, this);
 	}
 
 	/**
@@ -274,9 +301,6 @@ public class OrderedLock implements ILock, ISchedulingRule {
 	 * Used when re-acquiring a suspended lock.
 	 */
 	protected void setDepth(int newDepth) {
-		for (int i = depth; i < newDepth; i++) {
-			manager.addLockThread(currentOperationThread, this);
-		}
 		this.depth = newDepth;
 	}
 
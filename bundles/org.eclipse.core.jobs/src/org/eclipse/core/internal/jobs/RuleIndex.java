@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM - Initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+import java.util.*;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.jobs.IPathSchedulingRule;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+
+/**
+ * A set of jobs that can efficiently find the member whose scheduling rule
+ * conflicts with the rule of another job. Jobs whose rule is an
+ * IPathSchedulingRule are stored in a tree keyed by the segments of the rule
+ * path, so only the jobs on the path from the root to the rule and the jobs
+ * below it need to be asked about conflicts. Jobs with any other kind of rule
+ * are always asked. Jobs without a rule are never added to the index.
+ *
+ * The device of a rule path is ignored, and a relative path is indexed like the
+ * absolute path with the same segments. This only causes more rules to be asked,
+ * and never less.
+ *
+ * This class is not thread safe. The job manager only uses it while
+ * holding its lock.
+ */
+public final class RuleIndex {
+	private static final class Node {
+		/**
+		 * The child nodes, keyed by segment, or null if there are none.
+		 */
+		HashMap children;
+		/**
+		 * The number of jobs stored in this node and all of its descendants.
+		 */
+		int count = 0;
+		/**
+		 * The jobs whose rule path ends at this node, or null if there are none.
+		 */
+		ArrayList jobs;
+		final Node parent;
+		final String segment;
+
+		Node(Node parent, String segment) {
+			this.parent = parent;
+			this.segment = segment;
+		}
+
+		Node getChild(String childSegment, boolean create) {
+			Node child = children == null ? null : (Node) children.get(childSegment);
+			if (child == null && create) {
+				if (children == null)
+					children = new HashMap(4);
+				child = new Node(this, childSegment);
+				children.put(childSegment, child);
+			}
+			return child;
+		}
+	}
+
+	/**
+	 * Jobs whose rule does not implement IPathSchedulingRule.
+	 */
+	private final HashSet others = new HashSet();
+	private final Node root = new Node(null, null);
+
+	/**
+	 * Adds a job to the index. Has no effect if the job has no rule.
+	 */
+	public void add(InternalJob job) {
+		ISchedulingRule rule = job.getRule();
+		if (rule == null)
+			return;
+		if (!(rule instanceof IPathSchedulingRule)) {
+			others.add(job);
+			return;
+		}
+		IPath path = ((IPathSchedulingRule) rule).getFullPath();
+		Node node = root;
+		node.count++;
+		for (int i = 0, segmentCount = path.segmentCount(); i < segmentCount; i++) {
+			node = node.getChild(path.segment(i), true);
+			node.count++;
+		}
+		if (node.jobs == null)
+			node.jobs = new ArrayList(2);
+		node.jobs.add(job);
+	}
+
+	/**
+	 * Removes all jobs from the index.
+	 */
+	public void clear() {
+		others.clear();
+		root.children = null;
+		root.jobs = null;
+		root.count = 0;
+	}
+
+	/**
+	 * Returns a job in this index whose rule conflicts with the rule of the given
+	 * job, or null if there is no such job.
+	 */
+	public InternalJob findConflicting(InternalJob job) {
+		ISchedulingRule rule = job.getRule();
+		if (rule == null)
+			return null;
+		InternalJob found = null;
+		if (rule instanceof IPathSchedulingRule) {
+			IPath path = ((IPathSchedulingRule) rule).getFullPath();
+			int segmentCount = path.segmentCount();
+			//ask the jobs whose rule path is a prefix of the path
+			Node node = root;
+			for (int i = 0; node != null; i++) {
+				found = findConflicting(job, node.jobs);
+				if (found != null)
+					return found;
+				if (i == segmentCount)
+					break;
+				node = node.getChild(path.segment(i), false);
+			}
+			//ask the jobs whose path has the rule path as a prefix
+			if (node != null) {
+				found = findConflictingInChildren(job, node);
+				if (found != null)
+					return found;
+			}
+		} else {
+			//the rule of the job is not indexed, so ask every job
+			found = findConflictingInSubtree(job, root);
+			if (found != null)
+				return found;
+		}
+		return findConflicting(job, others);
+	}
+
+	/**
+	 * Returns the first job in the given collection that conflicts with the
+	 * given job, or null if there is no such job. The collection may be null.
+	 */
+	private InternalJob findConflicting(InternalJob job, Collection jobs) {
+		if (jobs == null)
+			return null;
+		for (Iterator it = jobs.iterator(); it.hasNext();) {
+			InternalJob other = (InternalJob) it.next();
+			if (job.isConflicting(other))
+				return other;
+		}
+		return null;
+	}
+
+	private InternalJob findConflictingInChildren(InternalJob job, Node node) {
+		if (node.children == null)
+			return null;
+		for (Iterator it = node.children.values().iterator(); it.hasNext();) {
+			InternalJob found = findConflictingInSubtree(job, (Node) it.next());
+			if (found != null)
+				return found;
+		}
+		return null;
+	}
+
+	private InternalJob findConflictingInSubtree(InternalJob job, Node node) {
+		if (node.count == 0)
+			return null;
+		InternalJob found = findConflicting(job, node.jobs);
+		if (found != null)
+			return found;
+		return findConflictingInChildren(job, node);
+	}
+
+	/**
+	 * Returns whether this index contains no jobs.
+	 */
+	public boolean isEmpty() {
+		return root.count == 0 && others.isEmpty();
+	}
+
+	/**
+	 * Removes a job from the index. Has no effect if the job is not in the index.
+	 */
+	public void remove(InternalJob job) {
+		ISchedulingRule rule = job.getRule();
+		if (rule == null)
+			return;
+		if (!(rule instanceof IPathSchedulingRule)) {
+			others.remove(job);
+			return;
+		}
+		IPath path = ((IPathSchedulingRule) rule).getFullPath();
+		Node node = root;
+		for (int i = 0, segmentCount = path.segmentCount(); node != null && i < segmentCount; i++)
+			node = node.getChild(path.segment(i), false);
+		if (node == null || node.jobs == null || !node.jobs.remove(job))
+			return;
+		if (node.jobs.isEmpty())
+			node.jobs = null;
+		//update the counts and discard nodes that no longer hold any jobs
+		for (; node != null; node = node.parent) {
+			if (--node.count == 0 && node.parent != null)
+				node.parent.children.remove(node.segment);
+		}
+	}
+}
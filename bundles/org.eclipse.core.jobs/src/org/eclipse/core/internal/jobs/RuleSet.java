@@ -0,0 +1,198 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM - Initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.jobs.IPathSchedulingRule;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+
+/**
+ * An immutable set of scheduling rules that can efficiently find the members
+ * that conflict with or contain another rule. Members that are an
+ * IPathSchedulingRule are sorted by a key made of the segments of their path,
+ * so that the members whose path is a prefix of the path of another rule, and
+ * the members whose path has the path of another rule as a prefix, can be found
+ * by binary search. Members with any other kind of rule are always asked.
+ *
+ * Like RuleIndex, the device of a rule path is ignored, and a relative path is
+ * indexed like the absolute path with the same segments. This only causes more
+ * rules to be asked, and never less.
+ */
+public final class RuleSet {
+	/**
+	 * A member that is an IPathSchedulingRule, with its key and its position
+	 * in the array the set was created with.
+	 */
+	private static final class Entry {
+		final String key;
+		final int position;
+		final ISchedulingRule rule;
+
+		Entry(ISchedulingRule rule, String key, int position) {
+			this.rule = rule;
+			this.key = key;
+			this.position = position;
+		}
+	}
+
+	private static final Comparator KEY_ORDER = new Comparator() {
+		public int compare(Object o1, Object o2) {
+			return ((Entry) o1).key.compareTo(((Entry) o2).key);
+		}
+	};
+
+	/**
+	 * The members with a path, sorted by key.
+	 */
+	private final Entry[] entries;
+	/**
+	 * The members without a path.
+	 */
+	private final ISchedulingRule[] others;
+	/**
+	 * The positions of the members without a path.
+	 */
+	private final int[] otherPositions;
+
+	/**
+	 * Returns the key of a path: each segment followed by a separator, so
+	 * that the key of a path is a prefix of the keys of all paths below it.
+	 */
+	private static String keyOf(IPath path) {
+		StringBuffer key = new StringBuffer();
+		for (int i = 0, segmentCount = path.segmentCount(); i < segmentCount; i++)
+			key.append(path.segment(i)).append('/');
+		return key.toString();
+	}
+
+	/**
+	 * Creates a set of the given rules, which must not contain duplicates.
+	 */
+	public RuleSet(ISchedulingRule[] rules) {
+		int pathCount = 0;
+		for (int i = 0; i < rules.length; i++)
+			if (rules[i] instanceof IPathSchedulingRule)
+				pathCount++;
+		entries = new Entry[pathCount];
+		others = new ISchedulingRule[rules.length - pathCount];
+		otherPositions = new int[others.length];
+		for (int i = 0, entry = 0, other = 0; i < rules.length; i++) {
+			if (rules[i] instanceof IPathSchedulingRule) {
+				entries[entry++] = new Entry(rules[i], keyOf(((IPathSchedulingRule) rules[i]).getFullPath()), i);
+			} else {
+				others[other] = rules[i];
+				otherPositions[other++] = i;
+			}
+		}
+		Arrays.sort(entries, KEY_ORDER);
+	}
+
+	/**
+	 * Returns whether a member of this set contains the given rule.
+	 */
+	public boolean contains(ISchedulingRule rule) {
+		return isContained(rule, -1);
+	}
+
+	/**
+	 * Returns whether the member at the given position in the array this set
+	 * was created with is contained by another member. Of two members that
+	 * contain each other, only the one at the later position is contained.
+	 */
+	public boolean isRedundant(ISchedulingRule member, int position) {
+		return isContained(member, position);
+	}
+
+	/**
+	 * Returns whether the given member contains the given rule. If the rule is
+	 * a member of this set, the member must not be the rule itself, and must
+	 * come first if the rule contains it as well.
+	 */
+	private static boolean contains(ISchedulingRule member, int memberPosition, ISchedulingRule rule, int position) {
+		if (position < 0)
+			return member.contains(rule);
+		if (memberPosition == position || !member.contains(rule))
+			return false;
+		return memberPosition < position || !rule.contains(member);
+	}
+
+	/**
+	 * Returns whether a member of this set contains the given rule. If the
+	 * position is not negative, the rule is the member at that position.
+	 */
+	private boolean isContained(ISchedulingRule rule, int position) {
+		for (int i = 0; i < others.length; i++)
+			if (contains(others[i], otherPositions[i], rule, position))
+				return true;
+		if (!(rule instanceof IPathSchedulingRule)) {
+			for (int i = 0; i < entries.length; i++)
+				if (contains(entries[i].rule, entries[i].position, rule, position))
+					return true;
+			return false;
+		}
+		//only members whose path is a prefix of the rule path can contain the rule
+		String key = keyOf(((IPathSchedulingRule) rule).getFullPath());
+		for (int end = 0;; end = key.indexOf('/', end) + 1) {
+			String prefix = key.substring(0, end);
+			for (int i = lowerBound(prefix); i < entries.length && entries[i].key.equals(prefix); i++)
+				if (contains(entries[i].rule, entries[i].position, rule, position))
+					return true;
+			if (end == key.length())
+				return false;
+		}
+	}
+
+	/**
+	 * Returns whether a member of this set conflicts with the given rule.
+	 */
+	public boolean isConflicting(ISchedulingRule rule) {
+		for (int i = 0; i < others.length; i++)
+			if (others[i].isConflicting(rule))
+				return true;
+		if (!(rule instanceof IPathSchedulingRule)) {
+			for (int i = 0; i < entries.length; i++)
+				if (entries[i].rule.isConflicting(rule))
+					return true;
+			return false;
+		}
+		String key = keyOf(((IPathSchedulingRule) rule).getFullPath());
+		//ask the members whose path is a proper prefix of the rule path
+		for (int end = 0; end < key.length(); end = key.indexOf('/', end) + 1) {
+			String prefix = key.substring(0, end);
+			for (int i = lowerBound(prefix); i < entries.length && entries[i].key.equals(prefix); i++)
+				if (entries[i].rule.isConflicting(rule))
+					return true;
+		}
+		//ask the members whose path has the rule path as a prefix
+		for (int i = lowerBound(key); i < entries.length && entries[i].key.startsWith(key); i++)
+			if (entries[i].rule.isConflicting(rule))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Returns the index of the first entry whose key is not less than the given key.
+	 */
+	private int lowerBound(String key) {
+		int low = 0;
+		int high = entries.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (entries[middle].key.compareTo(key) < 0)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+}
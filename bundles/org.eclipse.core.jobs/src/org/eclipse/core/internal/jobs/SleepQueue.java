@@ -0,0 +1,185 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM - Initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import org.eclipse.core.runtime.Assert;
+
+/**
+ * A binary heap of sleeping jobs, ordered by start time. Jobs with the same
+ * start time are ordered by the time they were added to the queue. Each job
+ * records its position in the heap, so that adding and removing any job take
+ * logarithmic time.
+ */
+public final class SleepQueue {
+	private static final InternalJob[] EMPTY = new InternalJob[0];
+
+	/**
+	 * The heap. The children of the job at index i are at 2i+1 and 2i+2.
+	 */
+	private InternalJob[] heap = EMPTY;
+
+	/**
+	 * Counter to record insertion order.
+	 */
+	private long nextStamp = 0;
+
+	/**
+	 * The number of jobs in the heap.
+	 */
+	private int size = 0;
+
+	/**
+	 * Returns whether the first job should be woken before the second job.
+	 */
+	private static boolean isBefore(InternalJob first, InternalJob second) {
+		long firstTime = first.getStartTime();
+		long secondTime = second.getStartTime();
+		if (firstTime != secondTime)
+			return firstTime < secondTime;
+		return first.getSleepStamp() < second.getSleepStamp();
+	}
+
+	/**
+	 * Removes all elements.
+	 */
+	public void clear() {
+		for (int i = 0; i < size; i++)
+			heap[i].setSleepIndex(-1);
+		heap = EMPTY;
+		size = 0;
+	}
+
+	/**
+	 * Returns and removes the job with the earliest start time, or null if empty.
+	 */
+	public InternalJob dequeue() {
+		InternalJob first = peek();
+		if (first != null)
+			remove(first);
+		return first;
+	}
+
+	/**
+	 * Adds a job to the queue.
+	 */
+	public void enqueue(InternalJob job) {
+		//assert new entry does not already belong to the queue
+		Assert.isTrue(job.getSleepIndex() < 0);
+		if (size == heap.length) {
+			InternalJob[] newHeap = new InternalJob[Math.max(16, size * 2)];
+			System.arraycopy(heap, 0, newHeap, 0, size);
+			heap = newHeap;
+		}
+		job.setSleepStamp(nextStamp++);
+		siftUp(job, size++);
+	}
+
+	/**
+	 * Returns true if the queue is empty, and false otherwise.
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Returns an iterator over the jobs in the queue, in no particular order.
+	 */
+	public Iterator iterator() {
+		return new Iterator() {
+			int index = 0;
+
+			public boolean hasNext() {
+				return index < size;
+			}
+
+			public Object next() {
+				if (index >= size)
+					throw new NoSuchElementException();
+				return heap[index++];
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Returns the job with the earliest start time without removing it, or
+	 * null if empty.
+	 */
+	public InternalJob peek() {
+		return size == 0 ? null : heap[0];
+	}
+
+	/**
+	 * Removes the given job from the queue. Throws a runtime exception if the
+	 * job does not belong to the queue.
+	 */
+	public void remove(InternalJob job) {
+		int index = job.getSleepIndex();
+		Assert.isTrue(index >= 0 && index < size && heap[index] == job);
+		job.setSleepIndex(-1);
+		InternalJob last = heap[--size];
+		heap[size] = null;
+		if (last == job)
+			return;
+		//move the last job into the hole and restore the heap order
+		if (index > 0 && isBefore(last, heap[(index - 1) / 2]))
+			siftUp(last, index);
+		else
+			siftDown(last, index);
+	}
+
+	/**
+	 * Returns the number of jobs in the queue.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Moves the given job down from the given index until it is in heap order.
+	 */
+	private void siftDown(InternalJob job, int index) {
+		int half = size / 2;
+		while (index < half) {
+			int child = 2 * index + 1;
+			if (child + 1 < size && isBefore(heap[child + 1], heap[child]))
+				child++;
+			if (!isBefore(heap[child], job))
+				break;
+			heap[index] = heap[child];
+			heap[index].setSleepIndex(index);
+			index = child;
+		}
+		heap[index] = job;
+		job.setSleepIndex(index);
+	}
+
+	/**
+	 * Moves the given job up from the given index until it is in heap order.
+	 */
+	private void siftUp(InternalJob job, int index) {
+		while (index > 0) {
+			int parent = (index - 1) / 2;
+			if (!isBefore(job, heap[parent]))
+				break;
+			heap[index] = heap[parent];
+			heap[index].setSleepIndex(index);
+			index = parent;
+		}
+		heap[index] = job;
+		job.setSleepIndex(index);
+	}
+}
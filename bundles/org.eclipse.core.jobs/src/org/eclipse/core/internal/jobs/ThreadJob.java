@@ -18,6 +18,11 @@ import org.eclipse.core.runtime.jobs.*;
  * Captures the implicit job state for a given thread. 
  */
 class ThreadJob extends Job {
+	/**
+	 * The time in milliseconds between checks of the progress monitor of a
+	 * thread that must not block while waiting for a rule.
+	 */
+	private static final long MONITOR_POLL_INTERVAL = 250;
 
 	/**
 	 * Set to true if this thread job is running in a thread that did
@@ -71,6 +76,13 @@ class ThreadJob extends Job {
 	 */
 	boolean isWaiting;
 
+	/**
+	 * The number of state changes of the job that blocked this thread job
+	 * when it last tried to run. Only accessed by the thread that owns this
+	 * thread job.
+	 */
+	int blockerStateChanges;
+
 	ThreadJob(ISchedulingRule rule) {
 		super("Implicit Job"); //$NON-NLS-1$
 		setSystem(true);
@@ -206,6 +218,14 @@ class ThreadJob extends Job {
 		ThreadJob result = threadJob;
 		boolean interrupted = false;
 		boolean waiting = false;
+		//the first job found blocking this thread, and when it was found, while contention profiling is enabled
+		ContentionProfiler profiler = manager.getLockManager().getContentionProfiler();
+		InternalJob firstBlockingJob = null;
+		long start = 0;
+		if (profiler.isEnabled()) {
+			firstBlockingJob = blockingJob;
+			start = System.currentTimeMillis();
+		}
 		try {
 			waitStart(threadJob, monitor, blockingJob);
 			manager.implicitJobs.addWaiting(threadJob);
@@ -242,6 +262,8 @@ class ThreadJob extends Job {
 					waiting = false;
 					return threadJob;
 				}
+				if (start != 0 && firstBlockingJob == null)
+					firstBlockingJob = blockingJob;
 				blocker = blockingJob == null ? null : blockingJob.getThread();
 				// the rule could have been transferred to this thread while we were waiting
 				if (blocker == currentThread && blockingJob instanceof ThreadJob) {
@@ -261,15 +283,18 @@ class ThreadJob extends Job {
 				manager.getLockManager().addLockWaitThread(currentThread, threadJob.getRule());
 				synchronized (blockingJob.jobStateLock) {
 					try {
-						// Wait until we are no longer definitely blocked (not running). 
-						// The actual exit conditions are listed above at the beginning of
-						// this while loop
-						int state = blockingJob.getState();
-						//ensure we don't wait forever if the blocker is waiting, because it might have yielded to me
-						if (state == Job.RUNNING && canBlock)
-							blockingJob.jobStateLock.wait();
-						else if (state != Job.NONE)
-							blockingJob.jobStateLock.wait(250);
+						// Wait until the blocker changes state or releases its rule. 
+						// Every such change notifies the job state lock, so if nothing
+						// has changed since runNow found the blocker, the notification
+						// cannot have been missed. The actual exit conditions are
+						// listed above at the beginning of this while loop
+						if (blockingJob.getStateChanges() == threadJob.blockerStateChanges) {
+							if (canBlock)
+								blockingJob.jobStateLock.wait();
+							else
+								//poll the monitor for cancelation
+								blockingJob.jobStateLock.wait(MONITOR_POLL_INTERVAL);
+						}
 					} catch (InterruptedException e) {
 						// This thread may be interrupted via two common scenarios. 1) If
 						// the UISynchronizer is in use and this thread is a UI thread
@@ -297,6 +322,8 @@ class ThreadJob extends Job {
 			if (canBlock)
 				// must unregister monitoring this job
 				manager.endMonitoring(threadJob);
+			if (firstBlockingJob != null)
+				profiler.getRuleContention(threadJob, firstBlockingJob).record(System.currentTimeMillis() - start);
 		}
 	}
 
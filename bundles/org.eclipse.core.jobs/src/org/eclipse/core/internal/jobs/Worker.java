@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2003, 2010 IBM Corporation and others.
+ *  Copyright (c) 2003, 2011 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -19,13 +19,66 @@ import org.eclipse.osgi.util.NLS;
  * the worker pool gives it a null job, the worker dies.
  */
 public class Worker extends Thread {
+	/**
+	 * The maximum number of jobs remembered by a worker as scheduled by itself.
+	 * When more jobs are scheduled, the oldest ones are forgotten.
+	 */
+	private static final int MAX_LOCAL_JOBS = 256;
 	//worker number used for debugging purposes only
 	private static int nextWorkerNumber = 0;
 	private volatile InternalJob currentJob;
+	/**
+	 * The job that this worker last took from the job manager, or null if it
+	 * has not taken any. Unlike the current job, it is set before the listeners
+	 * are told that the job is about to run.
+	 * @GuardedBy("JobManager.lock")
+	 */
+	InternalJob lastJob;
+	/**
+	 * Circular stack of jobs scheduled by this worker that it prefers to run
+	 * next, or null if this worker has never scheduled such a job. Entries are
+	 * not removed when another worker runs the job, so they must be checked
+	 * before use.
+	 * @GuardedBy("JobManager.lock")
+	 */
+	private InternalJob[] localJobs;
+	/**
+	 * @GuardedBy("JobManager.lock")
+	 */
+	private int localJobCount = 0;
+	/**
+	 * The index after the most recent entry in localJobs.
+	 * @GuardedBy("JobManager.lock")
+	 */
+	private int localJobTop = 0;
 	private final WorkerPool pool;
+	/**
+	 * Set by the job manager when it leaves a waiting job for this worker,
+	 * until the pool has woken this worker.
+	 */
+	volatile boolean affinityWakeup = false;
+	/**
+	 * Whether this worker is sleeping in the pool.
+	 * @GuardedBy("pool")
+	 */
+	boolean sleeping = false;
+	/**
+	 * Whether this worker has been woken individually, and must not sleep
+	 * until it has looked for a job.
+	 * @GuardedBy("pool")
+	 */
+	boolean wakeRequested = false;
 
 	public Worker(WorkerPool pool) {
-		super("Worker-" + nextWorkerNumber++); //$NON-NLS-1$
+		this(pool, 0);
+	}
+
+	/**
+	 * Creates a worker with the given stack size. A stack size of zero uses
+	 * the default stack size of the virtual machine.
+	 */
+	Worker(WorkerPool pool, long stackSize) {
+		super(null, null, "Worker-" + nextWorkerNumber++, stackSize); //$NON-NLS-1$
 		this.pool = pool;
 		//set the context loader to avoid leaking the current context loader
 		//for the thread that spawns this worker (bug 98376)
@@ -39,6 +92,42 @@ public class Worker extends Thread {
 		return (Job) currentJob;
 	}
 
+	/**
+	 * Returns the most recent job that this worker has scheduled for itself,
+	 * or null if there is none.
+	 * @GuardedBy("JobManager.lock")
+	 */
+	InternalJob peekLocalJob() {
+		if (localJobCount == 0)
+			return null;
+		return localJobs[(localJobTop + MAX_LOCAL_JOBS - 1) % MAX_LOCAL_JOBS];
+	}
+
+	/**
+	 * Forgets the most recent job that this worker has scheduled for itself.
+	 * @GuardedBy("JobManager.lock")
+	 */
+	void popLocalJob() {
+		if (localJobCount == 0)
+			return;
+		localJobTop = (localJobTop + MAX_LOCAL_JOBS - 1) % MAX_LOCAL_JOBS;
+		localJobs[localJobTop] = null;
+		localJobCount--;
+	}
+
+	/**
+	 * Remembers a job that this worker has scheduled and prefers to run next.
+	 * @GuardedBy("JobManager.lock")
+	 */
+	void pushLocalJob(InternalJob job) {
+		if (localJobs == null)
+			localJobs = new InternalJob[MAX_LOCAL_JOBS];
+		localJobs[localJobTop] = job;
+		localJobTop = (localJobTop + 1) % MAX_LOCAL_JOBS;
+		if (localJobCount < MAX_LOCAL_JOBS)
+			localJobCount++;
+	}
+
 	private IStatus handleException(InternalJob job, Throwable t) {
 		String message = NLS.bind(JobMessages.jobs_internalError, job.getName());
 		return new Status(IStatus.ERROR, JobManager.PI_JOBS, JobManager.PLUGIN_ERROR, message, t);
@@ -33,6 +33,10 @@ class WorkerPool {
 	 * There will always be at least MIN_THREADS workers in the pool.
 	 */
 	private static final int MIN_THREADS = 1;
+	/**
+	 * The time in milliseconds after which an idle thread is destroyed.
+	 */
+	private long bestBefore = BEST_BEFORE;
 	/**
 	 * Use the busy thread count to avoid starting new threads when a living
 	 * thread is just doing house cleaning (notifying listeners, etc).
@@ -49,6 +53,18 @@ class WorkerPool {
 	 */
 	private boolean isDaemon = false;
 
+	/**
+	 * The maximum number of workers in the pool. When this many workers are
+	 * busy, new jobs stay in the wait queue until a worker is done.
+	 */
+	private int maxThreads = Integer.MAX_VALUE;
+
+	/**
+	 * The number of idle workers that are kept alive when they have not been
+	 * used by their best before timestamp.
+	 */
+	private int minThreads = MIN_THREADS;
+
 	private JobManager manager;
 	/**
 	 * The number of workers in the threads array
@@ -58,6 +74,29 @@ class WorkerPool {
 	 * The number of threads that are currently sleeping 
 	 */
 	private int sleepingThreads = 0;
+	/**
+	 * The number of sleeping workers that have been notified to look for any
+	 * job and have not returned from sleep yet. A sleeping worker that is
+	 * notified while there are none keeps sleeping, unless it was woken
+	 * individually.
+	 */
+	private int pendingWakeups = 0;
+	/**
+	 * Set by the job manager when it leaves a waiting job for an idle worker,
+	 * which must then be woken individually.
+	 */
+	volatile boolean affinityWakeups = false;
+	/**
+	 * Records that a job was queued while all workers were busy and no worker
+	 * could be added, so the next worker that is about to sleep must look for
+	 * that job first.
+	 */
+	private boolean wakeUpPending = false;
+	/**
+	 * The requested stack size of new worker threads, or zero to use the 
+	 * default stack size of the virtual machine.
+	 */
+	private long stackSize = 0;
 	/**
 	 * The living set of workers in this pool.
 	 */
@@ -115,8 +154,11 @@ class WorkerPool {
 	 * OutOfMemoryError conditions and thus must be paranoid about allocating objects.
 	 */
 	protected synchronized void endWorker(Worker worker) {
-		if (remove(worker) && JobManager.DEBUG)
+		if (!remove(worker))
+			return;
+		if (JobManager.DEBUG)
 			JobManager.debug("worker removed from pool: " + worker); //$NON-NLS-1$
+		manager.removeAffinityWorker(worker);
 	}
 
 	private synchronized void incrementBusyThreads() {
@@ -132,21 +174,46 @@ class WorkerPool {
 	 * Notification that a job has been added to the queue. Wake a worker,
 	 * creating a new worker if necessary. The provided job may be null.
 	 */
-	protected synchronized void jobQueued() {
-		//if there is a sleeping thread, wake it up
-		if (sleepingThreads > 0) {
+	protected void jobQueued() {
+		jobsQueued(1);
+	}
+
+	/**
+	 * Notification that the given number of jobs have been added to the queue.
+	 * Wake a sleeping worker for each job, and create a new worker if there are
+	 * more jobs than idle workers. A worker that starts a job wakes or creates
+	 * another worker while jobs are still waiting, so the pool grows as long as
+	 * the jobs keep the workers busy.
+	 */
+	protected synchronized void jobsQueued(int count) {
+		if (count <= 0)
+			return;
+		//wake the idle workers that jobs were left for. Other workers are still
+		//woken, so that they run the jobs that are still waiting when the time
+		//the jobs are left for the idle workers is over
+		if (affinityWakeups)
+			wakeAffinityWorkers();
+		//if there are sleeping threads, wake them up
+		int wake = Math.min(count, sleepingThreads - pendingWakeups);
+		for (int i = 0; i < wake; i++)
 			notify();
+		if (wake > 0) {
+			pendingWakeups += wake;
 			return;
 		}
 		//create a thread if all threads are busy
 		if (busyThreads >= numThreads) {
-			Worker worker = new Worker(this);
+			//if the pool is full, the job waits until a worker is done
+			if (numThreads >= maxThreads) {
+				wakeUpPending = true;
+				return;
+			}
+			Worker worker = new Worker(this, stackSize);
 			worker.setDaemon(isDaemon);
 			add(worker);
 			if (JobManager.DEBUG)
 				JobManager.debug("worker added to pool: " + worker); //$NON-NLS-1$
 			worker.start();
-			return;
 		}
 	}
 
@@ -172,6 +239,28 @@ class WorkerPool {
 		this.isDaemon = value;
 	}
 
+	/**
+	 * Sets the limits of the pool. A maximum of zero or less means that the
+	 * number of workers is not limited.
+	 * @param max the maximum number of workers
+	 * @param min the number of idle workers to keep alive
+	 * @param keepAlive the time in milliseconds after which idle workers
+	 * above the minimum are destroyed
+	 */
+	synchronized void setLimits(int max, int min, long keepAlive) {
+		this.maxThreads = max <= 0 ? Integer.MAX_VALUE : max;
+		this.minThreads = Math.max(0, Math.min(min, maxThreads));
+		this.bestBefore = keepAlive <= 0 ? BEST_BEFORE : keepAlive;
+	}
+
+	/**
+	 * Sets the stack size of threads created in the worker pool. A value
+	 * of zero uses the default stack size of the virtual machine.
+	 */
+	void setStackSize(long value) {
+		this.stackSize = Math.max(0, value);
+	}
+
 	protected synchronized void shutdown() {
 		notifyAll();
 	}
@@ -179,20 +268,66 @@ class WorkerPool {
 	/**
 	 * Sleep for the given duration or until woken. 
 	 */
-	private synchronized void sleep(long duration) {
+	private synchronized void sleep(Worker worker, long duration) {
+		//don't sleep if a job was queued that no worker was woken for
+		if (wakeUpPending) {
+			wakeUpPending = false;
+			return;
+		}
+		//don't sleep if a job was left for this worker
+		if (worker.wakeRequested) {
+			worker.wakeRequested = false;
+			return;
+		}
 		sleepingThreads++;
 		busyThreads--;
+		worker.sleeping = true;
 		if (JobManager.DEBUG)
 			JobManager.debug("worker sleeping for: " + duration + "ms"); //$NON-NLS-1$ //$NON-NLS-2$
 		try {
-			wait(duration);
+			long wakeTime = System.currentTimeMillis() + duration;
+			while (true) {
+				wait(duration);
+				if (worker.wakeRequested || !manager.isActive())
+					break;
+				if (pendingWakeups > 0) {
+					pendingWakeups--;
+					break;
+				}
+				//keep sleeping if another worker was woken individually
+				duration = wakeTime - System.currentTimeMillis();
+				if (duration <= 0)
+					break;
+			}
 		} catch (InterruptedException e) {
 			if (JobManager.DEBUG)
 				JobManager.debug("worker interrupted while waiting... :-|"); //$NON-NLS-1$
 		} finally {
+			worker.sleeping = false;
+			worker.wakeRequested = false;
 			sleepingThreads--;
 			busyThreads++;
+			pendingWakeups = Math.min(pendingWakeups, sleepingThreads);
+		}
+	}
+
+	/**
+	 * Wakes the workers that the job manager has left jobs for.
+	 */
+	private void wakeAffinityWorkers() {
+		affinityWakeups = false;
+		boolean notify = false;
+		for (int i = 0; i < numThreads; i++) {
+			Worker worker = threads[i];
+			if (!worker.affinityWakeup)
+				continue;
+			worker.affinityWakeup = false;
+			//a worker that is not sleeping yet must look for a job before it sleeps
+			worker.wakeRequested = true;
+			notify |= worker.sleeping;
 		}
+		if (notify)
+			notifyAll();
 	}
 
 	/**
@@ -211,18 +346,18 @@ class WorkerPool {
 		}
 		Job job = null;
 		try {
-			job = manager.startJob();
+			job = manager.startJob(worker);
 			//spin until a job is found or until we have been idle for too long
 			long idleStart = System.currentTimeMillis();
 			while (manager.isActive() && job == null) {
 				long hint = manager.sleepHint();
 				if (hint > 0)
-					sleep(Math.min(hint, BEST_BEFORE));
-				job = manager.startJob();
+					sleep(worker, Math.min(hint, bestBefore));
+				job = manager.startJob(worker);
 				//if we were already idle, and there are still no new jobs, then
 				// the thread can expire
 				synchronized (this) {
-					if (job == null && (System.currentTimeMillis() - idleStart > BEST_BEFORE) && (numThreads - busyThreads) > MIN_THREADS) {
+					if (job == null && (System.currentTimeMillis() - idleStart > bestBefore) && (numThreads - busyThreads) > minThreads) {
 						//must remove the worker immediately to prevent all threads from expiring
 						endWorker(worker);
 						return null;
@@ -230,7 +365,7 @@ class WorkerPool {
 				}
 				//if we didn't sleep but there was no job available, make sure we sleep to avoid a tight loop (bug 260724)
 				if (hint <= 0 && job == null)
-					sleep(50);
+					sleep(worker, 50);
 			}
 			if (job != null) {
 				//if this job has a rule, then we are essentially acquiring a lock
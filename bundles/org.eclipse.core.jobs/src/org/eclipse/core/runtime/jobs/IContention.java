@@ -0,0 +1,64 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM - Initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.runtime.jobs;
+
+/**
+ * The time that jobs and threads spent waiting for a scheduling rule or a lock,
+ * recorded by the job manager while contention profiling is enabled. The
+ * waits are aggregated in one of two ways:
+ * <ul>
+ * <li>For scheduling rules, by the class of the waiting job, the class of the
+ * job that held the conflicting rule, and the class of that rule. A thread
+ * that begins a rule outside of a job is represented by the class of the
+ * thread. The name of the contention is
+ * <code>"&lt;waiting class&gt; blocked by &lt;blocking class&gt; on &lt;rule class&gt;"</code>.</li>
+ * <li>For locks created by {@link IJobManager#newLock()}, by lock. The name of
+ * the contention is the string representation of the lock.</li>
+ * </ul>
+ * Times are measured in milliseconds. The values returned by this object are
+ * those recorded when it was returned by the job manager.
+ *
+ * @see IJobManager#setContentionProfilingEnabled(boolean)
+ * @see IJobManager#getContentions(int)
+ * @since org.eclipse.core.jobs 3.6
+ * @noimplement This interface is not intended to be implemented by clients.
+ * @noextend This interface is not intended to be extended by clients.
+ */
+public interface IContention {
+	/**
+	 * Returns the number of waits that have been recorded.
+	 *
+	 * @return the number of recorded waits
+	 */
+	public long getCount();
+
+	/**
+	 * Returns the longest recorded wait.
+	 *
+	 * @return the longest wait in milliseconds
+	 */
+	public long getMaximumTime();
+
+	/**
+	 * Returns a human readable description of what the recorded jobs and
+	 * threads waited for.
+	 *
+	 * @return the name of this contention
+	 */
+	public String getName();
+
+	/**
+	 * Returns the sum of all recorded waits.
+	 *
+	 * @return the total time in milliseconds
+	 */
+	public long getTotalTime();
+}
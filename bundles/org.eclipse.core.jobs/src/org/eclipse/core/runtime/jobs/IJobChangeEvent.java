@@ -21,6 +21,49 @@ import org.eclipse.core.runtime.IStatus;
  * @noextend This interface is not intended to be extended by clients.
  */
 public interface IJobChangeEvent {
+	/**
+	 * Event type constant (bit mask) for the <code>aboutToRun</code> event.
+	 * @see IJobManager#addJobChangeListener(IJobChangeListener, Object, int)
+	 * @since org.eclipse.core.jobs 3.6
+	 */
+	public static final int ABOUT_TO_RUN = 0x01;
+	/**
+	 * Event type constant (bit mask) for the <code>awake</code> event.
+	 * @see IJobManager#addJobChangeListener(IJobChangeListener, Object, int)
+	 * @since org.eclipse.core.jobs 3.6
+	 */
+	public static final int AWAKE = 0x02;
+	/**
+	 * Event type constant (bit mask) for the <code>done</code> event.
+	 * @see IJobManager#addJobChangeListener(IJobChangeListener, Object, int)
+	 * @since org.eclipse.core.jobs 3.6
+	 */
+	public static final int DONE = 0x04;
+	/**
+	 * Event type constant (bit mask) for the <code>running</code> event.
+	 * @see IJobManager#addJobChangeListener(IJobChangeListener, Object, int)
+	 * @since org.eclipse.core.jobs 3.6
+	 */
+	public static final int RUNNING = 0x08;
+	/**
+	 * Event type constant (bit mask) for the <code>scheduled</code> event.
+	 * @see IJobManager#addJobChangeListener(IJobChangeListener, Object, int)
+	 * @since org.eclipse.core.jobs 3.6
+	 */
+	public static final int SCHEDULED = 0x10;
+	/**
+	 * Event type constant (bit mask) for the <code>sleeping</code> event.
+	 * @see IJobManager#addJobChangeListener(IJobChangeListener, Object, int)
+	 * @since org.eclipse.core.jobs 3.6
+	 */
+	public static final int SLEEPING = 0x20;
+	/**
+	 * Event type constant (bit mask) for all events.
+	 * @see IJobManager#addJobChangeListener(IJobChangeListener, Object, int)
+	 * @since org.eclipse.core.jobs 3.6
+	 */
+	public static final int ALL = ABOUT_TO_RUN | AWAKE | DONE | RUNNING | SCHEDULED | SLEEPING;
+
 	/**
 	 * The amount of time in milliseconds to wait after scheduling the job before it 
 	 * should be run, or <code>-1</code> if not applicable for this type of event.  
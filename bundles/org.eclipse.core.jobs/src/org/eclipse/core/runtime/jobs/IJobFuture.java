@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM - Initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.runtime.jobs;
+
+import org.eclipse.core.runtime.*;
+
+/**
+ * The pending result of a job, or of all jobs in a family. A future is done
+ * once the job manager has notified the job change listeners that the job
+ * is done, or that the last job in the family is done. A done future stays
+ * done, and its result never changes.
+ * <p>
+ * Instead of waiting for a future, clients can register a runnable that is
+ * run when the future is done. No thread is blocked until then.
+ * </p>
+ *
+ * @see Job#getFuture()
+ * @see IJobManager#getFuture(Object)
+ * @since org.eclipse.core.jobs 3.6
+ * @noimplement This interface is not intended to be implemented by clients.
+ */
+public interface IJobFuture {
+	/**
+	 * Returns the result of the job, or <code>null</code> if this future is
+	 * not done yet. The result of a job family is always {@link Status#OK_STATUS}.
+	 *
+	 * @return the result, or <code>null</code>
+	 */
+	public IStatus getResult();
+
+	/**
+	 * Returns whether this future is done.
+	 *
+	 * @return <code>true</code> if this future is done, and <code>false</code> otherwise
+	 */
+	public boolean isDone();
+
+	/**
+	 * Waits until this future is done, or until the given time has elapsed.
+	 * Returns immediately if this future is already done. The progress monitor
+	 * is checked for cancelation while waiting, but is not otherwise used.
+	 * <p>
+	 * Note that there is a deadlock risk when waiting for a future. If the calling
+	 * thread owns a lock or object monitor that the job is waiting for, deadlock
+	 * will occur.
+	 * </p>
+	 *
+	 * @param timeout the maximum time to wait in milliseconds, or
+	 * <code>Long.MAX_VALUE</code> to wait until this future is done
+	 * @param monitor a progress monitor, or <code>null</code>
+	 * @return the result, or <code>null</code> if the time elapsed before
+	 * this future was done
+	 * @exception InterruptedException if this thread is interrupted while waiting
+	 * @exception OperationCanceledException if the progress monitor is canceled while waiting
+	 */
+	public IStatus waitFor(long timeout, IProgressMonitor monitor) throws InterruptedException, OperationCanceledException;
+
+	/**
+	 * Registers a runnable that is run once when this future is done. The
+	 * runnable is run in the thread that completes this future, or right away
+	 * in the calling thread if this future is already done. The runnable should
+	 * return quickly, and should not wait for other jobs. Exceptions thrown by
+	 * the runnable are logged.
+	 *
+	 * @param runnable the runnable to run when this future is done
+	 */
+	public void whenDone(Runnable runnable);
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2010 IBM Corporation and others.
+ * Copyright (c) 2003, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -10,6 +10,8 @@
  *******************************************************************************/
 package org.eclipse.core.runtime.jobs;
 
+import java.io.File;
+import java.io.IOException;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.OperationCanceledException;
 
@@ -46,6 +48,83 @@ public interface IJobManager {
 	 */
 	public static final String PROP_USE_DAEMON_THREADS = "eclipse.jobs.daemon"; //$NON-NLS-1$
 
+	/**
+	 * A system property key indicating whether worker threads should prefer to 
+	 * run the jobs they have scheduled themselves. Set to <code>true</code> to make 
+	 * a worker that finishes a job first run the job without a scheduling rule that 
+	 * it most recently scheduled, as long as no other worker has taken that job 
+	 * and no waiting job has a higher priority. Idle workers still take the oldest 
+	 * waiting jobs, so jobs scheduled by a busy worker are spread over the pool.
+	 * The default value is <code>false</code>.
+	 * @since org.eclipse.core.jobs 3.6
+	 */
+	public static final String PROP_WORK_STEALING = "eclipse.jobs.workStealing"; //$NON-NLS-1$
+
+	/**
+	 * A system property key indicating the stack size in bytes of the worker 
+	 * threads created by the job manager. Applications that run many jobs that
+	 * spend most of their time blocked, and therefore need many worker threads 
+	 * at once, can use a small stack size to reduce the memory used by each
+	 * worker. The value is a hint that the virtual machine is free to ignore. 
+	 * The default value is <code>0</code>, which uses the default stack size of 
+	 * the virtual machine.
+	 * @since org.eclipse.core.jobs 3.6
+	 */
+	public static final String PROP_WORKER_STACK_SIZE = "eclipse.jobs.workerStackSize"; //$NON-NLS-1$
+
+	/**
+	 * A system property key indicating the maximum number of worker threads
+	 * that the job manager creates. When all of these workers are busy, jobs
+	 * that are scheduled stay in the wait queue until a worker is done with its
+	 * job, so limiting the number of workers bounds the resources used by the
+	 * job manager under load. The limit only applies to jobs run by workers, 
+	 * not to threads that acquire rules with {@link #beginRule(ISchedulingRule, IProgressMonitor)}.
+	 * <p>
+	 * Note that a job that waits for another job to run, for example by calling
+	 * {@link Job#join()}, keeps its worker busy. If every worker waits like this, 
+	 * no further jobs are run. The default value is <code>0</code>, which means 
+	 * that the number of workers is not limited.
+	 * </p>
+	 * @since org.eclipse.core.jobs 3.6
+	 */
+	public static final String PROP_MAX_WORKERS = "eclipse.jobs.maxWorkers"; //$NON-NLS-1$
+
+	/**
+	 * A system property key indicating the number of idle worker threads that 
+	 * the job manager keeps alive, so that they can run new jobs without having 
+	 * to be created again. The default value is <code>1</code>.
+	 * @since org.eclipse.core.jobs 3.6
+	 */
+	public static final String PROP_MIN_WORKERS = "eclipse.jobs.minWorkers"; //$NON-NLS-1$
+
+	/**
+	 * A system property key indicating the time in milliseconds after which 
+	 * idle worker threads are discarded, unless they are needed to keep the 
+	 * number of idle workers indicated by {@link #PROP_MIN_WORKERS}. 
+	 * The default value is <code>60000</code>.
+	 * @since org.eclipse.core.jobs 3.6
+	 */
+	public static final String PROP_WORKER_KEEP_ALIVE = "eclipse.jobs.workerKeepAlive"; //$NON-NLS-1$
+
+	/**
+	 * A system property key indicating whether the job manager should record 
+	 * metrics from the time it starts. Set to <code>true</code> to record the 
+	 * times of all jobs, for example when diagnosing a slow application. 
+	 * The default value is <code>false</code>.
+	 * @see #setMetricsEnabled(boolean)
+	 * @since org.eclipse.core.jobs 3.6
+	 */
+	public static final String PROP_METRICS = "eclipse.jobs.metrics"; //$NON-NLS-1$
+
+	/**
+	 * A system property key indicating whether the job manager should profile
+	 * the contention for scheduling rules and locks from the time it starts. 
+	 * The default value is <code>false</code>.
+	 * @see #setContentionProfilingEnabled(boolean)
+	 * @since org.eclipse.core.jobs 3.6
+	 */
+	public static final String PROP_CONTENTION_PROFILE = "eclipse.jobs.contentionProfile"; //$NON-NLS-1$
+
 	/**
 	 * Registers a job listener with the job manager.  
 	 * Has no effect if an identical listener is already registered.
@@ -56,6 +135,66 @@ public interface IJobManager {
 	 */
 	public void addJobChangeListener(IJobChangeListener listener);
 
+	/**
+	 * Registers a job listener with the job manager that is only notified of
+	 * some events of some jobs. The listener is notified of the events whose 
+	 * type is included in the given mask, for the jobs that belong to the given 
+	 * family. The job manager does not create an event for a job that no listener
+	 * is interested in, so a filtered listener is cheaper than a listener that 
+	 * ignores most of its events. Listeners with the same family object share 
+	 * a single call to {@link Job#belongsTo(Object)} per event.
+	 * <p>
+	 * A listener can be added more than once with different filters, and
+	 * is then notified once for each matching registration. All registrations
+	 * of a listener are removed by {@link #removeJobChangeListener(IJobChangeListener)}.
+	 * </p>
+	 * 
+	 * @param listener the listener to be added
+	 * @param family the job family the listener is interested in, or 
+	 * <code>null</code> for all jobs
+	 * @param eventMask a combination of the event type constants defined in 
+	 * {@link IJobChangeEvent}, such as {@link IJobChangeEvent#DONE}
+	 * @see #removeJobChangeListener(IJobChangeListener)
+	 * @see IJobChangeListener
+	 * @since org.eclipse.core.jobs 3.6
+	 */
+	public void addJobChangeListener(IJobChangeListener listener, Object family, int eventMask);
+
+	/**
+	 * Registers a job listener with the job manager that is notified in a 
+	 * separate thread. Unlike a listener added with {@link #addJobChangeListener(IJobChangeListener)}, 
+	 * a slow asynchronous listener does not delay the threads that schedule and 
+	 * run jobs. Events are delivered in the order they occurred, but may arrive 
+	 * after the job has changed state again, so an asynchronous listener cannot 
+	 * prevent a job from running by canceling it in <code>aboutToRun</code>. 
+	 * <p>
+	 * The events waiting to be delivered to each listener are bounded. When the 
+	 * listener falls too far behind, a thread that changes the state of a job 
+	 * waits until the listener has caught up. Threads that run jobs, or own or 
+	 * wait for locks or scheduling rules, never wait for a listener, so that a 
+	 * listener that waits for such a thread cannot deadlock. Their events are 
+	 * kept for the listener beyond the bound instead.
+	 * </p><p>
+	 * If <code>coalesce</code> is <code>true</code>, an event replaces the event 
+	 * of the same job that has not been delivered yet. For example, a short job 
+	 * that is scheduled, runs and is done while the listener is busy with other
+	 * events may only be reported as done. Such a listener never makes other 
+	 * threads wait. When it falls behind on too many different jobs, the oldest 
+	 * events that have not been delivered are discarded.
+	 * </p><p>
+	 * Has no effect if an identical listener is already registered as an 
+	 * asynchronous listener.
+	 * </p>
+	 * 
+	 * @param listener the listener to be added
+	 * @param coalesce <code>true</code> if only the latest event of each job 
+	 * needs to be delivered, and <code>false</code> otherwise
+	 * @see #removeJobChangeListener(IJobChangeListener)
+	 * @see IJobChangeListener
+	 * @since org.eclipse.core.jobs 3.6
+	 */
+	public void addAsyncJobChangeListener(IJobChangeListener listener, boolean coalesce);
+
 	/**
 	 * Begins applying this rule in the calling thread.  If the rule conflicts with another
 	 * rule currently running in another thread, this method blocks until there are
@@ -109,6 +248,19 @@ public interface IJobManager {
 	 */
 	public void cancel(Object family);
 
+	/**
+	 * Cancels all of the given jobs.  This is equivalent to calling 
+	 * {@link Job#cancel()} on every job, but the jobs that are waiting or 
+	 * sleeping are removed from the queues at once.  Jobs that are currently 
+	 * executing will be asked to cancel but there is no guarantee that they 
+	 * will do so.
+	 * 
+	 * @param jobs the jobs to cancel
+	 * @see Job#cancel()
+	 * @since org.eclipse.core.jobs 3.6
+	 */
+	public void cancelAll(Job[] jobs);
+
 	/**
 	 * Returns a progress monitor that can be used to provide
 	 * aggregated progress feedback on a set of running jobs. A user
@@ -165,6 +317,18 @@ public interface IJobManager {
 	 */
 	public Job currentJob();
 
+	/**
+	 * Writes all contentions recorded while contention profiling was enabled
+	 * to the given file, replacing its contents. The file is a tab separated 
+	 * table with one line per contention, sorted by decreasing total time.
+	 * 
+	 * @param file the file to write
+	 * @throws IOException if the file could not be written
+	 * @see #getContentions(int)
+	 * @since org.eclipse.core.jobs 3.6
+	 */
+	public void dumpContentions(File file) throws IOException;
+
 	/**
 	 * Ends the application of a rule to the calling thread.  Calls to <tt>endRule</tt> 
 	 * must be preceded by a matching call to <tt>beginRule</tt> in the same thread
@@ -192,6 +356,67 @@ public interface IJobManager {
 	 */
 	public Job[] find(Object family);
 
+	/**
+	 * Returns a future that is done when all jobs of the given family are finished.
+	 * The jobs of the family are the same jobs that {@link #join(Object, IProgressMonitor)}
+	 * would wait for: the jobs that are currently waiting, running, or sleeping,
+	 * and the jobs of the family that are scheduled before the future is done.
+	 * If there are no such jobs, the returned future is already done. The
+	 * result of the future is always {@link org.eclipse.core.runtime.Status#OK_STATUS}.
+	 * <p>
+	 * Unlike <code>join</code>, this method does not block the calling thread.
+	 * Until it is done, the future is registered as a listener of the jobs of
+	 * the family, so a future that is never done keeps that listener registered.
+	 * </p>
+	 * 
+	 * @param family the job family, or <code>null</code> for all jobs
+	 * @return the future of the job family
+	 * @see Job#getFuture()
+	 * @see Job#belongsTo(Object)
+	 * @since org.eclipse.core.jobs 3.6
+	 */
+	public IJobFuture getFuture(Object family);
+
+	/**
+	 * Returns the contentions with the longest total time recorded while
+	 * contention profiling was enabled, sorted by decreasing total time.
+	 * 
+	 * @param count the maximum number of contentions to return, or 
+	 * <code>0</code> to return all of them
+	 * @return the contentions with the longest total time
+	 * @see #setContentionProfilingEnabled(boolean)
+	 * @see IContention
+	 * @since org.eclipse.core.jobs 3.6
+	 */
+	public IContention[] getContentions(int count);
+
+	/**
+	 * Returns the metrics of the jobs of each class that has finished running
+	 * while metrics were enabled. The name of each metrics object is the name
+	 * of the job class.
+	 * 
+	 * @return the metrics of each job class
+	 * @see #setMetricsEnabled(boolean)
+	 * @since org.eclipse.core.jobs 3.6
+	 */
+	public IJobMetrics[] getJobClassMetrics();
+
+	/**
+	 * Returns the metrics of the jobs belonging to the given family, or of all 
+	 * jobs if the family is <code>null</code>. The job manager starts recording 
+	 * the metrics of a family when they are requested for the first time, so 
+	 * clients interested in a family should request its metrics before the jobs
+	 * of the family run. Asking for the metrics of many families slows down
+	 * the completion of every job while metrics are enabled.
+	 * 
+	 * @param family the job family, or <code>null</code> for all jobs
+	 * @return the metrics of the jobs in the family
+	 * @see #setMetricsEnabled(boolean)
+	 * @see Job#belongsTo(Object)
+	 * @since org.eclipse.core.jobs 3.6
+	 */
+	public IJobMetrics getMetrics(Object family);
+
 	/**
 	 * Returns whether the job manager is currently idle.  The job manager is
 	 * idle if no jobs are currently running or waiting to run.
@@ -254,9 +479,13 @@ public interface IJobManager {
 	/**
 	 * Removes a job listener from the job manager.  
 	 * Has no effect if an identical listener is not already registered.
+	 * Events that have not been delivered yet to an asynchronous listener
+	 * are discarded.
 	 * 
 	 * @param listener the listener to be removed
 	 * @see #addJobChangeListener(IJobChangeListener)
+	 * @see #addJobChangeListener(IJobChangeListener, Object, int)
+	 * @see #addAsyncJobChangeListener(IJobChangeListener, boolean)
 	 * @see IJobChangeListener
 	 */
 	public void removeJobChangeListener(IJobChangeListener listener);
@@ -293,6 +522,67 @@ public interface IJobManager {
 	 */
 	public void resume();
 
+	/**
+	 * Schedules all of the given jobs to be run after the given delay.  This is 
+	 * equivalent to calling {@link Job#schedule(long)} on every job, but the jobs 
+	 * are added to the queue at once, and only as many worker threads are started 
+	 * or woken up as there are jobs ready to run.  Jobs that are already waiting 
+	 * or sleeping are not affected, and jobs that are currently running will be 
+	 * rescheduled after they finish, just as with <code>Job.schedule</code>.  
+	 * Jobs whose {@link Job#shouldSchedule()} method returns <code>false</code> 
+	 * are not scheduled.
+	 * 
+	 * @param jobs the jobs to schedule
+	 * @param delay a time delay in milliseconds before the jobs should run
+	 * @see Job#schedule(long)
+	 * @since org.eclipse.core.jobs 3.6
+	 */
+	public void scheduleAll(Job[] jobs, long delay);
+
+	/**
+	 * Sets the maximum number of jobs of the given family that may run at the
+	 * same time. Once that many jobs of the family are running, the other jobs
+	 * of the family stay in the {@link Job#WAITING} state until one of the
+	 * running jobs is done, and do not occupy a worker thread meanwhile. Unlike
+	 * a scheduling rule, the limit does not prevent the jobs from running at
+	 * the same time as any other job.
+	 * <p>
+	 * A job that belongs to several limited families only runs when all of the
+	 * families allow it. Lowering the limit does not affect jobs that are
+	 * already running, and a raised limit takes effect when the next job of
+	 * the family is done.
+	 * </p><p>
+	 * The job manager asks a job whether it belongs to the limited families
+	 * when the job is scheduled, and when a limit is set, rather than each
+	 * time the job could start.
+	 * </p>
+	 * 
+	 * @param family the job family
+	 * @param limit the maximum number of running jobs of the family, or 0 to
+	 * remove the limit
+	 * @see Job#belongsTo(Object)
+	 * @see #setRateLimit(Object, int, long)
+	 * @since org.eclipse.core.jobs 3.6
+	 */
+	public void setConcurrencyLimit(Object family, int limit);
+
+	/**
+	 * Sets whether the job manager records the time that jobs and threads 
+	 * wait for a scheduling rule held by another job or thread, and the time 
+	 * that threads wait for locks created by {@link #newLock()}. Profiling 
+	 * has a small cost for every wait, so it is disabled by default. Enabling
+	 * profiling discards the contentions recorded before, and disabling it 
+	 * keeps them.
+	 * 
+	 * @param enabled <code>true</code> to profile contention, and 
+	 * <code>false</code> otherwise
+	 * @see #PROP_CONTENTION_PROFILE
+	 * @see #getContentions(int)
+	 * @see #dumpContentions(File)
+	 * @since org.eclipse.core.jobs 3.6
+	 */
+	public void setContentionProfilingEnabled(boolean enabled);
+
 	/**
 	 * Provides a hook that is notified whenever a thread is about to wait on a lock,
 	 * or when a thread is about to release a lock.  This hook must only be set once.
@@ -304,6 +594,23 @@ public interface IJobManager {
 	 */
 	public void setLockListener(LockListener listener);
 
+	/**
+	 * Sets whether the job manager records the time that jobs spend waiting, 
+	 * blocked and running. Recording has a small cost for every change of the 
+	 * state of a job, so it is disabled by default. Jobs that were already
+	 * scheduled when metrics are enabled are not recorded. Disabling metrics
+	 * keeps the times recorded so far.
+	 * 
+	 * @param enabled <code>true</code> to record metrics, and <code>false</code>
+	 * otherwise
+	 * @see #PROP_METRICS
+	 * @see #getMetrics(Object)
+	 * @see #getJobClassMetrics()
+	 * @see IJobMetrics
+	 * @since org.eclipse.core.jobs 3.6
+	 */
+	public void setMetricsEnabled(boolean enabled);
+
 	/**
 	 * Registers a progress provider with the job manager.  If there was a
 	 * provider already registered, it is replaced.
@@ -317,6 +624,27 @@ public interface IJobManager {
 	 */
 	public void setProgressProvider(ProgressProvider provider);
 
+	/**
+	 * Limits the rate at which jobs of the given family start running. Up to
+	 * <code>count</code> jobs of the family can start at once, and after that
+	 * one more job can start every <code>interval / count</code> milliseconds,
+	 * so that on average no more than <code>count</code> jobs start per interval.
+	 * A job of the family that would start too early stays in the
+	 * {@link Job#WAITING} state until it may start. It is not put to sleep, so
+	 * no sleeping or awake events are sent for it, and {@link Job#wakeUp()}
+	 * does not start it earlier. As for a concurrency limit, the families of a
+	 * job are found when it is scheduled.
+	 * 
+	 * @param family the job family
+	 * @param count the maximum number of jobs that start per interval, or 0
+	 * to remove the rate limit
+	 * @param interval the length of the interval in milliseconds
+	 * @see Job#belongsTo(Object)
+	 * @see #setConcurrencyLimit(Object, int)
+	 * @since org.eclipse.core.jobs 3.6
+	 */
+	public void setRateLimit(Object family, int count, long interval);
+
 	/**
 	 * Suspends execution of all jobs.  Jobs that are already running
 	 * when this method is invoked will complete as usual, but all sleeping and
@@ -393,6 +721,18 @@ public interface IJobManager {
 	 */
 	public void sleep(Object family);
 
+	/**
+	 * Puts all of the given jobs to sleep.  This is equivalent to calling
+	 * {@link Job#sleep()} on every job, but the jobs are moved into the 
+	 * <code>SLEEPING</code> state at once.  This method has no effect on jobs 
+	 * that are currently running.
+	 * 
+	 * @param jobs the jobs to put to sleep
+	 * @see Job#sleep()
+	 * @since org.eclipse.core.jobs 3.6
+	 */
+	public void sleepAll(Job[] jobs);
+
 	/**
 	 * Transfers ownership of a scheduling rule to another thread.  The identical
 	 * scheduling rule must currently be owned by the calling thread as a result of 
@@ -421,4 +761,16 @@ public interface IJobManager {
 	 * @see Job#belongsTo(Object)
 	 */
 	public void wakeUp(Object family);
+
+	/**
+	 * Resumes scheduling of all of the given jobs that are sleeping.  This is
+	 * equivalent to calling {@link Job#wakeUp()} on every job, but the jobs are 
+	 * added to the queue at once.  This method has no effect on jobs that are 
+	 * not currently sleeping.
+	 * 
+	 * @param jobs the jobs to wake up
+	 * @see Job#wakeUp()
+	 * @since org.eclipse.core.jobs 3.6
+	 */
+	public void wakeUpAll(Job[] jobs);
 }
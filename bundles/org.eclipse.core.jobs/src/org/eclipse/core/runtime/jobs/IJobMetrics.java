@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM - Initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.runtime.jobs;
+
+/**
+ * Timing metrics recorded by the job manager for a set of jobs. For each job
+ * that has finished running, the job manager records three times:
+ * <ul>
+ * <li>{@link #WAIT}: the time the job spent in the wait queue, ready to run but
+ * waiting for a worker thread. Time spent sleeping is not included.</li>
+ * <li>{@link #BLOCKED}: the time the job could not run because a job with a
+ * conflicting scheduling rule was running, including the time spent yielding
+ * to another job.</li>
+ * <li>{@link #RUN}: the time from the moment a worker took the job until the
+ * job was done.</li>
+ * </ul>
+ * Times are measured in milliseconds. Each time is counted in a histogram with
+ * buckets of exponentially increasing size: bucket 0 counts times of 0
+ * milliseconds, and bucket <code>i</code> counts times of at least
+ * 2<sup><code>i-1</code></sup> and less than 2<sup><code>i</code></sup>
+ * milliseconds. The last bucket also counts all longer times.
+ * <p>
+ * Metrics are only recorded while enabled with {@link IJobManager#setMetricsEnabled(boolean)}.
+ * The values returned by this object keep changing while jobs finish.
+ * </p>
+ *
+ * @see IJobManager#getMetrics(Object)
+ * @see IJobManager#getJobClassMetrics()
+ * @since org.eclipse.core.jobs 3.6
+ * @noimplement This interface is not intended to be implemented by clients.
+ * @noextend This interface is not intended to be extended by clients.
+ */
+public interface IJobMetrics {
+	/**
+	 * Constant for the time a job spent waiting for a worker thread.
+	 */
+	public static final int WAIT = 0;
+	/**
+	 * Constant for the time a job was blocked by a job with a conflicting rule.
+	 */
+	public static final int BLOCKED = 1;
+	/**
+	 * Constant for the time a job was running.
+	 */
+	public static final int RUN = 2;
+
+	/**
+	 * Returns the number of jobs that have been recorded.
+	 *
+	 * @return the number of recorded jobs
+	 */
+	public long getCount();
+
+	/**
+	 * Returns the number of recorded times in each bucket of the histogram of
+	 * the given kind of time.
+	 *
+	 * @param kind one of {@link #WAIT}, {@link #BLOCKED} or {@link #RUN}
+	 * @return a copy of the histogram
+	 */
+	public long[] getHistogram(int kind);
+
+	/**
+	 * Returns the longest recorded time of the given kind.
+	 *
+	 * @param kind one of {@link #WAIT}, {@link #BLOCKED} or {@link #RUN}
+	 * @return the longest time in milliseconds
+	 */
+	public long getMaximumTime(int kind);
+
+	/**
+	 * Returns a human readable description of the recorded jobs, such as the
+	 * name of the job class or of the job family.
+	 *
+	 * @return the name of these metrics
+	 */
+	public String getName();
+
+	/**
+	 * Returns an upper bound of the given percentile of the recorded times of
+	 * the given kind. The bound is the upper end of the histogram bucket that
+	 * contains the percentile, or the longest recorded time if that is smaller.
+	 *
+	 * @param kind one of {@link #WAIT}, {@link #BLOCKED} or {@link #RUN}
+	 * @param fraction the percentile as a fraction between 0 and 1, such as
+	 * <code>0.99</code> for the 99th percentile
+	 * @return an upper bound of the percentile in milliseconds, or <code>0</code>
+	 * if no jobs have been recorded
+	 */
+	public long getPercentile(int kind, double fraction);
+
+	/**
+	 * Returns the sum of all recorded times of the given kind.
+	 *
+	 * @param kind one of {@link #WAIT}, {@link #BLOCKED} or {@link #RUN}
+	 * @return the total time in milliseconds
+	 */
+	public long getTotalTime(int kind);
+
+	/**
+	 * Discards all recorded times.
+	 */
+	public void reset();
+}
@@ -0,0 +1,47 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM - Initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.runtime.jobs;
+
+import org.eclipse.core.runtime.IPath;
+
+/**
+ * A scheduling rule that represents a node in a hierarchy identified by a path.
+ * The job manager indexes rules of this kind by path, which allows it to find
+ * the running and blocked jobs that conflict with a waiting job without asking
+ * every other scheduling rule.
+ * <p>
+ * Implementations of this interface must never conflict with another
+ * <code>IPathSchedulingRule</code> unless the path of one rule is a prefix
+ * of the path of the other rule (see {@link IPath#isPrefixOf(IPath)}). The
+ * job manager still calls {@link ISchedulingRule#isConflicting(ISchedulingRule)}
+ * to decide whether two rules with related paths actually conflict, and to
+ * decide whether a path rule conflicts with any other kind of rule. Likewise,
+ * an <code>IPathSchedulingRule</code> must never contain another
+ * <code>IPathSchedulingRule</code> unless its path is a prefix of the path
+ * of the other rule. {@link MultiRule} relies on this to index its children.
+ * </p><p>
+ * The path of a rule must not change once the rule has been created.
+ * </p><p>
+ * Clients may implement this interface.
+ * </p>
+ *
+ * @see ISchedulingRule
+ * @since org.eclipse.core.jobs 3.6
+ */
+public interface IPathSchedulingRule extends ISchedulingRule {
+	/**
+	 * Returns the path that identifies the position of this rule in the
+	 * hierarchy of rules.
+	 *
+	 * @return the path of this rule, never <code>null</code>
+	 */
+	public IPath getFullPath();
+}
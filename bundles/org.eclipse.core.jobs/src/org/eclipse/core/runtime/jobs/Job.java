@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2010 IBM Corporation and others.
+ * Copyright (c) 2003, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -102,6 +102,16 @@ public abstract class Job extends InternalJob implements IAdaptable {
 	 * @see #run(IProgressMonitor)
 	 */
 	public static final int DECORATE = 50;
+
+	/**
+	 * Deadline constant (value -1) indicating that a job has no deadline, and
+	 * only its priority determines how long it may wait to run.
+	 * 
+	 * @see #getDeadline()
+	 * @see #setDeadline(long)
+	 * @since org.eclipse.core.jobs 3.6
+	 */
+	public static final long NO_DEADLINE = -1;
 	/** 
 	 * Job state code (value 0) indicating that a job is not 
 	 * currently sleeping, waiting, or running (i.e., the job manager doesn't know 
@@ -152,6 +162,27 @@ public abstract class Job extends InternalJob implements IAdaptable {
 		super(name);
 	}
 
+	/**
+	 * Creates a new job with the specified name, that belongs to the given family.
+	 * The job manager keeps track of the scheduled jobs of each declared family,
+	 * so finding, canceling, joining, putting to sleep and waking up the jobs of
+	 * the family only needs to look at the jobs of the family, and not at every 
+	 * job known to the job manager.
+	 * <p>
+	 * A job with a declared family belongs to that family only. Subclasses must
+	 * not override {@link #belongsTo(Object)} to belong to other families, because
+	 * the job manager would not find the job as a member of those families.
+	 * </p>
+	 * 
+	 * @param name the name of the job.
+	 * @param family the family of the job, or <code>null</code> to use 
+	 * {@link #belongsTo(Object)} instead
+	 * @since org.eclipse.core.jobs 3.6
+	 */
+	public Job(String name, Object family) {
+		super(name, family);
+	}
+
 	/**
 	 * Registers a job listener with this job
 	 * Has no effect if an identical listener is already registered.
@@ -168,9 +199,11 @@ public abstract class Job extends InternalJob implements IAdaptable {
 	 * by the job manager.  Thus, a job can choose to belong to any number of
 	 * families.
 	 * <p>
-	 * Clients may override this method.  This default implementation always returns
-	 * <code>false</code>.  Overriding implementations must return <code>false</code>
-	 * for families they do not recognize.
+	 * Clients may override this method.  This default implementation returns
+	 * <code>true</code> for the family declared when this job was created, and
+	 * <code>false</code> otherwise.  Overriding implementations must return 
+	 * <code>false</code> for families they do not recognize.  Jobs created with
+	 * a declared family must not override this method.
 	 * </p>
 	 * 
 	 * @param family the job family identifier
@@ -178,7 +211,7 @@ public abstract class Job extends InternalJob implements IAdaptable {
 	 * <code>false</code> otherwise.
 	 */
 	public boolean belongsTo(Object family) {
-		return false;
+		return super.belongsTo(family);
 	}
 
 	/**
@@ -226,6 +259,53 @@ public abstract class Job extends InternalJob implements IAdaptable {
 		super.done(result);
 	}
 
+	/**
+	 * Returns the affinity of this job: the key of the jobs whose worker 
+	 * thread this job prefers to run in.
+	 * 
+	 * @return the affinity of this job, or <code>null</code>
+	 * @see #setAffinity(Object)
+	 * @since org.eclipse.core.jobs 3.6
+	 */
+	public final Object getAffinity() {
+		return super.getAffinity();
+	}
+
+	/**
+	 * Returns the deadline of this job: the time in milliseconds within which
+	 * the job should start once it is waiting to run.
+	 * 
+	 * @return the deadline of this job, or {@link #NO_DEADLINE}
+	 * @see #setDeadline(long)
+	 * @since org.eclipse.core.jobs 3.6
+	 */
+	public final long getDeadline() {
+		return super.getDeadline();
+	}
+
+	/**
+	 * Returns a future that is done when this job is done. The future is done
+	 * at the same time as a thread waiting in {@link #join()} would return:
+	 * after the job change listeners have been notified that the job is done,
+	 * either because it finished running or because it was canceled before it
+	 * could run. The result of the future is the result of the job.
+	 * <p>
+	 * If this job is not waiting, sleeping or running, the returned future is
+	 * already done, and its result is the result of the last run of this job, 
+	 * or {@link Status#OK_STATUS} if this job has never run. Otherwise, all calls
+	 * return the same future until this job is done. When the job is scheduled 
+	 * again, including when it reschedules itself, a new future is used.
+	 * </p>
+	 * 
+	 * @return the future of this job
+	 * @see #join()
+	 * @see IJobManager#getFuture(Object)
+	 * @since org.eclipse.core.jobs 3.6
+	 */
+	public final IJobFuture getFuture() {
+		return super.getFuture();
+	}
+
 	/**
 	 * Returns the human readable name of this job.  The name is never 
 	 * <code>null</code>.
@@ -462,6 +542,51 @@ public abstract class Job extends InternalJob implements IAdaptable {
 		super.schedule(delay);
 	}
 
+	/**
+	 * Sets the affinity of this job. Jobs with equal affinities prefer to run
+	 * in the same worker thread, so that they can reuse what a previous job left
+	 * in thread local caches or in the processor caches. Typically, the affinity
+	 * is the resource, or the set of resources, that the job works on.
+	 * <p>
+	 * When this job is waiting to run, and the worker that last ran a job with 
+	 * an equal affinity is idle, the job is left for that worker. If that worker 
+	 * has not started the job shortly after the job started waiting, any other 
+	 * worker may run it. Meanwhile, jobs behind it in the wait queue may be
+	 * started by other workers. Like the priority, the affinity is only a hint.
+	 * </p>
+	 * 
+	 * @param affinity the new affinity, or <code>null</code> if the job may run
+	 * in any worker
+	 * @see #getAffinity()
+	 * @since org.eclipse.core.jobs 3.6
+	 */
+	public final void setAffinity(Object affinity) {
+		super.setAffinity(affinity);
+	}
+
+	/**
+	 * Sets the deadline of this job: the time in milliseconds within which the
+	 * job should start once it is waiting to run. Like the priority, the
+	 * deadline is a hint. Waiting jobs are run in the order of the time they
+	 * should start by, which is the time they started waiting plus the shorter of
+	 * their deadline and the delay their priority can tolerate. A deadline
+	 * longer than that delay has no effect.
+	 * <p>
+	 * This will not affect the execution of a running job, but it will affect
+	 * how the job is scheduled while it is waiting to be run.
+	 * </p>
+	 * 
+	 * @param deadline the new deadline in milliseconds, or {@link #NO_DEADLINE}
+	 * @exception IllegalArgumentException if the deadline is negative and
+	 * not {@link #NO_DEADLINE}
+	 * @see #getDeadline()
+	 * @see #setPriority(int)
+	 * @since org.eclipse.core.jobs 3.6
+	 */
+	public final void setDeadline(long deadline) {
+		super.setDeadline(deadline);
+	}
+
 	/**
 	 * Changes the name of this job.  If the job is currently running, waiting,
 	 * or sleeping, the new job name may not take effect until the next time the 
@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM - Initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.runtime.jobs;
+
+import org.eclipse.core.internal.jobs.InternalJobGraph;
+
+/**
+ * A set of jobs with dependencies between them. When the graph is scheduled,
+ * the job manager schedules each job as soon as all of its predecessors are
+ * done, without waiting for the job change listeners of the predecessors to
+ * be notified. Jobs that are ready at the same time are scheduled in order of
+ * the length of the longest chain of jobs that depends on them, so that the
+ * jobs on the critical path of the graph start first.
+ * <p>
+ * If a job of the graph is canceled, or finishes with a result of severity
+ * {@link org.eclipse.core.runtime.IStatus#CANCEL} or
+ * {@link org.eclipse.core.runtime.IStatus#ERROR}, all jobs that depend
+ * on it directly or indirectly are canceled without running. A job whose
+ * {@link Job#shouldSchedule()} method returns <code>false</code> when it is
+ * ready is treated as canceled.
+ * </p><p>
+ * A job can belong to at most one graph, and must not be scheduled by clients
+ * once it has been added to a graph. The jobs of a graph can still be joined,
+ * canceled, and observed with job change listeners like any other job. A job
+ * of a graph that reschedules itself is only done, from the point of view of
+ * the graph, once it finishes without being rescheduled.
+ * </p>
+ *
+ * @see Job#getFuture()
+ * @since org.eclipse.core.jobs 3.6
+ * @noextend This class is not intended to be subclassed by clients.
+ */
+public class JobGraph extends InternalJobGraph {
+	/**
+	 * Creates a new, empty job graph.
+	 */
+	public JobGraph() {
+		super();
+	}
+
+	/**
+	 * Adds a job to this graph, with the jobs that must be done before it can
+	 * run. Predecessors that do not belong to this graph yet are added as well.
+	 * A job can be added more than once to add more predecessors.
+	 *
+	 * @param job the job to add
+	 * @param predecessors the jobs that must be done before the job can run,
+	 * possibly empty
+	 * @exception IllegalArgumentException if one of the jobs belongs to another graph
+	 * @exception IllegalStateException if this graph has already been scheduled
+	 */
+	public final void add(Job job, Job[] predecessors) {
+		super.add(job, predecessors);
+	}
+
+	/**
+	 * Cancels all jobs of this graph that are not done yet. Jobs that are
+	 * waiting for their predecessors will not run. Jobs that are already
+	 * scheduled are canceled as by {@link Job#cancel()}.
+	 */
+	public final void cancel() {
+		super.cancel();
+	}
+
+	/**
+	 * Returns a future that is done when all jobs of this graph are done or
+	 * canceled. The result of the future is
+	 * {@link org.eclipse.core.runtime.Status#OK_STATUS} if all jobs completed
+	 * successfully. Otherwise it is the result of the first job that was
+	 * canceled or failed, or {@link org.eclipse.core.runtime.Status#CANCEL_STATUS}
+	 * if the graph was canceled.
+	 *
+	 * @return the future of this graph
+	 */
+	public final IJobFuture getFuture() {
+		return super.getFuture();
+	}
+
+	/**
+	 * Returns the jobs of this graph, in the order they were added.
+	 *
+	 * @return the jobs of this graph
+	 */
+	public final Job[] getJobs() {
+		return super.getJobs();
+	}
+
+	/**
+	 * Schedules the jobs of this graph that have no predecessors. The other
+	 * jobs are scheduled when their predecessors are done. A graph can only
+	 * be scheduled once.
+	 *
+	 * @exception IllegalArgumentException if the dependencies of this graph
+	 * contain a cycle
+	 * @exception IllegalStateException if this graph has already been scheduled
+	 */
+	public final void schedule() {
+		super.schedule();
+	}
+}
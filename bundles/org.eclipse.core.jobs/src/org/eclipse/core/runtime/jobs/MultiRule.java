@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2008 IBM Corporation and others.
+ * Copyright (c) 2003, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -10,7 +10,8 @@
  *******************************************************************************/
 package org.eclipse.core.runtime.jobs;
 
-import java.util.ArrayList;
+import java.util.*;
+import org.eclipse.core.internal.jobs.RuleSet;
 
 /**
  * A MultiRule is a compound scheduling rule that represents a fixed group of child 
@@ -20,13 +21,35 @@ import java.util.ArrayList;
  * relation.
  * <p>
  * A MultiRule will never contain other MultiRules as children.  If a MultiRule is provided
- * as a child, its children will be added instead.
+ * as a child, its children will be added instead. Duplicate children, and children
+ * that are contained by another child, are omitted.
+ * </p><p>
+ * Children that are an {@link IPathSchedulingRule} are indexed by path, so that
+ * checking a MultiRule with many such children for conflicts or containment only
+ * asks the children whose path is related to the path of the other rule.
  * </p>
  * 
  * @since 3.0
  * @noextend This class is not intended to be subclassed by clients.
  */
 public class MultiRule implements ISchedulingRule {
+	/**
+	 * The number of children from which on the children are indexed.
+	 */
+	private static final int INDEX_THRESHOLD = 8;
+
+	/**
+	 * The index of the children, or null if it has not been created yet or
+	 * there are too few children.
+	 */
+	private volatile RuleSet index;
+	/**
+	 * Whether this rule has been checked for conflicts or containment. The
+	 * index is only created when a rule is checked more than once, because
+	 * intermediate rules created while combining many rules are only checked
+	 * once. Races only cause the index to be created later or more than once.
+	 */
+	private boolean checked;
 	private ISchedulingRule[] rules;
 
 	/**
@@ -41,16 +64,35 @@ public class MultiRule implements ISchedulingRule {
 	 */
 	public static ISchedulingRule combine(ISchedulingRule[] ruleArray) {
 		ISchedulingRule result = null;
-		for (int i = 0; i < ruleArray.length; i++) {
-			if (ruleArray[i] == null)
-				continue;
-			if (result == null) {
-				result = ruleArray[i];
+		int i = 0;
+		//combine pairwise while one rule contains the other
+		for (; i < ruleArray.length; i++) {
+			ISchedulingRule rule = ruleArray[i];
+			if (rule == null || rule == result)
 				continue;
-			}
-			result = combine(result, ruleArray[i]);
+			if (result == null || rule.contains(result))
+				result = rule;
+			else if (!result.contains(rule))
+				break;
 		}
-		return result;
+		if (i == ruleArray.length)
+			return result;
+		//create one multi-rule of the remaining rules rather than one per rule
+		ArrayList remaining = new ArrayList(ruleArray.length - i + 1);
+		remaining.add(result);
+		for (; i < ruleArray.length; i++)
+			if (ruleArray[i] != null)
+				remaining.add(ruleArray[i]);
+		MultiRule combined = new MultiRule((ISchedulingRule[]) remaining.toArray(new ISchedulingRule[remaining.size()]));
+		if (combined.rules.length == 1)
+			return combined.rules[0];
+		//answer an existing multi-rule if it already contains all the rules
+		for (int j = 0, max = remaining.size(); j < max; j++) {
+			Object rule = remaining.get(j);
+			if (rule instanceof MultiRule && ((MultiRule) rule).contains(combined))
+				return (MultiRule) rule;
+		}
+		return combined;
 	}
 
 	/**
@@ -75,13 +117,63 @@ public class MultiRule implements ISchedulingRule {
 		if (rule2.contains(rule1))
 			return rule2;
 		MultiRule result = new MultiRule();
-		result.rules = new ISchedulingRule[] {rule1, rule2};
-		//make sure we don't end up with nested multi-rules
-		if (rule1 instanceof MultiRule || rule2 instanceof MultiRule)
-			result.rules = flatten(result.rules);
+		//make sure we don't end up with nested multi-rules or redundant children
+		if (rule1 instanceof MultiRule && rule2 instanceof MultiRule)
+			result.rules = canonicalize(flatten(new ISchedulingRule[] {rule1, rule2}));
+		else if (rule1 instanceof MultiRule)
+			result.rules = add(((MultiRule) rule1).rules, rule2, false);
+		else if (rule2 instanceof MultiRule)
+			result.rules = add(((MultiRule) rule2).rules, rule1, true);
+		else
+			result.rules = new ISchedulingRule[] {rule1, rule2};
 		return result;
 	}
 
+	/*
+	 * Adds a rule that is not contained by any of the given children, and
+	 * removes the children that the rule contains.
+	 */
+	private static ISchedulingRule[] add(ISchedulingRule[] children, ISchedulingRule rule, boolean first) {
+		ArrayList result = new ArrayList(children.length + 1);
+		if (first)
+			result.add(rule);
+		for (int i = 0; i < children.length; i++)
+			if (!rule.contains(children[i]))
+				result.add(children[i]);
+		if (!first)
+			result.add(rule);
+		return (ISchedulingRule[]) result.toArray(new ISchedulingRule[result.size()]);
+	}
+
+	/*
+	 * Removes duplicate rules, and rules that are contained by another
+	 * rule, from an array of rules that are not MultiRules. Of two rules
+	 * that contain each other, the first one is kept.
+	 */
+	private static ISchedulingRule[] canonicalize(ISchedulingRule[] flatRules) {
+		Set unique = new LinkedHashSet(flatRules.length * 2);
+		for (int i = 0; i < flatRules.length; i++)
+			unique.add(flatRules[i]);
+		ISchedulingRule[] candidates = (ISchedulingRule[]) unique.toArray(new ISchedulingRule[unique.size()]);
+		RuleSet set = candidates.length >= INDEX_THRESHOLD ? new RuleSet(candidates) : null;
+		ArrayList result = new ArrayList(candidates.length);
+		for (int i = 0; i < candidates.length; i++) {
+			ISchedulingRule rule = candidates[i];
+			boolean contained = false;
+			if (set != null) {
+				contained = set.isRedundant(rule, i);
+			} else {
+				for (int j = 0; !contained && j < candidates.length; j++)
+					contained = j != i && candidates[j].contains(rule) && (j < i || !rule.contains(candidates[j]));
+			}
+			if (!contained)
+				result.add(rule);
+		}
+		if (result.size() == flatRules.length)
+			return flatRules;
+		return (ISchedulingRule[]) result.toArray(new ISchedulingRule[result.size()]);
+	}
+
 	/*
 	 * Collapses an array of rules that may contain MultiRules into an
 	 * array in which no rules are MultiRules.
@@ -90,7 +182,7 @@ public class MultiRule implements ISchedulingRule {
 		ArrayList myRules = new ArrayList(nestedRules.length);
 		for (int i = 0; i < nestedRules.length; i++) {
 			if (nestedRules[i] instanceof MultiRule) {
-				ISchedulingRule[] children = ((MultiRule) nestedRules[i]).getChildren();
+				ISchedulingRule[] children = ((MultiRule) nestedRules[i]).rules;
 				for (int j = 0; j < children.length; j++)
 					myRules.add(children[j]);
 			} else {
@@ -106,7 +198,7 @@ public class MultiRule implements ISchedulingRule {
 	 * @param nestedRules the nested rules for this compound rule.
 	 */
 	public MultiRule(ISchedulingRule[] nestedRules) {
-		this.rules = flatten(nestedRules);
+		this.rules = canonicalize(flatten(nestedRules));
 	}
 
 	/**
@@ -132,23 +224,47 @@ public class MultiRule implements ISchedulingRule {
 		if (this == rule)
 			return true;
 		if (rule instanceof MultiRule) {
-			ISchedulingRule[] otherRules = ((MultiRule) rule).getChildren();
+			ISchedulingRule[] otherRules = ((MultiRule) rule).rules;
 			//for each child of the target, there must be some child in this rule that contains it.
-			for (int other = 0; other < otherRules.length; other++) {
-				boolean found = false;
-				for (int mine = 0; !found && mine < rules.length; mine++)
-					found = rules[mine].contains(otherRules[other]);
-				if (!found)
+			for (int other = 0; other < otherRules.length; other++)
+				if (!containsChild(otherRules[other]))
 					return false;
-			}
 			return true;
 		}
+		return containsChild(rule);
+	}
+
+	/*
+	 * Returns whether a child of this rule contains the given rule, which is not a MultiRule.
+	 */
+	private boolean containsChild(ISchedulingRule rule) {
+		RuleSet set = getIndex();
+		if (set != null)
+			return set.contains(rule);
 		for (int i = 0; i < rules.length; i++)
 			if (rules[i].contains(rule))
 				return true;
 		return false;
 	}
 
+	/*
+	 * Returns the index of the children, creating it if needed, or null if
+	 * there are too few children to index them.
+	 */
+	private RuleSet getIndex() {
+		if (rules.length < INDEX_THRESHOLD)
+			return null;
+		RuleSet set = index;
+		if (set == null) {
+			if (!checked) {
+				checked = true;
+				return null;
+			}
+			index = set = new RuleSet(rules);
+		}
+		return set;
+	}
+
 	/* (non-Javadoc)
 	 * @see org.eclipse.core.runtime.jobs.ISchedulingRule#isConflicting(org.eclipse.core.runtime.jobs.ISchedulingRule)
 	 */
@@ -156,16 +272,28 @@ public class MultiRule implements ISchedulingRule {
 		if (this == rule)
 			return true;
 		if (rule instanceof MultiRule) {
-			ISchedulingRule[] otherRules = ((MultiRule) rule).getChildren();
+			ISchedulingRule[] otherRules = ((MultiRule) rule).rules;
+			//ask the index of the rule with more children
+			if (otherRules.length > rules.length)
+				return ((MultiRule) rule).isConflicting(this);
 			for (int j = 0; j < otherRules.length; j++)
-				for (int i = 0; i < rules.length; i++)
-					if (rules[i].isConflicting(otherRules[j]))
-						return true;
-		} else {
-			for (int i = 0; i < rules.length; i++)
-				if (rules[i].isConflicting(rule))
+				if (isConflictingChild(otherRules[j]))
 					return true;
+			return false;
 		}
+		return isConflictingChild(rule);
+	}
+
+	/*
+	 * Returns whether a child of this rule conflicts with the given rule, which is not a MultiRule.
+	 */
+	private boolean isConflictingChild(ISchedulingRule rule) {
+		RuleSet set = getIndex();
+		if (set != null)
+			return set.isConflicting(rule);
+		for (int i = 0; i < rules.length; i++)
+			if (rules[i].isConflicting(rule))
+				return true;
 		return false;
 	}
 
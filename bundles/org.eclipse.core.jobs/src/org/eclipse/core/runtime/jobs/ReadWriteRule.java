@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM - Initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.runtime.jobs;
+
+/**
+ * A scheduling rule that gives exclusive access to a resource to writers, while
+ * allowing any number of readers to access the resource at the same time.
+ * <p>
+ * A <code>ReadWriteRule</code> is itself the write rule of the resource: it
+ * conflicts with itself and with all read rules of the resource. A read rule
+ * is obtained with {@link #newReadRule()}. Each read rule only conflicts with
+ * itself and with the write rule, so jobs and threads that each use their own
+ * read rule can run at the same time. Since a rule always conflicts with itself,
+ * a read rule must not be shared by jobs that should run at the same time.
+ * </p><p>
+ * The write rule contains all read rules of the resource, so a thread that owns
+ * the write rule can begin a read rule of the same resource. A read rule only
+ * contains itself. Neither kind of rule conflicts with the rules of another
+ * resource or with any other rule, but both can be combined with other rules
+ * using {@link MultiRule}.
+ * </p><p>
+ * Writing jobs are not starved by a continuous stream of readers: once a job
+ * with the write rule is blocked by a running reader, jobs and threads that need
+ * a read rule of the same resource wait until that job has run.
+ * </p>
+ *
+ * @see Job#setRule(ISchedulingRule)
+ * @see IJobManager#beginRule(ISchedulingRule, org.eclipse.core.runtime.IProgressMonitor)
+ * @since org.eclipse.core.jobs 3.6
+ * @noextend This class is not intended to be subclassed by clients.
+ */
+public class ReadWriteRule implements ISchedulingRule {
+	/**
+	 * A rule that allows reading the resource.
+	 */
+	private final class ReadRule implements ISchedulingRule {
+		ReadWriteRule getResource() {
+			return ReadWriteRule.this;
+		}
+
+		/* (non-Javadoc)
+		 * @see org.eclipse.core.runtime.jobs.ISchedulingRule#contains(org.eclipse.core.runtime.jobs.ISchedulingRule)
+		 */
+		public boolean contains(ISchedulingRule rule) {
+			return rule == this;
+		}
+
+		/* (non-Javadoc)
+		 * @see org.eclipse.core.runtime.jobs.ISchedulingRule#isConflicting(org.eclipse.core.runtime.jobs.ISchedulingRule)
+		 */
+		public boolean isConflicting(ISchedulingRule rule) {
+			return rule == this || rule == ReadWriteRule.this;
+		}
+
+		/*
+		 * For debugging purposes only.
+		 */
+		public String toString() {
+			return "ReadRule(" + name + ')'; //$NON-NLS-1$
+		}
+	}
+
+	private final String name;
+
+	/**
+	 * Creates the write rule of a new resource.
+	 *
+	 * @param name the name of the resource, used for debugging
+	 */
+	public ReadWriteRule(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Returns whether the given rule is a read rule of this resource.
+	 */
+	private boolean isReadRule(ISchedulingRule rule) {
+		return rule instanceof ReadRule && ((ReadRule) rule).getResource() == this;
+	}
+
+	/**
+	 * Returns a new read rule of this resource. The returned rule conflicts with
+	 * this write rule, but not with the other read rules of this resource.
+	 *
+	 * @return a new read rule
+	 */
+	public ISchedulingRule newReadRule() {
+		return new ReadRule();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.jobs.ISchedulingRule#contains(org.eclipse.core.runtime.jobs.ISchedulingRule)
+	 */
+	public boolean contains(ISchedulingRule rule) {
+		return rule == this || isReadRule(rule);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.jobs.ISchedulingRule#isConflicting(org.eclipse.core.runtime.jobs.ISchedulingRule)
+	 */
+	public boolean isConflicting(ISchedulingRule rule) {
+		return rule == this || isReadRule(rule);
+	}
+
+	/*
+	 * For debugging purposes only.
+	 */
+	public String toString() {
+		return "WriteRule(" + name + ')'; //$NON-NLS-1$
+	}
+}
@@ -42,6 +42,10 @@ public class AllTests extends TestCase {
 		suite.addTestSuite(Bug_311863.class);
 		suite.addTestSuite(Bug_316839.class);
 		suite.addTestSuite(Bug_320329.class);
+		suite.addTestSuite(RuleIndexTest.class);
+		suite.addTestSuite(HistogramTest.class);
+		suite.addTestSuite(ReadWriteRuleTest.class);
+		suite.addTestSuite(JobGraphTest.class);
 		return suite;
 	}
 }
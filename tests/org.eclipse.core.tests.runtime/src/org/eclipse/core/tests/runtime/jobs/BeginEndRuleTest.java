@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2006 IBM Corporation and others.
+ * Copyright (c) 2003, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -668,4 +668,85 @@ public class BeginEndRuleTest extends AbstractJobManagerTest {
 		assertEquals("ThreadJob did not ignore reschedule", 0, count[0]);
 	}
 
+	/**
+	 * Tests that a thread waiting in beginRule for a job that is not running
+	 * resumes as soon as that job changes state, even if the change happens
+	 * after the thread found the job blocking it and before it waits. The
+	 * thread is allowed to block, so it does not poll for the change.
+	 */
+	public void testRuleHandoff() throws InterruptedException {
+		final ISchedulingRule first = new IdentityRule();
+		final ISchedulingRule second = new IdentityRule();
+		final TestBarrier barrier = new TestBarrier();
+		final Job owner = new Job("testRuleHandoff.owner") {
+			protected IStatus run(IProgressMonitor monitor) {
+				barrier.setStatus(TestBarrier.STATUS_RUNNING);
+				barrier.waitForStatus(TestBarrier.STATUS_WAIT_FOR_DONE);
+				return Status.OK_STATUS;
+			}
+		};
+		owner.setRule(first);
+		//a job queued behind the owner, which blocks the rule the thread begins
+		Job blocked = new Job("testRuleHandoff.blocked") {
+			protected IStatus run(IProgressMonitor monitor) {
+				return Status.OK_STATUS;
+			}
+		};
+		blocked.setRule(MultiRule.combine(first, second));
+		//a job that only runs once a worker has queued the blocked job behind the owner
+		Job probe = new Job("testRuleHandoff.probe") {
+			protected IStatus run(IProgressMonitor monitor) {
+				return Status.OK_STATUS;
+			}
+		};
+		probe.setPriority(Job.BUILD);
+		owner.schedule();
+		barrier.waitForStatus(TestBarrier.STATUS_RUNNING);
+		blocked.schedule();
+		probe.schedule();
+		probe.join();
+		final boolean[] waiting = new boolean[1];
+		final boolean[] changed = new boolean[1];
+		//the thread reports that it is blocked before it starts the wait loop
+		final IProgressMonitor monitor = new ProgressMonitorWrapper(new NullProgressMonitor()) {
+			public void setBlocked(IStatus reason) {
+				waiting[0] = true;
+			}
+		};
+		LockListener listener = new LockListener() {
+			public boolean aboutToWait(Thread lockOwner) {
+				//once the thread has found the blocked job in the wait loop, let
+				//the owner finish, so that the blocked job is queued to run
+				if (waiting[0] && !changed[0]) {
+					changed[0] = true;
+					barrier.setStatus(TestBarrier.STATUS_WAIT_FOR_DONE);
+					while (owner.getState() != Job.NONE)
+						Thread.yield();
+				}
+				return false;
+			}
+		};
+		final boolean[] acquired = new boolean[1];
+		Thread thread = new Thread("testRuleHandoff") {
+			public void run() {
+				manager.beginRule(second, monitor);
+				acquired[0] = true;
+				manager.endRule(second);
+			}
+		};
+		//keep the blocked job waiting once the owner is done
+		manager.suspend();
+		try {
+			manager.setLockListener(listener);
+			thread.start();
+			thread.join(5000);
+			assertTrue("1.0", changed[0]);
+			assertTrue("1.1", acquired[0]);
+		} finally {
+			manager.setLockListener(null);
+			manager.resume();
+		}
+		thread.join();
+		blocked.join();
+	}
 }
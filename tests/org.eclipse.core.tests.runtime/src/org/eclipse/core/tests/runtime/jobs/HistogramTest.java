@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM - Initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.tests.runtime.jobs;
+
+import junit.framework.TestCase;
+import org.eclipse.core.internal.jobs.Histogram;
+
+/**
+ * Tests for the histogram used to record job metrics.
+ */
+public class HistogramTest extends TestCase {
+	public HistogramTest(String name) {
+		super(name);
+	}
+
+	public void testBuckets() {
+		assertEquals("1.0", 0, Histogram.bucketOf(0));
+		assertEquals("1.1", 1, Histogram.bucketOf(1));
+		assertEquals("1.2", 2, Histogram.bucketOf(2));
+		assertEquals("1.3", 2, Histogram.bucketOf(3));
+		assertEquals("1.4", 3, Histogram.bucketOf(4));
+		assertEquals("1.5", 10, Histogram.bucketOf(1023));
+		assertEquals("1.6", 11, Histogram.bucketOf(1024));
+		assertEquals("1.7", Histogram.BUCKET_COUNT - 1, Histogram.bucketOf(Long.MAX_VALUE));
+	}
+
+	public void testPercentile() {
+		Histogram histogram = new Histogram();
+		assertEquals("1.0", 0, histogram.getPercentile(0.5));
+		//90 fast times and 10 slow times
+		for (int i = 0; i < 90; i++)
+			histogram.record(5);
+		for (int i = 0; i < 10; i++)
+			histogram.record(600);
+		assertEquals("2.0", 100, histogram.getCount());
+		assertEquals("2.1", 90 * 5 + 10 * 600, histogram.getTotal());
+		assertEquals("2.2", 600, histogram.getMax());
+		//the upper end of the bucket [4, 8)
+		assertEquals("2.3", 7, histogram.getPercentile(0.5));
+		assertEquals("2.4", 7, histogram.getPercentile(0.9));
+		//the upper end of the bucket [512, 1024) is larger than the maximum
+		assertEquals("2.5", 600, histogram.getPercentile(0.91));
+		assertEquals("2.6", 600, histogram.getPercentile(1.0));
+		long[] counts = histogram.getCounts();
+		assertEquals("2.7", 90, counts[3]);
+		assertEquals("2.8", 10, counts[10]);
+
+		//negative times are counted as 0
+		histogram.clear();
+		histogram.record(-5);
+		assertEquals("3.0", 1, histogram.getCounts()[0]);
+		assertEquals("3.1", 0, histogram.getTotal());
+	}
+}
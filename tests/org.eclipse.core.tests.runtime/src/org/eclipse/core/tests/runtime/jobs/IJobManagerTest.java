@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2010 IBM Corporation and others.
+ * Copyright (c) 2003, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -10,6 +10,7 @@
  *******************************************************************************/
 package org.eclipse.core.tests.runtime.jobs;
 
+import java.io.*;
 import java.util.*;
 import junit.framework.*;
 import org.eclipse.core.runtime.*;
@@ -51,6 +52,59 @@ public class IJobManagerTest extends AbstractJobManagerTest {
 		}
 	}
 
+	/**
+	 * Records the events of one job, and the threads that deliver them.
+	 */
+	class RecordingListener extends JobChangeAdapter {
+		final List events = new ArrayList();
+		final Job job;
+		final Set threads = new HashSet();
+
+		RecordingListener(Job job) {
+			this.job = job;
+		}
+
+		public void aboutToRun(IJobChangeEvent event) {
+			record(event, "aboutToRun");
+		}
+
+		public void done(IJobChangeEvent event) {
+			record(event, "done");
+		}
+
+		protected synchronized void record(IJobChangeEvent event, String name) {
+			if (event.getJob() != job)
+				return;
+			events.add(name);
+			threads.add(Thread.currentThread());
+			notifyAll();
+		}
+
+		public void running(IJobChangeEvent event) {
+			record(event, "running");
+		}
+
+		public void scheduled(IJobChangeEvent event) {
+			record(event, "scheduled");
+		}
+
+		/**
+		 * Waits until the given event is the last recorded event.
+		 */
+		synchronized void waitFor(String name) {
+			long end = System.currentTimeMillis() + 5000;
+			while (events.isEmpty() || !events.get(events.size() - 1).equals(name)) {
+				long remaining = end - System.currentTimeMillis();
+				assertTrue("Timeout waiting for " + name + ", got " + events, remaining > 0);
+				try {
+					wait(remaining);
+				} catch (InterruptedException e) {
+					//ignore
+				}
+			}
+		}
+	}
+
 	/**
 	 * Tests that are timing sensitive cannot be released in automated tests.
 	 * Set this flag to true to do manual timing sanity tests
@@ -137,6 +191,169 @@ public class IJobManagerTest extends AbstractJobManagerTest {
 		//		manager.startup();
 	}
 
+	/**
+	 * Creates jobs of the given family that record how many jobs of the family
+	 * run at the same time, and when they start.
+	 */
+	private Job[] createCountingJobs(final Object family, int count, final long duration, final int[] running, final List starts) {
+		Job[] jobs = new Job[count];
+		for (int i = 0; i < count; i++) {
+			jobs[i] = new Job("CountingJob" + i) {
+				public boolean belongsTo(Object object) {
+					return object == family;
+				}
+
+				protected IStatus run(IProgressMonitor monitor) {
+					synchronized (running) {
+						running[1] = Math.max(running[1], ++running[0]);
+						starts.add(new Long(System.currentTimeMillis()));
+					}
+					try {
+						Thread.sleep(duration);
+					} catch (InterruptedException e) {
+						//ignore
+					}
+					synchronized (running) {
+						running[0]--;
+					}
+					return Status.OK_STATUS;
+				}
+			};
+		}
+		return jobs;
+	}
+
+	/**
+	 * Tests that an asynchronous listener is notified of every event in
+	 * another thread.
+	 */
+	public void testAsyncJobChangeListener() {
+		TestJob job = new TestJob("testAsyncJobChangeListener", 0, 0);
+		RecordingListener listener = new RecordingListener(job);
+		manager.addAsyncJobChangeListener(listener, false);
+		try {
+			job.schedule();
+			listener.waitFor("done");
+		} finally {
+			manager.removeJobChangeListener(listener);
+		}
+		assertEquals("1.0", Arrays.asList(new String[] {"scheduled", "aboutToRun", "running", "done"}), listener.events);
+		assertEquals("1.1", 1, listener.threads.size());
+		Thread thread = (Thread) listener.threads.iterator().next();
+		assertTrue("1.2", thread != Thread.currentThread());
+		assertTrue("1.3", thread != job.getThread());
+
+		//no events after the listener is removed
+		job.schedule();
+		waitForCompletion(job, 5000);
+		assertEquals("2.0", 4, listener.events.size());
+	}
+
+	/**
+	 * Tests that a coalescing listener is only told about the last state of
+	 * a job that changed state while the listener was busy.
+	 */
+	public void testAsyncJobChangeListenerCoalesce() {
+		TestJob blocker = new TestJob("testAsyncJobChangeListenerCoalesce.blocker", 0, 0);
+		TestJob job = new TestJob("testAsyncJobChangeListenerCoalesce", 0, 0);
+		final boolean[] release = new boolean[] {false};
+		//keep the dispatcher busy with the first event of the blocking job
+		RecordingListener busy = new RecordingListener(blocker) {
+			protected synchronized void record(IJobChangeEvent event, String name) {
+				super.record(event, name);
+				while (!release[0]) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						//ignore
+					}
+				}
+			}
+		};
+		RecordingListener listener = new RecordingListener(job);
+		manager.addAsyncJobChangeListener(busy, true);
+		manager.addAsyncJobChangeListener(listener, true);
+		try {
+			blocker.schedule();
+			busy.waitFor("scheduled");
+			job.schedule();
+			waitForCompletion(job, 5000);
+			synchronized (busy) {
+				release[0] = true;
+				busy.notifyAll();
+			}
+			listener.waitFor("done");
+			busy.waitFor("done");
+		} finally {
+			manager.removeJobChangeListener(busy);
+			manager.removeJobChangeListener(listener);
+		}
+		assertEquals("1.0", Arrays.asList(new String[] {"done"}), listener.events);
+		assertEquals("1.1", Arrays.asList(new String[] {"scheduled", "done"}), busy.events);
+	}
+
+	/**
+	 * Tests that asynchronous listeners that are blocked do not make threads
+	 * wait when the listener is coalescing, or when the thread runs a job.
+	 */
+	public void testAsyncJobChangeListenerFull() {
+		final boolean[] release = new boolean[] {false};
+		//block the dispatcher in the first event
+		final IJobChangeListener blocked = new JobChangeAdapter() {
+			public synchronized void scheduled(IJobChangeEvent event) {
+				while (!release[0]) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						//ignore
+					}
+				}
+			}
+		};
+		IJobChangeListener listener = new JobChangeAdapter();
+		//more jobs than the events kept for a listener
+		final Job[] jobs = new Job[3000];
+		for (int i = 0; i < jobs.length; i++)
+			jobs[i] = new TestJob("testAsyncJobChangeListenerFull" + i, 0, 0);
+		manager.addAsyncJobChangeListener(blocked, true);
+		try {
+			//a coalescing listener never makes a thread wait
+			Thread scheduler = new Thread("testAsyncJobChangeListenerFull") {
+				public void run() {
+					for (int i = 0; i < jobs.length; i++)
+						jobs[i].schedule(1000000);
+				}
+			};
+			scheduler.start();
+			try {
+				scheduler.join(10000);
+			} catch (InterruptedException e) {
+				fail("1.99", e);
+			}
+			assertTrue("1.0", !scheduler.isAlive());
+			//a listener that is not coalescing does not make a job wait
+			manager.addAsyncJobChangeListener(listener, false);
+			Job canceler = new Job("testAsyncJobChangeListenerFull") {
+				protected IStatus run(IProgressMonitor monitor) {
+					for (int i = 0; i < jobs.length; i++)
+						jobs[i].cancel();
+					return Status.OK_STATUS;
+				}
+			};
+			canceler.schedule();
+			waitForCompletion(canceler, 10000);
+		} finally {
+			synchronized (blocked) {
+				release[0] = true;
+				blocked.notifyAll();
+			}
+			manager.removeJobChangeListener(blocked);
+			manager.removeJobChangeListener(listener);
+			for (int i = 0; i < jobs.length; i++)
+				jobs[i].cancel();
+		}
+	}
+
 	/**
 	 * Tests running a job that begins a rule but never ends it
 	 */
@@ -212,6 +429,190 @@ public class IJobManagerTest extends AbstractJobManagerTest {
 		waitForCompletion(jobB, 30000);
 	}
 
+	/**
+	 * Tests canceling jobs in different states at once.
+	 */
+	public void testCancelAll() {
+		ISchedulingRule rule = new PathRule("testCancelAll");
+		TestJob running = new TestJob("testCancelAll.running", 1000000, 10);
+		TestJob waiting = new TestJob("testCancelAll.waiting", 0, 0);
+		TestJob sleeping = new TestJob("testCancelAll.sleeping", 0, 0);
+		TestJob none = new TestJob("testCancelAll.none", 0, 0);
+		running.setRule(rule);
+		waiting.setRule(rule);
+		running.schedule();
+		waitForStart(running);
+		waiting.schedule();
+		sleeping.schedule(1000000);
+		assertState("1.0", waiting, Job.WAITING);
+		assertState("1.1", sleeping, Job.SLEEPING);
+
+		manager.cancelAll(new Job[] {running, waiting, sleeping, none});
+		assertState("2.0", waiting, Job.NONE);
+		assertState("2.1", sleeping, Job.NONE);
+		assertState("2.2", none, Job.NONE);
+		waitForCompletion();
+		assertEquals("3.0", IStatus.CANCEL, running.getResult().getSeverity());
+		assertEquals("3.1", 0, waiting.getRunCount());
+		assertEquals("3.2", 0, sleeping.getRunCount());
+	}
+
+	/**
+	 * Tests that no more jobs of a family run at the same time than its
+	 * concurrency limit allows, while other jobs are not limited.
+	 */
+	public void testConcurrencyLimit() throws InterruptedException {
+		Object family = new Object();
+		Object other = new Object();
+		//the number of running jobs, and the largest number seen
+		int[] running = new int[2];
+		int[] otherRunning = new int[2];
+		manager.setConcurrencyLimit(family, 2);
+		try {
+			manager.scheduleAll(createCountingJobs(family, 8, 50, running, new ArrayList()), 0);
+			manager.scheduleAll(createCountingJobs(other, 4, 50, otherRunning, new ArrayList()), 0);
+			manager.join(family, null);
+			manager.join(other, null);
+		} finally {
+			manager.setConcurrencyLimit(family, 0);
+		}
+		assertTrue("1.0", running[1] <= 2);
+		assertEquals("1.1", 0, running[0]);
+		assertTrue("1.2", otherRunning[1] > 2);
+	}
+
+	/**
+	 * Tests that the jobs of a limited family are only asked whether they
+	 * belong to the family when they are scheduled, and not each time
+	 * another job of the family could start.
+	 */
+	public void testConcurrencyLimitMembership() throws InterruptedException {
+		final Object family = new Object();
+		final int[] calls = new int[1];
+		final TestBarrier barrier = new TestBarrier();
+		Job member = new Job("testConcurrencyLimitMembership") {
+			public boolean belongsTo(Object object) {
+				synchronized (calls) {
+					calls[0]++;
+				}
+				return object == family;
+			}
+
+			protected IStatus run(IProgressMonitor monitor) {
+				barrier.setStatus(TestBarrier.STATUS_RUNNING);
+				barrier.waitForStatus(TestBarrier.STATUS_DONE);
+				return Status.OK_STATUS;
+			}
+		};
+		manager.setConcurrencyLimit(family, 2);
+		try {
+			member.schedule();
+			barrier.waitForStatus(TestBarrier.STATUS_RUNNING);
+			int before;
+			synchronized (calls) {
+				before = calls[0];
+			}
+			Job[] others = createCountingJobs(family, 4, 0, new int[2], new ArrayList());
+			manager.scheduleAll(others, 0);
+			for (int i = 0; i < others.length; i++)
+				others[i].join();
+			synchronized (calls) {
+				assertEquals("1.0", before, calls[0]);
+			}
+		} finally {
+			barrier.setStatus(TestBarrier.STATUS_DONE);
+			member.join();
+			manager.setConcurrencyLimit(family, 0);
+		}
+	}
+
+	/**
+	 * Tests the contentions recorded while contention profiling is enabled.
+	 */
+	public void testContentionProfile() throws IOException, InterruptedException {
+		ISchedulingRule rule = new PathRule("testContentionProfile");
+		TestJob blocker = new TestJob("testContentionProfile.blocker", 10, 20);
+		TestJob member = new TestJob("testContentionProfile.member", 0, 0) {
+			//a class of its own
+		};
+		blocker.setRule(rule);
+		member.setRule(rule);
+		final ILock lock = manager.newLock();
+		Thread waiter = new Thread("testContentionProfile.waiter") {
+			public void run() {
+				lock.acquire();
+				lock.release();
+			}
+		};
+		manager.setContentionProfilingEnabled(true);
+		try {
+			blocker.schedule();
+			waitForStart(blocker);
+			member.schedule();
+			//this thread is blocked by the blocker as well
+			manager.beginRule(rule, null);
+			manager.endRule(rule);
+			waitForCompletion();
+			lock.acquire();
+			try {
+				waiter.start();
+				Thread.sleep(100);
+			} finally {
+				lock.release();
+			}
+			waiter.join();
+		} finally {
+			manager.setContentionProfilingEnabled(false);
+		}
+		String blocked = " blocked by " + TestJob.class.getName() + " on " + PathRule.class.getName();
+		IContention memberContention = null, threadContention = null, lockContention = null;
+		IContention[] all = manager.getContentions(0);
+		for (int i = 0; i < all.length; i++) {
+			if (i > 0)
+				assertTrue("1.0", all[i - 1].getTotalTime() >= all[i].getTotalTime());
+			if (all[i].getName().equals(member.getClass().getName() + blocked))
+				memberContention = all[i];
+			else if (all[i].getName().equals(Thread.currentThread().getClass().getName() + blocked))
+				threadContention = all[i];
+			else if (all[i].getName().equals(lock.toString()))
+				lockContention = all[i];
+		}
+		assertNotNull("1.1", memberContention);
+		assertEquals("1.2", 1, memberContention.getCount());
+		assertTrue("1.3", memberContention.getTotalTime() >= 50);
+		assertEquals("1.4", memberContention.getTotalTime(), memberContention.getMaximumTime());
+		assertNotNull("1.5", threadContention);
+		assertEquals("1.6", 1, threadContention.getCount());
+		assertNotNull("1.7", lockContention);
+		assertEquals("1.8", 1, lockContention.getCount());
+		assertTrue("1.9", lockContention.getTotalTime() > 0);
+		IContention[] top = manager.getContentions(1);
+		assertEquals("2.0", 1, top.length);
+		assertEquals("2.1", all[0].getName(), top[0].getName());
+
+		//the dump has a header and a line per contention
+		File file = File.createTempFile("contentions", ".txt");
+		try {
+			manager.dumpContentions(file);
+			BufferedReader reader = new BufferedReader(new FileReader(file));
+			try {
+				assertTrue("3.0", reader.readLine().startsWith("Total"));
+				for (int i = 0; i < all.length; i++)
+					assertTrue("3.1." + i, reader.readLine().endsWith('\t' + all[i].getName()));
+				assertNull("3.2", reader.readLine());
+			} finally {
+				reader.close();
+			}
+		} finally {
+			file.delete();
+		}
+
+		//enabling profiling again discards the contentions
+		manager.setContentionProfilingEnabled(true);
+		manager.setContentionProfilingEnabled(false);
+		assertEquals("4.0", 0, manager.getContentions(0).length);
+	}
+
 	/**
 	 * This is a regression test for bug 71448. IJobManager.currentJob was not 
 	 * returning the correct value when executed in a thread that is performing
@@ -320,6 +721,95 @@ public class IJobManagerTest extends AbstractJobManagerTest {
 		assertNull(manager.currentRule());
 	}
 
+	/**
+	 * Tests that waiting jobs run in the order of the time they should start
+	 * by: a job with a short deadline overtakes background jobs, but not a
+	 * job that has been waiting for longer than its priority can tolerate.
+	 */
+	public void testDeadline() throws InterruptedException {
+		final Object family = new Object();
+		final List order = Collections.synchronizedList(new ArrayList());
+		Job[] jobs = new Job[5];
+		for (int i = 0; i < jobs.length; i++) {
+			jobs[i] = new Job("DeadlineJob" + i) {
+				public boolean belongsTo(Object object) {
+					return object == family;
+				}
+
+				protected IStatus run(IProgressMonitor monitor) {
+					order.add(this);
+					return Status.OK_STATUS;
+				}
+			};
+		}
+		Job aged = jobs[0];
+		Job urgent = jobs[4];
+		aged.setPriority(Job.BUILD);
+		urgent.setDeadline(0);
+		assertEquals("1.0", 0, urgent.getDeadline());
+		//start the jobs one at a time, in the order of the wait queue
+		manager.setRateLimit(family, 1, 50);
+		manager.suspend();
+		try {
+			aged.schedule();
+			Thread.sleep(600);
+			for (int i = 1; i < jobs.length; i++)
+				jobs[i].schedule();
+		} finally {
+			manager.resume();
+		}
+		try {
+			manager.join(family, null);
+		} finally {
+			manager.setRateLimit(family, 0, 0);
+		}
+		assertEquals("1.1", jobs.length, order.size());
+		assertEquals("1.2", aged, order.get(0));
+		assertEquals("1.3", urgent, order.get(1));
+	}
+
+	/**
+	 * Tests that a filtered listener is only notified of the events it is
+	 * interested in, for the jobs in its family.
+	 */
+	public void testFilteredJobChangeListener() {
+		final Object family = new Object();
+		final int[] familyChecks = new int[] {0};
+		TestJob member = new TestJob("testFilteredJobChangeListener.member", 0, 0) {
+			public boolean belongsTo(Object object) {
+				if (object != family)
+					return super.belongsTo(object);
+				synchronized (familyChecks) {
+					familyChecks[0]++;
+				}
+				return true;
+			}
+		};
+		TestJob other = new TestJob("testFilteredJobChangeListener.other", 0, 0);
+		RecordingListener scheduledAndDone = new RecordingListener(member);
+		RecordingListener runningAndDone = new RecordingListener(member);
+		RecordingListener otherListener = new RecordingListener(other);
+		manager.addJobChangeListener(scheduledAndDone, family, IJobChangeEvent.SCHEDULED | IJobChangeEvent.DONE);
+		manager.addJobChangeListener(runningAndDone, family, IJobChangeEvent.RUNNING | IJobChangeEvent.DONE);
+		manager.addJobChangeListener(otherListener, family, IJobChangeEvent.ALL);
+		try {
+			other.schedule();
+			member.schedule();
+			scheduledAndDone.waitFor("done");
+			runningAndDone.waitFor("done");
+			waitForCompletion(other, 5000);
+		} finally {
+			manager.removeJobChangeListener(scheduledAndDone);
+			manager.removeJobChangeListener(runningAndDone);
+			manager.removeJobChangeListener(otherListener);
+		}
+		assertEquals("1.0", Arrays.asList(new String[] {"scheduled", "done"}), scheduledAndDone.events);
+		assertEquals("1.1", Arrays.asList(new String[] {"running", "done"}), runningAndDone.events);
+		assertEquals("1.2", Collections.EMPTY_LIST, otherListener.events);
+		//the family is checked once for each of the scheduled, aboutToRun, running and done events
+		assertEquals("1.3", 4, familyChecks[0]);
+	}
+
 	/**
 	 * Runs a sequence of begin/end rules and asserts that the
 	 * job rule is always returned by {@link IJobManager#currentRule()}.
@@ -452,6 +942,51 @@ public class IJobManagerTest extends AbstractJobManagerTest {
 		}
 	}
 
+	/**
+	 * Tests finding, putting to sleep, waking up, joining and canceling jobs
+	 * of a declared family, together with jobs that only answer belongsTo.
+	 */
+	public void testJobFamilyDeclared() throws InterruptedException {
+		final TestJobFamily family = new TestJobFamily(TestJobFamily.TYPE_ONE);
+		Job[] declared = new Job[4];
+		for (int i = 0; i < declared.length; i++) {
+			declared[i] = new Job("TestDeclaredFamily", family) {
+				protected IStatus run(IProgressMonitor monitor) {
+					return Status.OK_STATUS;
+				}
+			};
+		}
+		Job undeclared = new FamilyTestJob("TestFirstFamily", 10, 10, TestJobFamily.TYPE_ONE);
+		Job other = new Job("TestOtherFamily", new TestJobFamily(TestJobFamily.TYPE_TWO)) {
+			protected IStatus run(IProgressMonitor monitor) {
+				return Status.OK_STATUS;
+			}
+		};
+		assertTrue("1.0", declared[0].belongsTo(family));
+		assertTrue("1.1", !declared[0].belongsTo(new TestJobFamily(TestJobFamily.TYPE_TWO)));
+		assertEquals("1.2", 0, manager.find(family).length);
+
+		manager.scheduleAll(declared, 1000000);
+		undeclared.schedule(1000000);
+		other.schedule(1000000);
+		assertEquals("2.0", 5, manager.find(family).length);
+		manager.sleep(family);
+		assertEquals("2.1", Job.SLEEPING, declared[0].getState());
+		manager.wakeUp(family);
+		manager.join(family, null);
+		assertEquals("2.2", 0, manager.find(family).length);
+		assertEquals("2.3", IStatus.OK, declared[3].getResult().getSeverity());
+		assertEquals("2.4", Job.SLEEPING, other.getState());
+
+		//jobs that are done can be scheduled and found again
+		manager.scheduleAll(declared, 1000000);
+		assertEquals("3.0", 4, manager.find(family).length);
+		manager.cancel(family);
+		assertEquals("3.1", 0, manager.find(family).length);
+		assertEquals("3.2", Job.NONE, declared[0].getState());
+		other.cancel();
+	}
+
 	public void testJobFamilyFind() {
 		//test of finding jobs based on the job family they belong to
 		final int NUM_JOBS = 20;
@@ -629,6 +1164,81 @@ public class IJobManagerTest extends AbstractJobManagerTest {
 		allJobs.clear();
 	}
 
+	public void testJobFamilyFuture() throws InterruptedException {
+		final TestJobFamily family = new TestJobFamily(TestJobFamily.TYPE_ONE);
+		//a family without jobs has a done future
+		IJobFuture future = manager.getFuture(family);
+		assertTrue("1.0", future.isDone());
+		assertEquals("1.1", Status.OK_STATUS, future.getResult());
+
+		Job first = new FamilyTestJob("TestFirstFamily", 1000000, 10, TestJobFamily.TYPE_ONE);
+		Job second = new FamilyTestJob("TestFirstFamily", 1000000, 10, TestJobFamily.TYPE_ONE);
+		Job other = new FamilyTestJob("TestSecondFamily", 1000000, 10, TestJobFamily.TYPE_TWO);
+		first.schedule(1000000);
+		other.schedule(1000000);
+		future = manager.getFuture(family);
+		final boolean[] done = new boolean[1];
+		future.whenDone(new Runnable() {
+			public void run() {
+				done[0] = true;
+			}
+		});
+		//jobs of the family that are scheduled later are waited for as well
+		second.schedule(1000000);
+		first.cancel();
+		assertTrue("2.0", !future.isDone());
+		assertNull("2.1", future.waitFor(10, null));
+		second.cancel();
+		assertEquals("2.2", Status.OK_STATUS, future.waitFor(5000, null));
+		assertTrue("2.3", done[0]);
+		assertEquals("2.4", Job.SLEEPING, other.getState());
+		other.cancel();
+	}
+
+	/**
+	 * Tests that the future of a family waits for a job of the family whose
+	 * listeners are being notified that it is scheduled while the future is
+	 * created.
+	 */
+	public void testJobFamilyFutureScheduleRace() throws InterruptedException {
+		final Object family = new Object();
+		Job first = new TestJob("testJobFamilyFutureScheduleRace.first") {
+			public boolean belongsTo(Object object) {
+				return object == family;
+			}
+		};
+		final Job second = new TestJob("testJobFamilyFutureScheduleRace.second") {
+			public boolean belongsTo(Object object) {
+				return object == family;
+			}
+		};
+		final TestBarrier barrier = new TestBarrier();
+		//hold the notification that the second job is scheduled, after the
+		//global listeners have been notified
+		second.addJobChangeListener(new JobChangeAdapter() {
+			public void scheduled(IJobChangeEvent event) {
+				barrier.setStatus(TestBarrier.STATUS_RUNNING);
+				barrier.waitForStatus(TestBarrier.STATUS_DONE);
+			}
+		});
+		Thread scheduler = new Thread("testJobFamilyFutureScheduleRace") {
+			public void run() {
+				second.schedule(1000000);
+			}
+		};
+		first.schedule(1000000);
+		scheduler.start();
+		barrier.waitForStatus(TestBarrier.STATUS_RUNNING);
+		IJobFuture future = manager.getFuture(family);
+		barrier.setStatus(TestBarrier.STATUS_DONE);
+		scheduler.join();
+		assertEquals("1.0", Job.SLEEPING, second.getState());
+		first.cancel();
+		assertTrue("1.1", !future.isDone());
+		second.cancel();
+		assertEquals("1.2", Status.OK_STATUS, future.waitFor(5000, null));
+	}
+
 	public void testJobFamilyJoin() {
 		//test the join method on a family of jobs
 		final int[] status = new int[1];
@@ -1141,6 +1751,61 @@ public class IJobManagerTest extends AbstractJobManagerTest {
 		}
 	}
 
+	/**
+	 * Tests the times recorded while metrics are enabled.
+	 */
+	public void testMetrics() {
+		final Object family = new Object();
+		ISchedulingRule rule = new PathRule("testMetrics");
+		TestJob blocker = new TestJob("testMetrics.blocker", 10, 20);
+		TestJob member = new TestJob("testMetrics.member", 0, 0) {
+			public boolean belongsTo(Object object) {
+				return object == family || super.belongsTo(object);
+			}
+		};
+		blocker.setRule(rule);
+		member.setRule(rule);
+		IJobMetrics all = manager.getMetrics(null);
+		IJobMetrics familyMetrics = manager.getMetrics(family);
+		assertSame("1.0", familyMetrics, manager.getMetrics(family));
+		assertEquals("1.1", 0, familyMetrics.getCount());
+		long allCount = all.getCount();
+		manager.setMetricsEnabled(true);
+		try {
+			blocker.schedule();
+			waitForStart(blocker);
+			member.schedule();
+			waitForCompletion();
+		} finally {
+			manager.setMetricsEnabled(false);
+		}
+		assertTrue("2.0", all.getCount() >= allCount + 2);
+		assertEquals("2.1", 1, familyMetrics.getCount());
+		//the member was blocked until the blocker was done
+		assertTrue("2.2", familyMetrics.getTotalTime(IJobMetrics.BLOCKED) >= 50);
+		assertTrue("2.3", familyMetrics.getMaximumTime(IJobMetrics.RUN) < familyMetrics.getTotalTime(IJobMetrics.BLOCKED));
+		long[] histogram = familyMetrics.getHistogram(IJobMetrics.BLOCKED);
+		long sum = 0;
+		for (int i = 0; i < histogram.length; i++)
+			sum += histogram[i];
+		assertEquals("2.4", 1, sum);
+		//the class of the member is recorded
+		IJobMetrics[] byClass = manager.getJobClassMetrics();
+		IJobMetrics memberClass = null;
+		for (int i = 0; i < byClass.length; i++)
+			if (byClass[i].getName().equals(member.getClass().getName()))
+				memberClass = byClass[i];
+		assertNotNull("3.0", memberClass);
+		assertEquals("3.1", 1, memberClass.getCount());
+
+		//nothing is recorded while disabled
+		member.schedule();
+		waitForCompletion();
+		assertEquals("4.0", 1, familyMetrics.getCount());
+		familyMetrics.reset();
+		assertEquals("4.1", 0, familyMetrics.getCount());
+	}
+
 	/**
 	 * Tests the API method IJobManager.wakeUp(family)
 	 */
@@ -1308,6 +1973,70 @@ public class IJobManagerTest extends AbstractJobManagerTest {
 		}
 	}
 
+	/**
+	 * Tests that the jobs of a family do not start faster than its rate limit allows.
+	 */
+	public void testRateLimit() throws InterruptedException {
+		Object family = new Object();
+		int[] running = new int[2];
+		List starts = new ArrayList();
+		manager.setRateLimit(family, 2, 200);
+		try {
+			manager.scheduleAll(createCountingJobs(family, 6, 0, running, starts), 0);
+			manager.join(family, null);
+		} finally {
+			manager.setRateLimit(family, 0, 0);
+		}
+		assertEquals("1.0", 6, starts.size());
+		//two jobs start at once, and the other four one every 100ms
+		long first = ((Long) starts.get(0)).longValue();
+		long last = ((Long) starts.get(5)).longValue();
+		assertTrue("1.1", last - first >= 350);
+	}
+
+	/**
+	 * Tests that a job that waits for the rate limit of its family is reported
+	 * as waiting, and is not put to sleep.
+	 */
+	public void testRateLimitState() throws InterruptedException {
+		Object family = new Object();
+		final List sleeping = Collections.synchronizedList(new ArrayList());
+		IJobChangeListener listener = new JobChangeAdapter() {
+			public void sleeping(IJobChangeEvent event) {
+				sleeping.add(event.getJob());
+			}
+		};
+		Job[] jobs = createCountingJobs(family, 2, 0, new int[2], new ArrayList());
+		manager.setRateLimit(family, 1, 60000);
+		manager.addJobChangeListener(listener);
+		try {
+			manager.scheduleAll(jobs, 0);
+			//one job runs, and the other waits for a minute
+			long end = System.currentTimeMillis() + 5000;
+			while (jobs[0].getState() != Job.NONE && jobs[1].getState() != Job.NONE) {
+				assertTrue("1.0", System.currentTimeMillis() < end);
+				Thread.sleep(10);
+			}
+			Job limited = jobs[0].getState() == Job.NONE ? jobs[1] : jobs[0];
+			for (int i = 0; i < 20; i++) {
+				assertEquals("2." + i, Job.WAITING, limited.getState());
+				Thread.sleep(10);
+			}
+			//wake up has no effect on a job that is waiting
+			limited.wakeUp();
+			assertEquals("3.0", Job.WAITING, limited.getState());
+			assertEquals("3.1", 0, sleeping.size());
+			//a waiting job can be put to sleep
+			assertTrue("4.0", limited.sleep());
+			assertEquals("4.1", Job.SLEEPING, limited.getState());
+			assertEquals("4.2", Arrays.asList(new Job[] {limited}), sleeping);
+		} finally {
+			manager.removeJobChangeListener(listener);
+			manager.cancelAll(jobs);
+			manager.setRateLimit(family, 0, 0);
+		}
+	}
+
 	public void testReverseOrder() {
 		//ensure jobs are run in order from lowest to highest sleep time.
 		final List done = Collections.synchronizedList(new ArrayList());
@@ -1341,6 +2070,39 @@ public class IJobManagerTest extends AbstractJobManagerTest {
 		}
 	}
 
+	/**
+	 * Tests scheduling several jobs at once.
+	 */
+	public void testScheduleAll() {
+		final int JOB_COUNT = 20;
+		TestJob[] jobs = new TestJob[JOB_COUNT];
+		for (int i = 0; i < JOB_COUNT; i++)
+			jobs[i] = new TestJob("testScheduleAll(" + i + ")", 0, 0);
+		Job vetoed = new TestJob("testScheduleAll.vetoed", 0, 0) {
+			public boolean shouldSchedule() {
+				return false;
+			}
+		};
+		//a job that appears twice is only scheduled once
+		Job[] batch = new Job[JOB_COUNT + 2];
+		System.arraycopy(jobs, 0, batch, 0, JOB_COUNT);
+		batch[JOB_COUNT] = jobs[0];
+		batch[JOB_COUNT + 1] = vetoed;
+		manager.scheduleAll(batch, 0);
+		assertState("1.0", vetoed, Job.NONE);
+		waitForCompletion();
+		for (int i = 0; i < JOB_COUNT; i++)
+			assertEquals("1.1." + i, 1, jobs[i].getRunCount());
+
+		//schedule the jobs with a delay
+		manager.scheduleAll(jobs, 100);
+		for (int i = 0; i < JOB_COUNT; i++)
+			assertState("2.0." + i, jobs[i], Job.SLEEPING);
+		waitForCompletion();
+		for (int i = 0; i < JOB_COUNT; i++)
+			assertEquals("2.1." + i, 2, jobs[i].getRunCount());
+	}
+
 	/**
 	 * Tests conditions where there is a race to schedule the same job multiple times.
 	 */
@@ -1425,6 +2187,59 @@ public class IJobManagerTest extends AbstractJobManagerTest {
 		assertTrue("3.4", job.cancel()); //should be possible to cancel a sleeping job
 	}
 
+	/**
+	 * Tests putting several jobs to sleep and waking them up at once.
+	 */
+	public void testSleepAllWakeUpAll() {
+		final int JOB_COUNT = 10;
+		final int[] sleepingCount = new int[1];
+		final int[] awakeCount = new int[1];
+		IJobChangeListener listener = new JobChangeAdapter() {
+			public void awake(IJobChangeEvent event) {
+				synchronized (awakeCount) {
+					awakeCount[0]++;
+				}
+			}
+
+			public void sleeping(IJobChangeEvent event) {
+				synchronized (sleepingCount) {
+					sleepingCount[0]++;
+				}
+			}
+		};
+		ISchedulingRule rule = new PathRule("testSleepAllWakeUpAll");
+		TestJob blocking = new TestJob("testSleepAllWakeUpAll.blocking", 1000000, 10);
+		blocking.setRule(rule);
+		blocking.schedule();
+		waitForStart(blocking);
+		//half of the jobs wait for the blocking job, the others sleep
+		TestJob[] jobs = new TestJob[JOB_COUNT];
+		for (int i = 0; i < JOB_COUNT; i++) {
+			jobs[i] = new TestJob("testSleepAllWakeUpAll(" + i + ")", 0, 0);
+			jobs[i].setRule(rule);
+			jobs[i].addJobChangeListener(listener);
+			jobs[i].schedule(i % 2 == 0 ? 0 : 1000000);
+		}
+		manager.sleepAll(jobs);
+		for (int i = 0; i < JOB_COUNT; i++)
+			assertState("1.0." + i, jobs[i], Job.SLEEPING);
+		//only the jobs that were waiting are reported as sleeping
+		assertEquals("1.1", JOB_COUNT / 2, sleepingCount[0]);
+
+		//the jobs must not run when the blocking job is done
+		blocking.cancel();
+		waitForCompletion(blocking);
+		sleep(100);
+		for (int i = 0; i < JOB_COUNT; i++)
+			assertState("2.0." + i, jobs[i], Job.SLEEPING);
+
+		manager.wakeUpAll(jobs);
+		assertEquals("3.0", JOB_COUNT, awakeCount[0]);
+		waitForCompletion();
+		for (int i = 0; i < JOB_COUNT; i++)
+			assertEquals("3.1." + i, 1, jobs[i].getRunCount());
+	}
+
 	public void testSleepOnWait() {
 		final ISchedulingRule rule = new PathRule("testSleepOnWait");
 		TestJob blockingJob = new TestJob("Long Job", 1000000, 10);
@@ -1455,6 +2270,42 @@ public class IJobManagerTest extends AbstractJobManagerTest {
 		waitForCompletion(job);
 	}
 
+	/**
+	 * Tests that removing many sleeping jobs in random order does not
+	 * prevent the remaining jobs from waking up.
+	 */
+	public void testSleepingJobsCancel() {
+		final int JOB_COUNT = 200;
+		Random random = new Random(1234);
+		TestJob[] jobs = new TestJob[JOB_COUNT];
+		for (int i = 0; i < JOB_COUNT; i++) {
+			jobs[i] = new TestJob("testSleepingJobsCancel(" + i + ")", 0, 0);
+			//every fourth job wakes up soon, the others sleep for a long time or forever
+			if (i % 4 == 0)
+				jobs[i].schedule(100 + random.nextInt(200));
+			else
+				jobs[i].schedule(100000 + random.nextInt(100000));
+			if (i % 8 == 1)
+				jobs[i].sleep();
+		}
+		//cancel the long sleeping jobs in random order
+		List toCancel = new ArrayList();
+		for (int i = 0; i < JOB_COUNT; i++)
+			if (i % 4 != 0)
+				toCancel.add(jobs[i]);
+		Collections.shuffle(toCancel, random);
+		for (Iterator it = toCancel.iterator(); it.hasNext();) {
+			Job job = (Job) it.next();
+			assertState("1.0", job, Job.SLEEPING);
+			assertTrue("1.1", job.cancel());
+			assertState("1.2", job, Job.NONE);
+		}
+		//the remaining jobs must still wake up and run
+		waitForCompletion();
+		for (int i = 0; i < JOB_COUNT; i += 4)
+			assertEquals("2." + i, 1, jobs[i].getRunCount());
+	}
+
 	public void testSuspend() {
 		assertTrue("1.0", !manager.isSuspended());
 		manager.suspend();
@@ -0,0 +1,256 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM - Initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.tests.runtime.jobs;
+
+import java.util.ArrayList;
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.*;
+import org.eclipse.core.tests.harness.TestBarrier;
+
+/**
+ * Tests for {@link JobGraph}.
+ */
+public class JobGraphTest extends AbstractJobTest {
+	/**
+	 * A job that adds its name to a list when it runs, and returns a given result.
+	 */
+	class RecordingJob extends Job {
+		private final ArrayList order;
+		private final IStatus result;
+
+		RecordingJob(String name, ArrayList order) {
+			this(name, order, Status.OK_STATUS);
+		}
+
+		RecordingJob(String name, ArrayList order, IStatus result) {
+			super(name);
+			this.order = order;
+			this.result = result;
+		}
+
+		protected IStatus run(IProgressMonitor monitor) {
+			synchronized (order) {
+				order.add(getName());
+			}
+			return result;
+		}
+	}
+
+	public static Test suite() {
+		return new TestSuite(JobGraphTest.class);
+	}
+
+	private IStatus waitFor(JobGraph graph) throws InterruptedException {
+		IStatus result = graph.getFuture().waitFor(10000, null);
+		assertNotNull("Job graph did not finish", result);
+		return result;
+	}
+
+	/**
+	 * Tests that each job runs after all of its predecessors.
+	 */
+	public void testDependencies() throws InterruptedException {
+		ArrayList order = new ArrayList();
+		Job a = new RecordingJob("A", order);
+		Job b = new RecordingJob("B", order);
+		Job c = new RecordingJob("C", order);
+		Job d = new RecordingJob("D", order);
+		JobGraph graph = new JobGraph();
+		graph.add(b, new Job[] {a});
+		graph.add(c, new Job[] {a});
+		graph.add(d, new Job[] {b, c});
+		assertEquals("1.0", 4, graph.getJobs().length);
+		graph.schedule();
+		assertEquals("1.1", Status.OK_STATUS, waitFor(graph));
+		assertEquals("1.2", 4, order.size());
+		assertEquals("1.3", "A", order.get(0));
+		assertEquals("1.4", "D", order.get(3));
+		assertEquals("1.5", IStatus.OK, d.getResult().getSeverity());
+	}
+
+	/**
+	 * Tests that the jobs that depend on a failed job do not run.
+	 */
+	public void testFailure() throws InterruptedException {
+		ArrayList order = new ArrayList();
+		IStatus error = new Status(IStatus.ERROR, "org.eclipse.core.tests.runtime", "failure");
+		Job a = new RecordingJob("A", order);
+		Job b = new RecordingJob("B", order, error);
+		Job c = new RecordingJob("C", order);
+		Job d = new RecordingJob("D", order);
+		Job e = new RecordingJob("E", order);
+		JobGraph graph = new JobGraph();
+		graph.add(b, new Job[] {a});
+		graph.add(c, new Job[] {b});
+		graph.add(d, new Job[] {c});
+		graph.add(e, new Job[] {a});
+		graph.schedule();
+		assertEquals("1.0", error, waitFor(graph));
+		assertTrue("1.1", order.contains("A"));
+		assertTrue("1.2", order.contains("B"));
+		assertTrue("1.3", order.contains("E"));
+		assertEquals("1.4", 3, order.size());
+		assertNull("1.5", c.getResult());
+		assertNull("1.6", d.getResult());
+	}
+
+	/**
+	 * Tests that canceling a graph cancels the scheduled jobs, and the jobs
+	 * that are waiting for their predecessors.
+	 */
+	public void testCancel() throws InterruptedException {
+		ArrayList order = new ArrayList();
+		final TestBarrier barrier = new TestBarrier(TestBarrier.STATUS_START);
+		Job a = new Job("A") {
+			protected IStatus run(IProgressMonitor monitor) {
+				barrier.setStatus(TestBarrier.STATUS_RUNNING);
+				while (!monitor.isCanceled())
+					Thread.yield();
+				return Status.OK_STATUS;
+			}
+		};
+		Job b = new RecordingJob("B", order);
+		JobGraph graph = new JobGraph();
+		graph.add(b, new Job[] {a});
+		graph.schedule();
+		barrier.waitForStatus(TestBarrier.STATUS_RUNNING);
+		graph.cancel();
+		assertEquals("1.0", IStatus.CANCEL, waitFor(graph).getSeverity());
+		a.join();
+		assertEquals("1.1", 0, order.size());
+		assertEquals("1.2", Job.NONE, b.getState());
+	}
+
+	/**
+	 * Tests that canceling a graph cancels a job that is being released.
+	 */
+	public void testCancelRelease() throws InterruptedException {
+		ArrayList order = new ArrayList();
+		final JobGraph graph = new JobGraph();
+		//cancel the graph after the job is released, before it is scheduled
+		Job a = new RecordingJob("A", order) {
+			public boolean shouldSchedule() {
+				graph.cancel();
+				return true;
+			}
+		};
+		Job b = new RecordingJob("B", order);
+		graph.add(b, new Job[] {a});
+		graph.schedule();
+		assertEquals("1.0", IStatus.CANCEL, waitFor(graph).getSeverity());
+		a.join();
+		assertEquals("1.1", 0, order.size());
+		assertEquals("1.2", Job.NONE, a.getState());
+	}
+
+	/**
+	 * Tests that canceling a job of a graph cancels the jobs that depend on it.
+	 */
+	public void testCancelJob() throws InterruptedException {
+		ArrayList order = new ArrayList();
+		Job a = new RecordingJob("A", order);
+		Job b = new RecordingJob("B", order);
+		Job c = new RecordingJob("C", order);
+		JobGraph graph = new JobGraph();
+		graph.add(b, new Job[] {a});
+		graph.add(c, new Job[] {a});
+		//a job that should not be scheduled is canceled
+		Job d = new RecordingJob("D", order) {
+			public boolean shouldSchedule() {
+				return false;
+			}
+		};
+		graph.add(d, new Job[] {b});
+		//the first job stays waiting while the job manager is suspended
+		Job e = new RecordingJob("E", order);
+		graph.add(a, new Job[] {e});
+		Job.getJobManager().suspend();
+		try {
+			graph.schedule();
+			assertEquals("1.0", Job.WAITING, e.getState());
+			e.cancel();
+		} finally {
+			Job.getJobManager().resume();
+		}
+		assertEquals("1.1", IStatus.CANCEL, waitFor(graph).getSeverity());
+		assertEquals("1.2", 0, order.size());
+	}
+
+	/**
+	 * Tests that a graph with a cycle cannot be scheduled.
+	 */
+	public void testCycle() {
+		ArrayList order = new ArrayList();
+		Job a = new RecordingJob("A", order);
+		Job b = new RecordingJob("B", order);
+		Job c = new RecordingJob("C", order);
+		JobGraph graph = new JobGraph();
+		graph.add(b, new Job[] {a});
+		graph.add(c, new Job[] {b});
+		graph.add(a, new Job[] {c});
+		try {
+			graph.schedule();
+			fail("1.0");
+		} catch (IllegalArgumentException e) {
+			//expected
+		}
+		assertTrue("1.1", !graph.getFuture().isDone());
+		//a job can only belong to one graph
+		try {
+			new JobGraph().add(a, new Job[0]);
+			fail("2.0");
+		} catch (IllegalArgumentException e) {
+			//expected
+		}
+	}
+
+	/**
+	 * Tests that a graph without jobs is done when it is scheduled.
+	 */
+	public void testEmpty() {
+		JobGraph graph = new JobGraph();
+		assertTrue("1.0", !graph.getFuture().isDone());
+		graph.schedule();
+		assertEquals("1.1", Status.OK_STATUS, graph.getFuture().getResult());
+		try {
+			graph.schedule();
+			fail("1.2");
+		} catch (IllegalStateException e) {
+			//expected
+		}
+	}
+
+	/**
+	 * Tests that jobs that are ready at the same time are scheduled starting
+	 * with the longest chain of dependent jobs.
+	 */
+	public void testCriticalPath() throws InterruptedException {
+		ArrayList order = new ArrayList();
+		ISchedulingRule rule = new IdentityRule();
+		Job shortChain = new RecordingJob("Short", order);
+		Job longChain = new RecordingJob("Long", order);
+		Job next = new RecordingJob("Next", order);
+		Job last = new RecordingJob("Last", order);
+		//the same rule makes the ready jobs run in the order they are scheduled
+		shortChain.setRule(rule);
+		longChain.setRule(rule);
+		JobGraph graph = new JobGraph();
+		graph.add(shortChain, new Job[0]);
+		graph.add(longChain, new Job[0]);
+		graph.add(next, new Job[] {longChain});
+		graph.add(last, new Job[] {next});
+		graph.schedule();
+		assertEquals("1.0", Status.OK_STATUS, waitFor(graph));
+		assertEquals("1.1", "Long", order.get(0));
+	}
+}
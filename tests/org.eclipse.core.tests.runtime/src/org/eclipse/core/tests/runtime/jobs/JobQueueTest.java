@@ -10,11 +10,13 @@
  *******************************************************************************/
 package org.eclipse.core.tests.runtime.jobs;
 
+import java.lang.reflect.Field;
+import java.util.*;
 import junit.framework.TestCase;
 import org.eclipse.core.internal.jobs.InternalJob;
 import org.eclipse.core.internal.jobs.JobQueue;
 import org.eclipse.core.runtime.*;
-import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.jobs.*;
 
 /**
  * 
@@ -31,6 +33,84 @@ public class JobQueueTest extends TestCase {
 		}
 	}
 
+	/**
+	 * An entry whose start time and wait queue stamp can be set by the test.
+	 */
+	class TimedEntry extends InternalJob {
+		final ISchedulingRule rule;
+		long startTime;
+		long stamp;
+
+		TimedEntry(ISchedulingRule rule) {
+			super("TimedEntry");
+			this.rule = rule;
+			setRule(rule);
+		}
+
+		protected IStatus run(IProgressMonitor monitor) {
+			return Status.OK_STATUS;
+		}
+
+		void setTimes(long newStartTime, long newStamp) {
+			this.startTime = newStartTime;
+			this.stamp = newStamp;
+			try {
+				setLongField("startTime", newStartTime);
+				setLongField("waitQueueStamp", newStamp);
+			} catch (Exception e) {
+				fail("Unable to set field: " + e);
+			}
+		}
+
+		private void setLongField(String name, long value) throws Exception {
+			Field field = InternalJob.class.getDeclaredField(name);
+			field.setAccessible(true);
+			field.setLong(this, value);
+		}
+
+		public String toString() {
+			return "TimedEntry(" + startTime + ", " + stamp + ", " + rule + ")";
+		}
+	}
+
+	/**
+	 * The linked list algorithm used by JobQueue before it was backed by a tree.
+	 * The first element of the list is the head of the queue.
+	 */
+	static class ReferenceQueue {
+		private final boolean allowConflictOvertaking;
+		private final boolean allowPriorityOvertaking;
+		final List entries = new ArrayList();
+
+		ReferenceQueue(boolean allowConflictOvertaking, boolean allowPriorityOvertaking) {
+			this.allowConflictOvertaking = allowConflictOvertaking;
+			this.allowPriorityOvertaking = allowPriorityOvertaking;
+		}
+
+		private boolean canOvertake(TimedEntry newEntry, TimedEntry queueEntry) {
+			if (newEntry.stamp > 0 && newEntry.stamp < queueEntry.stamp)
+				return true;
+			if (allowPriorityOvertaking && newEntry.startTime >= queueEntry.startTime)
+				return false;
+			return allowConflictOvertaking || !isConflicting(newEntry, queueEntry);
+		}
+
+		private boolean isConflicting(TimedEntry newEntry, TimedEntry queueEntry) {
+			if (newEntry.rule == null || queueEntry.rule == null)
+				return false;
+			if (newEntry.rule.getClass() == MultiRule.class)
+				return newEntry.rule.isConflicting(queueEntry.rule);
+			return queueEntry.rule.isConflicting(newEntry.rule);
+		}
+
+		void enqueue(TimedEntry newEntry) {
+			int index = entries.size();
+			while (index > 0 && canOvertake(newEntry, (TimedEntry) entries.get(index - 1)))
+				index--;
+			entries.add(index, newEntry);
+		}
+	}
+
 	private JobQueue queue;
 
 	public JobQueueTest(String name) {
@@ -60,6 +140,13 @@ public class JobQueueTest extends TestCase {
 		}
 	}
 
+	public void testRandomOperations() {
+		checkRandomOperations(false, true);
+		checkRandomOperations(false, false);
+		checkRandomOperations(true, true);
+		checkRandomOperations(true, false);
+	}
+
 	public void testBasic() {
 		Entry[] entries = createEntries();
 		assertTrue("1.0", queue.isEmpty());
@@ -90,6 +177,65 @@ public class JobQueueTest extends TestCase {
 		assertEquals("3.1", 0, count);
 	}
 
+	/**
+	 * Compares the order of a queue with the order of the linked list algorithm,
+	 * using random entries and operations.
+	 */
+	private void checkRandomOperations(boolean allowConflictOvertaking, boolean allowPriorityOvertaking) {
+		final String[] SEGMENTS = new String[] {"a", "b"};
+		Random random = new Random(1234);
+		JobQueue tested = new JobQueue(allowConflictOvertaking, allowPriorityOvertaking);
+		ReferenceQueue reference = new ReferenceQueue(allowConflictOvertaking, allowPriorityOvertaking);
+		IdentityRule identity = new IdentityRule();
+		long nextStamp = 1;
+		for (int i = 0; i < 3000; i++) {
+			List entries = reference.entries;
+			int operation = random.nextInt(10);
+			if (operation < 5 || entries.isEmpty()) {
+				//add a new entry with a random rule
+				ISchedulingRule rule = null;
+				int kind = random.nextInt(6);
+				if (kind == 1)
+					rule = identity;
+				else if (kind > 1) {
+					IPath path = Path.ROOT;
+					for (int depth = random.nextInt(3); depth > 0; depth--)
+						path = path.append(SEGMENTS[random.nextInt(SEGMENTS.length)]);
+					rule = new PathRule(path);
+					if (kind == 2)
+						rule = MultiRule.combine(rule, new PathRule(path.append("m")));
+				}
+				TimedEntry entry = new TimedEntry(rule);
+				//most entries are new, some have been in the queue before
+				long stamp = random.nextInt(4) == 0 ? 1 + random.nextInt((int) nextStamp) : nextStamp++;
+				entry.setTimes(random.nextInt(20), random.nextInt(10) == 0 ? -1 : stamp);
+				tested.enqueue(entry);
+				reference.enqueue(entry);
+			} else if (operation < 7) {
+				//remove a random entry
+				TimedEntry entry = (TimedEntry) entries.remove(random.nextInt(entries.size()));
+				tested.remove(entry);
+			} else if (operation < 9) {
+				//change the start time of a random entry
+				TimedEntry entry = (TimedEntry) entries.remove(random.nextInt(entries.size()));
+				tested.remove(entry);
+				entry.setTimes(random.nextInt(20), entry.stamp);
+				tested.enqueue(entry);
+				reference.enqueue(entry);
+			} else {
+				assertEquals("1.0." + i, entries.remove(0), tested.dequeue());
+			}
+			//the queues must have the same order
+			assertEquals("2.0." + i, entries.isEmpty() ? null : entries.get(0), tested.peek());
+			Iterator it = tested.iterator();
+			for (int j = 0; j < entries.size(); j++) {
+				assertTrue("3.0." + i, it.hasNext());
+				assertEquals("3.1." + i + "." + j, entries.get(j), it.next());
+			}
+			assertFalse("3.2." + i, it.hasNext());
+		}
+	}
+
 	private Entry[] createEntries() {
 		return new Entry[] {new Entry(Job.INTERACTIVE), new Entry(Job.BUILD), new Entry(Job.INTERACTIVE), new Entry(Job.SHORT), new Entry(Job.DECORATE), new Entry(Job.LONG), new Entry(Job.SHORT), new Entry(Job.BUILD), new Entry(Job.LONG), new Entry(Job.DECORATE),};
 	}
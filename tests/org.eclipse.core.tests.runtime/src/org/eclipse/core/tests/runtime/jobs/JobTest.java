@@ -103,6 +103,81 @@ public class JobTest extends AbstractJobTest {
 		waitForState(longJob, Job.NONE);
 	}
 
+	/**
+	 * Tests that jobs with the same affinity run in the same worker while it
+	 * is idle, although other workers are idle as well.
+	 */
+	public void testAffinity() throws InterruptedException {
+		//make sure that the pool has several idle workers
+		Job[] busy = new Job[4];
+		for (int i = 0; i < busy.length; i++) {
+			busy[i] = new TestJob("BusyJob" + i, 5, 10);
+			busy[i].schedule();
+		}
+		for (int i = 0; i < busy.length; i++)
+			busy[i].join();
+		final Thread[] thread = new Thread[1];
+		Job job = new Job("AffinityJob") {
+			protected IStatus run(IProgressMonitor monitor) {
+				thread[0] = Thread.currentThread();
+				return Status.OK_STATUS;
+			}
+		};
+		assertNull("1.0", job.getAffinity());
+		job.setAffinity("affinity");
+		assertEquals("1.1", "affinity", job.getAffinity());
+		job.schedule();
+		job.join();
+		Thread first = thread[0];
+		for (int i = 0; i < 20; i++) {
+			job.schedule();
+			job.join();
+			assertEquals("2." + i, first, thread[0]);
+		}
+	}
+
+	/**
+	 * Tests that a job is not left for a worker that is about to run another
+	 * job with the same affinity.
+	 */
+	public void testAffinityBusyWorker() throws InterruptedException {
+		final Job second = new Job("SecondAffinityJob") {
+			protected IStatus run(IProgressMonitor monitor) {
+				return Status.OK_STATUS;
+			}
+		};
+		second.setAffinity("busy");
+		final boolean[] started = new boolean[1];
+		Job first = new Job("FirstAffinityJob") {
+			protected IStatus run(IProgressMonitor monitor) {
+				//wait for the second job to start while this job keeps its worker busy
+				long start = System.currentTimeMillis();
+				while (second.getState() != Job.RUNNING && second.getResult() == null && System.currentTimeMillis() - start < 5000) {
+					try {
+						Thread.sleep(10);
+					} catch (InterruptedException e) {
+						//ignore
+					}
+				}
+				started[0] = second.getState() == Job.RUNNING || second.getResult() != null;
+				return Status.OK_STATUS;
+			}
+		};
+		first.setAffinity("busy");
+		//remember the worker of the affinity
+		first.schedule();
+		first.join();
+		first.addJobChangeListener(new JobChangeAdapter() {
+			public void aboutToRun(IJobChangeEvent event) {
+				second.schedule();
+			}
+		});
+		first.schedule();
+		first.join();
+		second.join();
+		assertTrue("1.0", started[0]);
+	}
+
 	//see bug #43566
 	public void testAsynchJob() {
 		final int[] status = {TestBarrier.STATUS_WAIT_FOR_START};
@@ -630,6 +705,96 @@ public class JobTest extends AbstractJobTest {
 		}
 	}
 
+	/**
+	 * Tests that canceling the monitor of a run of a job does not cancel a
+	 * later run, and that a later run does not reset the canceled monitor.
+	 */
+	public void testCancelReschedule() throws InterruptedException {
+		final IProgressMonitor[] monitors = new IProgressMonitor[2];
+		final int[] runs = new int[1];
+		final TestBarrier barrier = new TestBarrier();
+		Job job = new Job("testCancelReschedule") {
+			protected IStatus run(IProgressMonitor monitor) {
+				int run = runs[0]++;
+				monitors[run] = monitor;
+				if (run == 1) {
+					barrier.setStatus(TestBarrier.STATUS_RUNNING);
+					barrier.waitForStatus(TestBarrier.STATUS_WAIT_FOR_DONE);
+				}
+				return monitor.isCanceled() ? Status.CANCEL_STATUS : Status.OK_STATUS;
+			}
+		};
+		//run the job with the monitors created by the job manager
+		Job.getJobManager().setProgressProvider(null);
+		job.schedule();
+		job.join();
+		assertEquals("1.0", IStatus.OK, job.getResult().getSeverity());
+		//a cancel of the first run that arrives after it is done
+		monitors[0].setCanceled(true);
+		job.schedule();
+		barrier.waitForStatus(TestBarrier.STATUS_RUNNING);
+		assertTrue("1.1", monitors[0].isCanceled());
+		assertTrue("1.2", monitors[0] != monitors[1]);
+		//another late cancel while the second run is running
+		monitors[0].setCanceled(true);
+		barrier.setStatus(TestBarrier.STATUS_WAIT_FOR_DONE);
+		job.join();
+		assertEquals("1.3", IStatus.OK, job.getResult().getSeverity());
+	}
+
+	public void testGetFuture() throws InterruptedException {
+		//a job that has never run has a done future
+		IJobFuture future = shortJob.getFuture();
+		assertTrue("1.0", future.isDone());
+		assertEquals("1.1", Status.OK_STATUS, future.getResult());
+
+		//the future of a scheduled job is done when the job is done
+		final int[] runs = new int[1];
+		longJob.schedule(100000);
+		future = longJob.getFuture();
+		assertTrue("2.0", future == longJob.getFuture());
+		future.whenDone(new Runnable() {
+			public void run() {
+				runs[0]++;
+			}
+		});
+		assertTrue("2.1", !future.isDone());
+		assertNull("2.2", future.getResult());
+		assertNull("2.3", future.waitFor(10, null));
+		longJob.cancel();
+		assertEquals("2.4", IStatus.CANCEL, future.waitFor(5000, null).getSeverity());
+		assertEquals("2.5", 1, runs[0]);
+		//a runnable registered after the future is done runs right away
+		future.whenDone(new Runnable() {
+			public void run() {
+				runs[0]++;
+			}
+		});
+		assertEquals("2.6", 2, runs[0]);
+
+		//each run of a job has its own future
+		shortJob.schedule();
+		future = shortJob.getFuture();
+		assertEquals("3.0", IStatus.OK, future.waitFor(Long.MAX_VALUE, null).getSeverity());
+		assertTrue("3.1", future.getResult() == shortJob.getResult());
+		shortJob.schedule(100000);
+		assertTrue("3.2", future != shortJob.getFuture());
+		assertTrue("3.3", !shortJob.getFuture().isDone());
+		shortJob.cancel();
+
+		//waiting is interrupted by the progress monitor
+		longJob.schedule(100000);
+		NullProgressMonitor monitor = new NullProgressMonitor();
+		monitor.setCanceled(true);
+		try {
+			longJob.getFuture().waitFor(5000, monitor);
+			fail("4.0");
+		} catch (OperationCanceledException e) {
+			//expected
+		}
+		longJob.cancel();
+	}
+
 	public void testGetName() {
 		assertTrue("1.0", shortJob.getName().equals("Short Test Job"));
 		assertTrue("1.1", longJob.getName().equals("Long Test Job"));
@@ -643,6 +808,20 @@ public class JobTest extends AbstractJobTest {
 		}
 	}
 
+	public void testGetDeadline() {
+		assertEquals("1.0", Job.NO_DEADLINE, shortJob.getDeadline());
+		shortJob.setDeadline(50);
+		assertEquals("1.1", 50, shortJob.getDeadline());
+		shortJob.setDeadline(Job.NO_DEADLINE);
+		assertEquals("1.2", Job.NO_DEADLINE, shortJob.getDeadline());
+		try {
+			shortJob.setDeadline(-2);
+			fail("1.3");
+		} catch (IllegalArgumentException e) {
+			//should fail
+		}
+	}
+
 	public void testGetPriority() {
 		//set priorities to all allowed options
 		//check if getPriority() returns proper result
@@ -669,6 +848,24 @@ public class JobTest extends AbstractJobTest {
 		shortJob.setProperty(n1, null);
 		assertNull("1.5", shortJob.getProperty(n1));
 		assertNull("1.6", shortJob.getProperty(n2));
+
+		//several properties, removed in a different order than they were set
+		QualifiedName n3 = new QualifiedName("org.eclipse.core.tests.runtime", "p3");
+		shortJob.setProperty(n1, "one");
+		shortJob.setProperty(n2, "two");
+		shortJob.setProperty(n3, "three");
+		shortJob.setProperty(n2, "deux");
+		assertEquals("2.0", "one", shortJob.getProperty(n1));
+		assertEquals("2.1", "deux", shortJob.getProperty(n2));
+		assertEquals("2.2", "three", shortJob.getProperty(n3));
+		shortJob.setProperty(n2, null);
+		assertEquals("2.3", "one", shortJob.getProperty(n1));
+		assertNull("2.4", shortJob.getProperty(n2));
+		assertEquals("2.5", "three", shortJob.getProperty(n3));
+		shortJob.setProperty(n1, null);
+		shortJob.setProperty(n3, null);
+		assertNull("2.6", shortJob.getProperty(n1));
+		assertNull("2.7", shortJob.getProperty(n3));
 	}
 
 	public void testGetResult() {
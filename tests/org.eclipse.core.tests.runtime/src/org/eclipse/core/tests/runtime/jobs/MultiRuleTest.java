@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008 IBM Corporation and others.
+ * Copyright (c) 2008, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -80,4 +80,82 @@ public class MultiRuleTest extends AbstractJobTest {
 		assertTrue("1.5", multi2.isConflicting(multi1));
 		assertTrue("1.6", multi1.isConflicting(multi1));
 	}
+
+	/**
+	 * Tests that duplicate children and children contained by other children are omitted.
+	 */
+	public void testCanonicalChildren() {
+		ISchedulingRule a = new PathRule("/a");
+		ISchedulingRule ab = new PathRule("/a/b");
+		ISchedulingRule otherA = new PathRule("/a");
+		ISchedulingRule c = new PathRule("/c");
+		ISchedulingRule identity = new IdentityRule();
+		MultiRule multi = new MultiRule(new ISchedulingRule[] {ab, identity, a, c, identity, otherA});
+		ISchedulingRule[] children = multi.getChildren();
+		//the first of two rules that contain each other is kept
+		assertEquals("1.0", 3, children.length);
+		assertEquals("1.1", identity, children[0]);
+		assertEquals("1.2", a, children[1]);
+		assertEquals("1.3", c, children[2]);
+		assertTrue("1.4", multi.contains(ab));
+		assertTrue("1.5", multi.contains(otherA));
+
+		//the same with enough children to be indexed
+		ISchedulingRule[] rules = new ISchedulingRule[20];
+		for (int i = 0; i < 10; i++) {
+			rules[i] = new PathRule("/a/" + i);
+			rules[i + 10] = new PathRule("/d/" + i);
+		}
+		ISchedulingRule[] withParent = new ISchedulingRule[21];
+		System.arraycopy(rules, 0, withParent, 0, 20);
+		withParent[20] = a;
+		children = new MultiRule(withParent).getChildren();
+		assertEquals("2.0", 11, children.length);
+		assertEquals("2.1", a, children[10]);
+		assertEquals("2.2", 20, new MultiRule(rules).getChildren().length);
+		//combining rules that are all contained by one rule answers that rule
+		assertEquals("2.3", a, MultiRule.combine(new ISchedulingRule[] {rules[0], rules[1], null, a, rules[2]}));
+	}
+
+	/**
+	 * Tests conflicts and containment of multi-rules with enough children to be indexed.
+	 */
+	public void testIndexedChildren() {
+		ISchedulingRule identity = new IdentityRule();
+		ISchedulingRule[] rules = new ISchedulingRule[21];
+		for (int i = 0; i < 10; i++) {
+			rules[i] = new PathRule("/a/b/" + i);
+			rules[i + 10] = new PathRule("/c/" + i);
+		}
+		rules[20] = identity;
+		MultiRule multi = new MultiRule(rules);
+		//rules above, below and at the path of a child
+		assertTrue("1.0", multi.isConflicting(new PathRule("/a")));
+		assertTrue("1.1", multi.isConflicting(new PathRule("/")));
+		assertTrue("1.2", multi.isConflicting(new PathRule("/a/b/3")));
+		assertTrue("1.3", multi.isConflicting(new PathRule("/c/7/x/y")));
+		assertTrue("1.4", multi.isConflicting(identity));
+		//rules next to children
+		assertTrue("1.5", !multi.isConflicting(new PathRule("/a/c")));
+		assertTrue("1.6", !multi.isConflicting(new PathRule("/a/b/10")));
+		assertTrue("1.7", !multi.isConflicting(new PathRule("/c1")));
+		assertTrue("1.8", !multi.isConflicting(new IdentityRule()));
+
+		assertTrue("2.0", multi.contains(new PathRule("/a/b/3/x")));
+		assertTrue("2.1", multi.contains(identity));
+		assertTrue("2.2", !multi.contains(new PathRule("/a/b")));
+		assertTrue("2.3", !multi.contains(new PathRule("/a/b/30")));
+
+		//other multi-rules with few and many children
+		MultiRule few = new MultiRule(new ISchedulingRule[] {new PathRule("/x"), new PathRule("/c/5")});
+		MultiRule none = new MultiRule(new ISchedulingRule[] {new PathRule("/x"), new PathRule("/c/50")});
+		assertTrue("3.0", multi.isConflicting(few));
+		assertTrue("3.1", few.isConflicting(multi));
+		assertTrue("3.2", !multi.isConflicting(none));
+		assertTrue("3.3", !none.isConflicting(multi));
+		ISchedulingRule[] subset = new ISchedulingRule[10];
+		System.arraycopy(rules, 5, subset, 0, 10);
+		assertTrue("3.4", multi.contains(new MultiRule(subset)));
+		assertTrue("3.5", !new MultiRule(subset).contains(multi));
+	}
 }
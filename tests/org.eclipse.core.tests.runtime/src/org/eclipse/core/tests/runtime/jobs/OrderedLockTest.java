@@ -118,6 +118,38 @@ public class OrderedLockTest extends TestCase {
 		assertTrue("1.0", wasInterupted[0]);
 	}
 
+	/**
+	 * Tests acquiring a lock that is already owned by the thread.
+	 */
+	public void testLockNested() throws InterruptedException {
+		LockManager manager = new LockManager();
+		final ILock lock = manager.newLock();
+		lock.acquire();
+		assertTrue("1.0", lock.acquire(0));
+		assertTrue("1.1", lock.acquire(100));
+		assertEquals("1.2", 3, lock.getDepth());
+		final boolean[] acquired = new boolean[] {true};
+		Thread t = new Thread() {
+			public void run() {
+				try {
+					acquired[0] = lock.acquire(0);
+				} catch (InterruptedException e) {
+					//ignore
+				}
+			}
+		};
+		t.start();
+		t.join();
+		assertFalse("2.0", acquired[0]);
+		lock.release();
+		lock.release();
+		assertEquals("3.0", 1, lock.getDepth());
+		assertFalse("3.1", manager.isEmpty());
+		lock.release();
+		assertEquals("3.2", 0, lock.getDepth());
+		assertTrue("Locks not removed from graph.", manager.isEmpty());
+	}
+
 	/**
 	 * test that an acquire call that times out does not 
 	 * become the lock owner (regression test)
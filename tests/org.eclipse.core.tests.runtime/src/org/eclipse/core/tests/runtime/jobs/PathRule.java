@@ -12,6 +12,7 @@ package org.eclipse.core.tests.runtime.jobs;
 
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.Path;
+import org.eclipse.core.runtime.jobs.IPathSchedulingRule;
 import org.eclipse.core.runtime.jobs.ISchedulingRule;
 
 /**
@@ -19,7 +20,7 @@ import org.eclipse.core.runtime.jobs.ISchedulingRule;
  * rule if its path is a prefix of the other rule's path.  A path rule is conflicting
  * with another rule if either one is a prefix of the other.
  */
-public class PathRule implements ISchedulingRule {
+public class PathRule implements IPathSchedulingRule {
 	private IPath path;
 
 	public PathRule(IPath path) {
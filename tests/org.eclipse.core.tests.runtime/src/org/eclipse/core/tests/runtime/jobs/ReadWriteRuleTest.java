@@ -0,0 +1,188 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM - Initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.tests.runtime.jobs;
+
+import java.util.ArrayList;
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.*;
+import org.eclipse.core.tests.harness.TestBarrier;
+
+/**
+ * Tests for {@link ReadWriteRule}.
+ */
+public class ReadWriteRuleTest extends AbstractJobTest {
+	/**
+	 * A job that adds its name to a list when it runs, and then waits
+	 * until its barrier is released.
+	 */
+	class RecordingJob extends Job {
+		final TestBarrier barrier = new TestBarrier(TestBarrier.STATUS_START);
+		private final ArrayList order;
+
+		RecordingJob(String name, ISchedulingRule rule, ArrayList order) {
+			super(name);
+			this.order = order;
+			setRule(rule);
+		}
+
+		protected IStatus run(IProgressMonitor monitor) {
+			synchronized (order) {
+				order.add(getName());
+			}
+			barrier.setStatus(TestBarrier.STATUS_RUNNING);
+			barrier.waitForStatus(TestBarrier.STATUS_DONE);
+			return Status.OK_STATUS;
+		}
+	}
+
+	public static Test suite() {
+		return new TestSuite(ReadWriteRuleTest.class);
+	}
+
+	public void testConflicts() {
+		ReadWriteRule resource = new ReadWriteRule("resource");
+		ISchedulingRule read1 = resource.newReadRule();
+		ISchedulingRule read2 = resource.newReadRule();
+		ReadWriteRule other = new ReadWriteRule("other");
+		ISchedulingRule otherRead = other.newReadRule();
+
+		assertTrue("1.0", resource.isConflicting(resource));
+		assertTrue("1.1", read1.isConflicting(read1));
+		assertTrue("1.2", resource.isConflicting(read1));
+		assertTrue("1.3", read1.isConflicting(resource));
+		assertTrue("1.4", !read1.isConflicting(read2));
+		assertTrue("1.5", !read2.isConflicting(read1));
+
+		assertTrue("2.0", !resource.isConflicting(other));
+		assertTrue("2.1", !resource.isConflicting(otherRead));
+		assertTrue("2.2", !read1.isConflicting(otherRead));
+		assertTrue("2.3", !otherRead.isConflicting(resource));
+
+		assertTrue("3.0", resource.contains(resource));
+		assertTrue("3.1", resource.contains(read1));
+		assertTrue("3.2", !resource.contains(otherRead));
+		assertTrue("3.3", read1.contains(read1));
+		assertTrue("3.4", !read1.contains(read2));
+		assertTrue("3.5", !read1.contains(resource));
+
+		ISchedulingRule multi = MultiRule.combine(read1, otherRead);
+		assertTrue("4.0", multi.isConflicting(resource));
+		assertTrue("4.1", multi.isConflicting(other));
+		assertTrue("4.2", !multi.isConflicting(read2));
+		assertEquals("4.3", resource, MultiRule.combine(resource, read1));
+	}
+
+	/**
+	 * Tests that jobs with read rules of the same resource run at the same time.
+	 */
+	public void testConcurrentReaders() throws InterruptedException {
+		ReadWriteRule resource = new ReadWriteRule("resource");
+		ArrayList order = new ArrayList();
+		RecordingJob[] readers = new RecordingJob[3];
+		for (int i = 0; i < readers.length; i++) {
+			readers[i] = new RecordingJob("Reader" + i, resource.newReadRule(), order);
+			readers[i].schedule();
+		}
+		//all readers must be running at the same time
+		for (int i = 0; i < readers.length; i++)
+			readers[i].barrier.waitForStatus(TestBarrier.STATUS_RUNNING);
+		for (int i = 0; i < readers.length; i++)
+			readers[i].barrier.setStatus(TestBarrier.STATUS_DONE);
+		for (int i = 0; i < readers.length; i++)
+			readers[i].join();
+		assertEquals("1.0", readers.length, order.size());
+	}
+
+	/**
+	 * Tests that a writer waits for a running reader, and that a reader
+	 * scheduled after the writer does not overtake it.
+	 */
+	public void testWriterNotStarved() throws InterruptedException {
+		ReadWriteRule resource = new ReadWriteRule("resource");
+		ArrayList order = new ArrayList();
+		RecordingJob reader1 = new RecordingJob("Reader1", resource.newReadRule(), order);
+		RecordingJob writer = new RecordingJob("Writer", resource, order);
+		RecordingJob reader2 = new RecordingJob("Reader2", resource.newReadRule(), order);
+		reader1.schedule();
+		reader1.barrier.waitForStatus(TestBarrier.STATUS_RUNNING);
+		writer.schedule();
+		reader2.schedule();
+		//give the job manager time to start jobs that are not blocked
+		sleep(200);
+		synchronized (order) {
+			assertEquals("1.0", 1, order.size());
+		}
+		reader1.barrier.setStatus(TestBarrier.STATUS_DONE);
+		writer.barrier.waitForStatus(TestBarrier.STATUS_RUNNING);
+		sleep(200);
+		synchronized (order) {
+			assertEquals("2.0", 2, order.size());
+		}
+		writer.barrier.setStatus(TestBarrier.STATUS_DONE);
+		reader2.barrier.setStatus(TestBarrier.STATUS_DONE);
+		reader1.join();
+		writer.join();
+		reader2.join();
+		assertEquals("3.0", "Reader1", order.get(0));
+		assertEquals("3.1", "Writer", order.get(1));
+		assertEquals("3.2", "Reader2", order.get(2));
+	}
+
+	/**
+	 * Tests read and write rules applied to threads with beginRule.
+	 */
+	public void testBeginRule() throws InterruptedException {
+		final IJobManager manager = Job.getJobManager();
+		final ReadWriteRule resource = new ReadWriteRule("resource");
+		final boolean[] acquired = new boolean[] {false, false};
+		ISchedulingRule read = resource.newReadRule();
+		manager.beginRule(read, null);
+		Thread writer = null;
+		try {
+			//another reader does not have to wait
+			Thread reader = new Thread() {
+				public void run() {
+					ISchedulingRule rule = resource.newReadRule();
+					manager.beginRule(rule, null);
+					acquired[0] = true;
+					manager.endRule(rule);
+				}
+			};
+			reader.start();
+			reader.join(5000);
+			assertTrue("1.0", acquired[0]);
+			//a writer has to wait
+			writer = new Thread() {
+				public void run() {
+					manager.beginRule(resource, null);
+					try {
+						//the write rule contains all read rules
+						ISchedulingRule rule = resource.newReadRule();
+						manager.beginRule(rule, null);
+						manager.endRule(rule);
+						acquired[1] = true;
+					} finally {
+						manager.endRule(resource);
+					}
+				}
+			};
+			writer.start();
+			sleep(200);
+			assertTrue("2.0", !acquired[1]);
+		} finally {
+			manager.endRule(read);
+		}
+		writer.join(5000);
+		assertTrue("3.0", acquired[1]);
+	}
+}
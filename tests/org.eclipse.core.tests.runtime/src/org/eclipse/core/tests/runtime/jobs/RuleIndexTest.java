@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM - Initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.tests.runtime.jobs;
+
+import java.util.*;
+import junit.framework.TestCase;
+import org.eclipse.core.internal.jobs.InternalJob;
+import org.eclipse.core.internal.jobs.RuleIndex;
+import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.core.runtime.jobs.MultiRule;
+
+/**
+ * Tests for the index of scheduling rules used to find conflicting jobs.
+ */
+public class RuleIndexTest extends TestCase {
+	class Entry extends InternalJob {
+		final ISchedulingRule rule;
+
+		Entry(ISchedulingRule rule) {
+			super("Entry");
+			this.rule = rule;
+			setRule(rule);
+		}
+
+		protected IStatus run(IProgressMonitor monitor) {
+			return Status.OK_STATUS;
+		}
+
+		public String toString() {
+			return "Entry(" + rule + ")";
+		}
+	}
+
+	private RuleIndex index;
+
+	private static boolean isConflicting(ISchedulingRule rule1, ISchedulingRule rule2) {
+		return rule1.isConflicting(rule2) || rule2.isConflicting(rule1);
+	}
+
+	public RuleIndexTest(String name) {
+		super(name);
+	}
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		index = new RuleIndex();
+	}
+
+	public void testAncestorsAndDescendants() {
+		Entry root = new Entry(new PathRule("/"));
+		Entry project = new Entry(new PathRule("/p"));
+		Entry file = new Entry(new PathRule("/p/f"));
+		Entry sibling = new Entry(new PathRule("/q/f"));
+		assertTrue("1.0", index.isEmpty());
+
+		index.add(project);
+		assertFalse("2.0", index.isEmpty());
+		assertEquals("2.1", project, index.findConflicting(root));
+		assertEquals("2.2", project, index.findConflicting(project));
+		assertEquals("2.3", project, index.findConflicting(file));
+		assertNull("2.4", index.findConflicting(sibling));
+
+		index.remove(project);
+		assertTrue("3.0", index.isEmpty());
+		index.add(file);
+		assertEquals("3.1", file, index.findConflicting(root));
+		assertEquals("3.2", file, index.findConflicting(project));
+		assertNull("3.3", index.findConflicting(sibling));
+
+		index.add(root);
+		assertNotNull("4.0", index.findConflicting(sibling));
+		index.remove(root);
+		index.remove(file);
+		assertTrue("4.1", index.isEmpty());
+	}
+
+	public void testOtherRules() {
+		IdentityRule identity = new IdentityRule();
+		Entry identityEntry = new Entry(identity);
+		Entry multiEntry = new Entry(MultiRule.combine(new PathRule("/a"), new PathRule("/b")));
+		Entry none = new Entry(null);
+
+		index.add(none);
+		assertTrue("1.0", index.isEmpty());
+		index.add(identityEntry);
+		index.add(multiEntry);
+		assertEquals("1.1", identityEntry, index.findConflicting(new Entry(identity)));
+		assertEquals("1.2", multiEntry, index.findConflicting(new Entry(new PathRule("/b/c"))));
+		assertNull("1.3", index.findConflicting(new Entry(new PathRule("/c"))));
+		assertNull("1.4", index.findConflicting(none));
+
+		index.remove(multiEntry);
+		index.add(new Entry(new PathRule("/b")));
+		//a multi-rule must find the path rules it conflicts with
+		assertNotNull("2.0", index.findConflicting(multiEntry));
+		index.clear();
+		assertTrue("2.1", index.isEmpty());
+		assertNull("2.2", index.findConflicting(multiEntry));
+	}
+
+	/**
+	 * Compares the index with an exhaustive search, using randomly
+	 * generated rules.
+	 */
+	public void testRandom() {
+		final String[] SEGMENTS = new String[] {"a", "b", "c"};
+		Random random = new Random(1234);
+		IdentityRule[] identities = new IdentityRule[] {new IdentityRule(), new IdentityRule()};
+		List members = new ArrayList();
+		for (int i = 0; i < 2000; i++) {
+			//create a random rule
+			ISchedulingRule rule;
+			int kind = random.nextInt(10);
+			if (kind == 0) {
+				rule = identities[random.nextInt(identities.length)];
+			} else {
+				IPath path = Path.ROOT;
+				for (int depth = random.nextInt(4); depth > 0; depth--)
+					path = path.append(SEGMENTS[random.nextInt(SEGMENTS.length)]);
+				rule = new PathRule(path);
+				if (kind == 1)
+					rule = MultiRule.combine(rule, new PathRule(path.append("m")));
+			}
+			Entry entry = new Entry(rule);
+			//compare the search result with the exhaustive search
+			InternalJob found = index.findConflicting(entry);
+			boolean expected = false;
+			for (Iterator it = members.iterator(); it.hasNext();)
+				expected |= isConflicting(rule, ((Entry) it.next()).rule);
+			assertEquals("1.0." + i, expected, found != null);
+			if (found != null)
+				assertTrue("1.1." + i, members.contains(found) && isConflicting(rule, ((Entry) found).rule));
+			//randomly add or remove members
+			if (!members.isEmpty() && random.nextBoolean()) {
+				Entry removed = (Entry) members.remove(random.nextInt(members.size()));
+				index.remove(removed);
+			} else {
+				members.add(entry);
+				index.add(entry);
+			}
+		}
+		for (Iterator it = members.iterator(); it.hasNext();)
+			index.remove((Entry) it.next());
+		assertTrue("2.0", index.isEmpty());
+	}
+}
@@ -44,6 +44,9 @@ public class AllTests extends TestCase {
 		suite.addTest(BenchPath.suite());
 		suite.addTest(ContentTypePerformanceTest.suite());
 		suite.addTest(PreferencePerformanceTest.suite());
+		suite.addTest(JobManagerPerformanceTest.suite());
+		suite.addTest(OrderedLockPerformanceTest.suite());
+		suite.addTest(MultiRulePerformanceTest.suite());
 		return suite;
 	}
 }
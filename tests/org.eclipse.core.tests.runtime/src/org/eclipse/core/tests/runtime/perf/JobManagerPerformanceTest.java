@@ -0,0 +1,661 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.tests.runtime.perf;
+
+import java.util.Random;
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.*;
+import org.eclipse.core.tests.harness.PerformanceTestRunner;
+import org.eclipse.core.tests.runtime.RuntimeTest;
+import org.eclipse.core.tests.runtime.jobs.PathRule;
+
+/**
+ * Measures the throughput of the job manager when many threads schedule
+ * short jobs concurrently, when many jobs block at the same time, and when
+ * many jobs are sleeping. Also measures the cost of beginning and ending 
+ * rules in threads that are not jobs, how quickly joining a family returns,
+ * how quickly the jobs of a family are found among many other jobs, how
+ * much memory the job manager allocates to run the same jobs again, and how
+ * much faster jobs that use thread local caches run with an affinity.
+ */
+public class JobManagerPerformanceTest extends RuntimeTest {
+	/**
+	 * The total number of jobs scheduled by each measured iteration, independent
+	 * of the number of producer threads.
+	 */
+	private static final int JOB_COUNT = 20000;
+
+	/**
+	 * The number of jobs in a burst of jobs that block.
+	 */
+	private static final int BLOCKING_JOB_COUNT = 10000;
+
+	/**
+	 * The time in milliseconds that each job in a burst of blocking jobs is blocked.
+	 */
+	private static final long BLOCKING_TIME = 20;
+
+	/**
+	 * The number of jobs scheduled together by the batch scheduling tests.
+	 */
+	private static final int BATCH_SIZE = 10000;
+
+	/**
+	 * The number of sleeping jobs, in families of FAMILY_SIZE jobs, that are
+	 * alive while the family tests find the jobs of one family.
+	 */
+	private static final int FAMILY_JOB_COUNT = 10000;
+
+	/**
+	 * The number of jobs in each family of the family tests.
+	 */
+	private static final int FAMILY_SIZE = 10;
+
+	/**
+	 * The number of global listeners registered by the listener tests.
+	 */
+	private static final int LISTENER_COUNT = 40;
+
+	/**
+	 * The total number of times a rule is begun and ended by each measured
+	 * iteration, independent of the number of threads.
+	 */
+	private static final int RULE_COUNT = 20000;
+
+	/**
+	 * The number of jobs that are scheduled again and again by the reschedule test.
+	 */
+	private static final int RESCHEDULED_JOB_COUNT = 100;
+
+	/**
+	 * The number of affinities of the jobs of the affinity tests.
+	 */
+	private static final int AFFINITY_COUNT = 4;
+
+	/**
+	 * The number of ints in the data that the jobs of an affinity work on.
+	 */
+	private static final int AFFINITY_DATA_SIZE = 1 << 16;
+
+	/**
+	 * The number of times the jobs of the affinity tests are scheduled by
+	 * each measured iteration.
+	 */
+	private static final int AFFINITY_ROUNDS = 1000;
+
+	public static Test suite() {
+		return new TestSuite(JobManagerPerformanceTest.class);
+	}
+
+	public JobManagerPerformanceTest() {
+		super();
+	}
+
+	public JobManagerPerformanceTest(String testName) {
+		super(testName);
+	}
+
+	/**
+	 * Starts the given number of producer threads that together schedule
+	 * JOB_COUNT empty jobs, and waits until all jobs have completed.
+	 */
+	void scheduleAndComplete(int producerCount) {
+		final int jobsPerProducer = JOB_COUNT / producerCount;
+		final int[] remaining = new int[] {jobsPerProducer * producerCount};
+		Thread[] producers = new Thread[producerCount];
+		for (int i = 0; i < producerCount; i++) {
+			producers[i] = new Thread("Producer-" + i) {
+				public void run() {
+					for (int j = 0; j < jobsPerProducer; j++) {
+						new Job("JobManagerPerformanceTest") {
+							protected IStatus run(IProgressMonitor monitor) {
+								synchronized (remaining) {
+									if (--remaining[0] == 0)
+										remaining.notifyAll();
+								}
+								return Status.OK_STATUS;
+							}
+						}.schedule();
+					}
+				}
+			};
+		}
+		for (int i = 0; i < producerCount; i++)
+			producers[i].start();
+		try {
+			for (int i = 0; i < producerCount; i++)
+				producers[i].join();
+			synchronized (remaining) {
+				while (remaining[0] > 0)
+					remaining.wait();
+			}
+		} catch (InterruptedException e) {
+			fail("4.99", e);
+		}
+	}
+
+	/**
+	 * Schedules each of the given jobs, which decrement the given counter when
+	 * they run, until JOB_COUNT jobs have run. Each round of jobs completes
+	 * before the jobs are scheduled again.
+	 */
+	void rescheduleJobs(Job[] jobs, int[] remaining) {
+		rescheduleJobs(jobs, remaining, JOB_COUNT / jobs.length);
+	}
+
+	/**
+	 * Schedules each of the given jobs, which decrement the given counter when
+	 * they run, the given number of times. Each round of jobs completes
+	 * before the jobs are scheduled again.
+	 */
+	void rescheduleJobs(Job[] jobs, int[] remaining, int rounds) {
+		try {
+			for (int round = 0; round < rounds; round++) {
+				synchronized (remaining) {
+					remaining[0] = jobs.length;
+				}
+				for (int i = 0; i < jobs.length; i++)
+					jobs[i].schedule();
+				synchronized (remaining) {
+					while (remaining[0] > 0)
+						remaining.wait();
+				}
+				//the counter is decremented before the jobs are done
+				for (int i = 0; i < jobs.length; i++)
+					jobs[i].join();
+			}
+		} catch (InterruptedException e) {
+			fail("4.99", e);
+		}
+	}
+
+	/**
+	 * Schedules BLOCKING_JOB_COUNT jobs that each sleep for BLOCKING_TIME, which
+	 * is how jobs waiting for I/O behave, and waits until all jobs have completed.
+	 * Since all workers are busy when the jobs are scheduled, this measures how
+	 * quickly the worker pool grows to the size of the burst.
+	 */
+	void scheduleBlockingBurst() {
+		final int[] remaining = new int[] {BLOCKING_JOB_COUNT};
+		for (int i = 0; i < BLOCKING_JOB_COUNT; i++) {
+			new Job("JobManagerPerformanceTest") {
+				protected IStatus run(IProgressMonitor monitor) {
+					try {
+						Thread.sleep(BLOCKING_TIME);
+					} catch (InterruptedException e) {
+						//ignore
+					}
+					synchronized (remaining) {
+						if (--remaining[0] == 0)
+							remaining.notifyAll();
+					}
+					return Status.OK_STATUS;
+				}
+			}.schedule();
+		}
+		try {
+			synchronized (remaining) {
+				while (remaining[0] > 0)
+					remaining.wait();
+			}
+		} catch (InterruptedException e) {
+			fail("4.99", e);
+		}
+	}
+
+	/**
+	 * Schedules BATCH_SIZE empty jobs, either all at once or one by one, and
+	 * waits until all jobs have completed.
+	 */
+	void scheduleBatch(boolean batch) {
+		final int[] remaining = new int[] {BATCH_SIZE};
+		Job[] jobs = new Job[BATCH_SIZE];
+		for (int i = 0; i < BATCH_SIZE; i++) {
+			jobs[i] = new Job("JobManagerPerformanceTest") {
+				protected IStatus run(IProgressMonitor monitor) {
+					synchronized (remaining) {
+						if (--remaining[0] == 0)
+							remaining.notifyAll();
+					}
+					return Status.OK_STATUS;
+				}
+			};
+		}
+		if (batch) {
+			Job.getJobManager().scheduleAll(jobs, 0);
+		} else {
+			for (int i = 0; i < BATCH_SIZE; i++)
+				jobs[i].schedule();
+		}
+		try {
+			synchronized (remaining) {
+				while (remaining[0] > 0)
+					remaining.wait();
+			}
+		} catch (InterruptedException e) {
+			fail("4.99", e);
+		}
+	}
+
+	/**
+	 * Schedules AFFINITY_COUNT jobs AFFINITY_ROUNDS times. Each job works on
+	 * the data of its own affinity, which a worker keeps in a thread local
+	 * cache, like a parser or a buffer, until it works on another affinity.
+	 * The jobs either declare their affinity, or run in any worker.
+	 */
+	private void runAffinityJobs(boolean affinity) {
+		final int[] remaining = new int[1];
+		final ThreadLocal cache = new ThreadLocal();
+		final Job[] jobs = new Job[AFFINITY_COUNT];
+		for (int i = 0; i < jobs.length; i++) {
+			final Integer key = new Integer(i);
+			jobs[i] = new Job("JobManagerPerformanceTest") {
+				protected IStatus run(IProgressMonitor monitor) {
+					Object[] cached = (Object[]) cache.get();
+					if (cached == null || cached[0] != key) {
+						//build the data again, like parsing a file
+						int[] data = new int[AFFINITY_DATA_SIZE];
+						for (int j = 0; j < data.length; j++)
+							data[j] = (j * 31 + key.intValue()) ^ (j >>> 3);
+						cached = new Object[] {key, data};
+						cache.set(cached);
+					}
+					int[] data = (int[]) cached[1];
+					int sum = 0;
+					for (int j = 0; j < data.length; j++)
+						sum += data[j];
+					synchronized (remaining) {
+						//use the sum so that the loop is not optimized away
+						if (sum == 0 || --remaining[0] == 0)
+							remaining.notifyAll();
+					}
+					return Status.OK_STATUS;
+				}
+			};
+			if (affinity)
+				jobs[i].setAffinity(key);
+		}
+		//warm up the worker pool and the caches outside the measured loop
+		rescheduleJobs(jobs, remaining, AFFINITY_ROUNDS);
+		new PerformanceTestRunner() {
+			protected void test() {
+				rescheduleJobs(jobs, remaining, AFFINITY_ROUNDS);
+			}
+		}.run(this, 10, 1);
+	}
+
+	private void runScheduleBatch(final boolean batch) {
+		//warm up the worker pool outside the measured loop
+		scheduleBatch(batch);
+		new PerformanceTestRunner() {
+			protected void test() {
+				scheduleBatch(batch);
+			}
+		}.run(this, 10, 1);
+	}
+
+	/**
+	 * Schedules and completes jobs while LISTENER_COUNT global listeners are
+	 * registered that are each only interested in the done events of a family 
+	 * that the jobs do not belong to. The listeners either filter the events
+	 * themselves, or are registered with a filter.
+	 */
+	private void runWithListeners(boolean filtered) {
+		IJobManager manager = Job.getJobManager();
+		IJobChangeListener[] listeners = new IJobChangeListener[LISTENER_COUNT];
+		final int[] matched = new int[] {0};
+		for (int i = 0; i < LISTENER_COUNT; i++) {
+			final Object family = new Object();
+			listeners[i] = new JobChangeAdapter() {
+				public void done(IJobChangeEvent event) {
+					if (event.getJob().belongsTo(family))
+						matched[0]++;
+				}
+			};
+			if (filtered)
+				manager.addJobChangeListener(listeners[i], family, IJobChangeEvent.DONE);
+			else
+				manager.addJobChangeListener(listeners[i]);
+		}
+		try {
+			runScheduleAndComplete(1);
+		} finally {
+			for (int i = 0; i < LISTENER_COUNT; i++)
+				manager.removeJobChangeListener(listeners[i]);
+		}
+		assertEquals("1.0", 0, matched[0]);
+	}
+
+	/**
+	 * Starts the given number of threads that together begin and end a
+	 * scheduling rule RULE_COUNT times. Each thread uses its own rule,
+	 * unless all threads share the same rule.
+	 */
+	void beginEndRule(int threadCount, boolean shared) {
+		final int rulesPerThread = RULE_COUNT / threadCount;
+		final IJobManager manager = Job.getJobManager();
+		Thread[] threads = new Thread[threadCount];
+		for (int i = 0; i < threadCount; i++) {
+			final ISchedulingRule rule = new PathRule(shared ? "/shared" : "/thread" + i);
+			threads[i] = new Thread("BeginEndRule-" + i) {
+				public void run() {
+					for (int j = 0; j < rulesPerThread; j++) {
+						manager.beginRule(rule, null);
+						manager.endRule(rule);
+					}
+				}
+			};
+		}
+		for (int i = 0; i < threadCount; i++)
+			threads[i].start();
+		try {
+			for (int i = 0; i < threadCount; i++)
+				threads[i].join();
+		} catch (InterruptedException e) {
+			fail("4.99", e);
+		}
+	}
+
+	/**
+	 * Schedules the given number of empty jobs in one family, and joins the family.
+	 */
+	void joinFamily(int jobCount) {
+		final Object family = new Object();
+		for (int i = 0; i < jobCount; i++) {
+			new Job("JobManagerPerformanceTest") {
+				public boolean belongsTo(Object object) {
+					return object == family;
+				}
+
+				protected IStatus run(IProgressMonitor monitor) {
+					return Status.OK_STATUS;
+				}
+			}.schedule();
+		}
+		try {
+			Job.getJobManager().join(family, null);
+		} catch (InterruptedException e) {
+			fail("4.99", e);
+		}
+	}
+
+	private void runBeginEndRule(final int threadCount, final boolean shared) {
+		new PerformanceTestRunner() {
+			protected void test() {
+				beginEndRule(threadCount, shared);
+			}
+		}.run(this, 10, 1);
+	}
+
+	/**
+	 * Finds the jobs of each family among FAMILY_JOB_COUNT sleeping jobs, which
+	 * either declare their family or only answer belongsTo.
+	 */
+	private void runFindFamily(boolean declared) {
+		final Integer[] families = new Integer[FAMILY_JOB_COUNT / FAMILY_SIZE];
+		for (int i = 0; i < families.length; i++)
+			families[i] = new Integer(i);
+		Job[] jobs = new Job[FAMILY_JOB_COUNT];
+		for (int i = 0; i < jobs.length; i++) {
+			final Integer family = families[i % families.length];
+			if (declared) {
+				jobs[i] = new Job("JobManagerPerformanceTest", family) {
+					protected IStatus run(IProgressMonitor monitor) {
+						return Status.OK_STATUS;
+					}
+				};
+			} else {
+				jobs[i] = new Job("JobManagerPerformanceTest") {
+					public boolean belongsTo(Object object) {
+						return family.equals(object);
+					}
+
+					protected IStatus run(IProgressMonitor monitor) {
+						return Status.OK_STATUS;
+					}
+				};
+			}
+		}
+		final IJobManager manager = Job.getJobManager();
+		manager.scheduleAll(jobs, 1000000);
+		try {
+			new PerformanceTestRunner() {
+				protected void test() {
+					for (int i = 0; i < families.length; i++)
+						assertEquals("1.0", FAMILY_SIZE, manager.find(families[i]).length);
+				}
+			}.run(this, 10, 1);
+		} finally {
+			manager.cancelAll(jobs);
+		}
+	}
+
+	private void runJoinFamily(final int jobCount) {
+		//repeat short joins to measure them with the timer resolution
+		final int repeat = Math.max(1, 10 / jobCount);
+		new PerformanceTestRunner() {
+			protected void test() {
+				joinFamily(jobCount);
+			}
+		}.run(this, 10, repeat);
+	}
+
+	private void runScheduleAndCompleteWithDepth(int depth) {
+		Job[] sleeping = new Job[depth];
+		for (int i = 0; i < depth; i++) {
+			sleeping[i] = new Job("JobManagerPerformanceTest.sleeping") {
+				protected IStatus run(IProgressMonitor monitor) {
+					return Status.OK_STATUS;
+				}
+			};
+			sleeping[i].schedule(1000000 + i);
+		}
+		try {
+			runScheduleAndComplete(1);
+		} finally {
+			Job.getJobManager().cancelAll(sleeping);
+		}
+	}
+
+	private void runScheduleAndComplete(final int producerCount) {
+		//warm up the worker pool outside the measured loop
+		scheduleAndComplete(producerCount);
+		new PerformanceTestRunner() {
+			protected void test() {
+				scheduleAndComplete(producerCount);
+			}
+		}.run(this, 10, 1);
+	}
+
+	/**
+	 * Runs bursts of blocking jobs. Run with different values of the
+	 * eclipse.jobs.workerStackSize property to compare the memory
+	 * used by the workers.
+	 */
+	public void testBlockingBurst() {
+		new PerformanceTestRunner() {
+			protected void test() {
+				scheduleBlockingBurst();
+			}
+		}.run(this, 5, 1);
+	}
+
+	/**
+	 * Runs jobs that work on the data of their affinity in any worker.
+	 */
+	public void testAffinityIgnored() {
+		runAffinityJobs(false);
+	}
+
+	/**
+	 * Runs jobs that work on the data of their affinity in the worker that 
+	 * last worked on that data.
+	 */
+	public void testAffinity() {
+		runAffinityJobs(true);
+	}
+
+	public void testBeginEndRule1() {
+		runBeginEndRule(1, false);
+	}
+
+	public void testBeginEndRule4() {
+		runBeginEndRule(4, false);
+	}
+
+	/**
+	 * Begins and ends the same rule in several threads.
+	 */
+	public void testBeginEndRuleContended4() {
+		runBeginEndRule(4, true);
+	}
+
+	/**
+	 * Finds each family of sleeping jobs that declare their family.
+	 */
+	public void testFindDeclaredFamily() {
+		runFindFamily(true);
+	}
+
+	/**
+	 * Finds each family of sleeping jobs that only answer belongsTo.
+	 */
+	public void testFindFamily() {
+		runFindFamily(false);
+	}
+
+	/**
+	 * Measures how quickly a thread that joins a family is released when
+	 * the only job in the family is done.
+	 */
+	public void testJoinFamily1() {
+		runJoinFamily(1);
+	}
+
+	public void testJoinFamily100() {
+		runJoinFamily(100);
+	}
+
+	public void testJoinFamily10000() {
+		runJoinFamily(10000);
+	}
+
+	public void testListeners() {
+		runWithListeners(false);
+	}
+
+	public void testListenersFiltered() {
+		runWithListeners(true);
+	}
+
+	/**
+	 * Schedules batches of jobs with IJobManager#scheduleAll.
+	 */
+	public void testScheduleBatch() {
+		runScheduleBatch(true);
+	}
+
+	/**
+	 * Schedules the same batches as testScheduleBatch, one job at a time.
+	 */
+	public void testScheduleBatchIndividually() {
+		runScheduleBatch(false);
+	}
+
+	/**
+	 * Schedules JOB_COUNT jobs with random delays, then cancels them
+	 * in the order they were scheduled.
+	 */
+	public void testScheduleDelayedAndCancel() {
+		final Job[] jobs = new Job[JOB_COUNT];
+		for (int i = 0; i < JOB_COUNT; i++) {
+			jobs[i] = new Job("JobManagerPerformanceTest") {
+				protected IStatus run(IProgressMonitor monitor) {
+					return Status.OK_STATUS;
+				}
+			};
+		}
+		final Random random = new Random();
+		new PerformanceTestRunner() {
+			protected void test() {
+				for (int i = 0; i < JOB_COUNT; i++)
+					jobs[i].schedule(1000000 + random.nextInt(1000000));
+				for (int i = 0; i < JOB_COUNT; i++)
+					jobs[i].cancel();
+			}
+		}.run(this, 10, 1);
+	}
+
+	/**
+	 * Schedules the same RESCHEDULED_JOB_COUNT jobs again and again. Since no
+	 * jobs are created while measuring, the memory allocated by the iterations
+	 * is allocated by the job manager while it schedules, runs and completes
+	 * the jobs.
+	 */
+	public void testRescheduleJobs() {
+		final int[] remaining = new int[1];
+		final Job[] jobs = new Job[RESCHEDULED_JOB_COUNT];
+		for (int i = 0; i < jobs.length; i++) {
+			jobs[i] = new Job("JobManagerPerformanceTest") {
+				protected IStatus run(IProgressMonitor monitor) {
+					synchronized (remaining) {
+						if (--remaining[0] == 0)
+							remaining.notifyAll();
+					}
+					return Status.OK_STATUS;
+				}
+			};
+		}
+		//warm up the worker pool outside the measured loop
+		rescheduleJobs(jobs, remaining);
+		new PerformanceTestRunner() {
+			protected void test() {
+				rescheduleJobs(jobs, remaining);
+			}
+		}.run(this, 10, 1);
+	}
+
+	public void testScheduleAndComplete1() {
+		runScheduleAndComplete(1);
+	}
+
+	public void testScheduleAndComplete2() {
+		runScheduleAndComplete(2);
+	}
+
+	public void testScheduleAndComplete4() {
+		runScheduleAndComplete(4);
+	}
+
+	public void testScheduleAndComplete8() {
+		runScheduleAndComplete(8);
+	}
+
+	public void testScheduleAndComplete16() {
+		runScheduleAndComplete(16);
+	}
+
+	/**
+	 * Schedules and completes jobs while 100 other jobs are sleeping.
+	 */
+	public void testScheduleAndCompleteDepth100() {
+		runScheduleAndCompleteWithDepth(100);
+	}
+
+	/**
+	 * Schedules and completes jobs while 10000 other jobs are sleeping.
+	 */
+	public void testScheduleAndCompleteDepth10000() {
+		runScheduleAndCompleteWithDepth(10000);
+	}
+}
@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM - Initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.tests.runtime.perf;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.core.runtime.jobs.MultiRule;
+import org.eclipse.core.tests.harness.PerformanceTestRunner;
+import org.eclipse.core.tests.runtime.RuntimeTest;
+import org.eclipse.core.tests.runtime.jobs.PathRule;
+
+/**
+ * Measures the cost of checking multi-rules for conflicts and containment,
+ * and of combining many rules into one.
+ */
+public class MultiRulePerformanceTest extends RuntimeTest {
+	/**
+	 * The number of checks performed by each measured iteration.
+	 */
+	private static final int CHECK_COUNT = 1000;
+
+	/**
+	 * The number of times the rules are combined by each measured iteration.
+	 */
+	private static final int COMBINE_COUNT = 10;
+
+	public static Test suite() {
+		return new TestSuite(MultiRulePerformanceTest.class);
+	}
+
+	public MultiRulePerformanceTest() {
+		super();
+	}
+
+	public MultiRulePerformanceTest(String testName) {
+		super(testName);
+	}
+
+	/**
+	 * Returns a multi-rule with the given number of path rules below the given parent.
+	 */
+	private ISchedulingRule createRule(String parent, int childCount) {
+		ISchedulingRule[] children = new ISchedulingRule[childCount];
+		for (int i = 0; i < childCount; i++)
+			children[i] = new PathRule(parent + "/" + i);
+		return new MultiRule(children);
+	}
+
+	/**
+	 * Checks whether two multi-rules with the given number of children conflict.
+	 * They do not conflict, so every pair of children is checked.
+	 */
+	private void runConflicting(int childCount) {
+		final ISchedulingRule first = createRule("/a", childCount);
+		final ISchedulingRule second = createRule("/b", childCount);
+		new PerformanceTestRunner() {
+			protected void test() {
+				for (int i = 0; i < CHECK_COUNT; i++)
+					assertFalse(first.isConflicting(second));
+			}
+		}.run(this, 10, 1);
+	}
+
+	/**
+	 * Checks whether a multi-rule with the given number of children contains
+	 * its last child.
+	 */
+	private void runContains(int childCount) {
+		final ISchedulingRule rule = createRule("/a", childCount);
+		final ISchedulingRule child = new PathRule("/a/" + (childCount - 1));
+		new PerformanceTestRunner() {
+			protected void test() {
+				for (int i = 0; i < CHECK_COUNT; i++)
+					assertTrue(rule.contains(child));
+			}
+		}.run(this, 10, 1);
+	}
+
+	/**
+	 * Combines the given number of path rules, one by one and all at once.
+	 */
+	private void runCombine(int childCount) {
+		final ISchedulingRule[] children = new ISchedulingRule[childCount];
+		for (int i = 0; i < childCount; i++)
+			children[i] = new PathRule("/a/" + i);
+		new PerformanceTestRunner() {
+			protected void test() {
+				for (int i = 0; i < COMBINE_COUNT; i++) {
+					ISchedulingRule rule = null;
+					for (int j = 0; j < children.length; j++)
+						rule = MultiRule.combine(rule, children[j]);
+					assertEquals(children.length, ((MultiRule) rule).getChildren().length);
+					rule = MultiRule.combine(children);
+					assertEquals(children.length, ((MultiRule) rule).getChildren().length);
+				}
+			}
+		}.run(this, 10, 1);
+	}
+
+	public void testCombine1000() {
+		runCombine(1000);
+	}
+
+	public void testConflicting10() {
+		runConflicting(10);
+	}
+
+	public void testConflicting100() {
+		runConflicting(100);
+	}
+
+	public void testConflicting1000() {
+		runConflicting(1000);
+	}
+
+	public void testContains10() {
+		runContains(10);
+	}
+
+	public void testContains100() {
+		runContains(100);
+	}
+
+	public void testContains1000() {
+		runContains(1000);
+	}
+}
@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM - Initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.tests.runtime.perf;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import org.eclipse.core.runtime.jobs.ILock;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.tests.harness.PerformanceTestRunner;
+import org.eclipse.core.tests.runtime.RuntimeTest;
+
+/**
+ * Measures the cost of acquiring and releasing locks created by the job
+ * manager, with and without contention.
+ */
+public class OrderedLockPerformanceTest extends RuntimeTest {
+	/**
+	 * The total number of times the lock is acquired by each measured
+	 * iteration, independent of the number of threads.
+	 */
+	private static final int ACQUIRE_COUNT = 100000;
+	/**
+	 * The number of other locks held while acquiring and releasing a lock.
+	 */
+	private static final int HELD_COUNT = 500;
+
+	public static Test suite() {
+		return new TestSuite(OrderedLockPerformanceTest.class);
+	}
+
+	public OrderedLockPerformanceTest() {
+		super();
+	}
+
+	public OrderedLockPerformanceTest(String testName) {
+		super(testName);
+	}
+
+	/**
+	 * Starts the given number of threads that together acquire and release
+	 * the given lock ACQUIRE_COUNT times. Each time, the lock is acquired
+	 * the given number of times before it is released as often.
+	 */
+	void acquireRelease(final ILock lock, int threadCount, final int depth) {
+		final int acquiresPerThread = ACQUIRE_COUNT / threadCount / depth;
+		Thread[] threads = new Thread[threadCount];
+		for (int i = 0; i < threadCount; i++) {
+			threads[i] = new Thread("OrderedLockPerformanceTest-" + i) {
+				public void run() {
+					for (int j = 0; j < acquiresPerThread; j++) {
+						for (int k = 0; k < depth; k++)
+							lock.acquire();
+						for (int k = 0; k < depth; k++)
+							lock.release();
+					}
+				}
+			};
+		}
+		for (int i = 0; i < threadCount; i++)
+			threads[i].start();
+		try {
+			for (int i = 0; i < threadCount; i++)
+				threads[i].join();
+		} catch (InterruptedException e) {
+			fail("4.99", e);
+		}
+	}
+
+	private void runAcquireRelease(final int threadCount, final int depth) {
+		final ILock lock = Job.getJobManager().newLock();
+		//warm up outside the measured loop
+		acquireRelease(lock, threadCount, depth);
+		new PerformanceTestRunner() {
+			protected void test() {
+				acquireRelease(lock, threadCount, depth);
+			}
+		}.run(this, 10, 1);
+	}
+
+	public void testAcquireRelease() {
+		runAcquireRelease(1, 1);
+	}
+
+	/**
+	 * Acquires the lock again while holding it.
+	 */
+	public void testAcquireReleaseNested() {
+		runAcquireRelease(1, 4);
+	}
+
+	/**
+	 * Acquires and releases a lock while holding many other locks, so that
+	 * the deadlock detector has many locks in its graph.
+	 */
+	public void testAcquireReleaseWhileHoldingMany() {
+		final ILock lock = Job.getJobManager().newLock();
+		ILock[] held = new ILock[HELD_COUNT];
+		for (int i = 0; i < held.length; i++) {
+			held[i] = Job.getJobManager().newLock();
+			held[i].acquire();
+		}
+		try {
+			new PerformanceTestRunner() {
+				protected void test() {
+					for (int i = 0; i < ACQUIRE_COUNT; i++) {
+						lock.acquire();
+						lock.release();
+					}
+				}
+			}.run(this, 10, 1);
+		} finally {
+			for (int i = held.length; --i >= 0;)
+				held[i].release();
+		}
+	}
+
+	/**
+	 * Acquires and releases a lock that is already owned by the thread.
+	 */
+	public void testAcquireReleaseReentrant() {
+		final ILock lock = Job.getJobManager().newLock();
+		lock.acquire();
+		try {
+			new PerformanceTestRunner() {
+				protected void test() {
+					for (int i = 0; i < ACQUIRE_COUNT; i++) {
+						lock.acquire();
+						lock.release();
+					}
+				}
+			}.run(this, 10, 10);
+		} finally {
+			lock.release();
+		}
+	}
+
+	public void testAcquireReleaseContended2() {
+		runAcquireRelease(2, 1);
+	}
+
+	public void testAcquireReleaseContended4() {
+		runAcquireRelease(4, 1);
+	}
+
+	public void testAcquireReleaseContended8() {
+		runAcquireRelease(8, 1);
+	}
+}